@@ -0,0 +1,114 @@
+package de.codesourcery.engine.linalg;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Micro-benchmarks for {@link Matrix} , {@link AffineMatrix} and {@link Vector4}.
+ *
+ * <p>Operands are created from a fixed seed so results are comparable across commits.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinAlgBenchmark
+{
+	private static final long RANDOM_SEED = 0xdeadbeefL;
+
+	private Matrix matrix1;
+	private Matrix matrix2;
+	private final Matrix destMatrix = new Matrix();
+
+	private AffineMatrix affineMatrix1;
+	private AffineMatrix affineMatrix2;
+	private final AffineMatrix destAffineMatrix = new AffineMatrix();
+
+	private Vector4 vector1;
+	private Vector4 vector2;
+	private final Vector4 destVector = new Vector4();
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final Random rnd = new Random( RANDOM_SEED );
+
+		// rotation + translation , always invertible
+		matrix1 = LinAlgUtils.rotY( rnd.nextInt( 360 ) ).multiply( LinAlgUtils.translationMatrix( rnd.nextFloat() , rnd.nextFloat() , rnd.nextFloat() ) );
+		matrix2 = LinAlgUtils.rotX( rnd.nextInt( 360 ) ).multiply( LinAlgUtils.translationMatrix( rnd.nextFloat() , rnd.nextFloat() , rnd.nextFloat() ) );
+		affineMatrix1 = new AffineMatrix( matrix1 );
+		affineMatrix2 = new AffineMatrix( matrix2 );
+
+		vector1 = new Vector4( rnd.nextFloat() , rnd.nextFloat() , rnd.nextFloat() );
+		vector2 = new Vector4( rnd.nextFloat() , rnd.nextFloat() , rnd.nextFloat() );
+	}
+
+	@Benchmark
+	public Matrix matrixMultiply() {
+		return matrix1.multiply( matrix2 );
+	}
+
+	@Benchmark
+	public Matrix matrixMultiplyIntoDestination() {
+		return matrix1.multiply( matrix2 , destMatrix );
+	}
+
+	@Benchmark
+	public Matrix matrixInvert() {
+		return matrix1.invert();
+	}
+
+	@Benchmark
+	public AffineMatrix affineMultiply() {
+		return affineMatrix1.multiply( affineMatrix2 );
+	}
+
+	@Benchmark
+	public AffineMatrix affineMultiplyIntoDestination() {
+		return affineMatrix1.multiply( affineMatrix2 , destAffineMatrix );
+	}
+
+	@Benchmark
+	public AffineMatrix affineInvert() {
+		return affineMatrix1.invert();
+	}
+
+	@Benchmark
+	public Vector4 matrixMultiplyVector() {
+		return matrix1.multiply( vector1 );
+	}
+
+	@Benchmark
+	public Vector4 vectorCrossProduct() {
+		return vector1.crossProduct( vector2 );
+	}
+
+	@Benchmark
+	public Vector4 vectorCrossProductIntoDestination() {
+		return vector1.crossProduct( vector2 , destVector );
+	}
+
+	@Benchmark
+	public Vector4 vectorNormalize() {
+		return vector1.normalize();
+	}
+
+	@Benchmark
+	public Vector4 vectorNormalizeIntoDestination() {
+		return vector1.normalize( destVector );
+	}
+}
@@ -0,0 +1,116 @@
+package de.codesourcery.engine.linalg;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the batched {@link Matrix} transform kernels.
+ *
+ * <p>{@link #vectorArray()} transforms one {@link Vector4} at a time , {@link #interleaved()} transforms
+ * vertices stored in x,y,z,w order and the <code>structureOfArrays</code> benchmarks transform vertices stored
+ * as separate component arrays. Only the latter can be vectorized by the JIT compiler , run with
+ * <code>-XX:-UseSuperWord</code> to compare against scalar code.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformKernelBenchmark
+{
+	private static final long RANDOM_SEED = 0xdeadbeefL;
+
+	@Param({"64", "4096", "65536"})
+	public int vertexCount;
+
+	// rotation only , so transforming vectors in-place over and over does not change their length
+	private Matrix rotation;
+	private Matrix projection;
+
+	private Vector4[] vectors;
+	private float[] interleaved;
+	private float[] interleavedTarget;
+
+	private float[] xs;
+	private float[] ys;
+	private float[] zs;
+	private float[] targetXs;
+	private float[] targetYs;
+	private float[] targetZs;
+	private float[] targetWs;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final Random rnd = new Random( RANDOM_SEED );
+
+		rotation = LinAlgUtils.rotY( rnd.nextInt( 360 ) ).multiply( LinAlgUtils.rotX( rnd.nextInt( 360 ) ) );
+		projection = LinAlgUtils.createPerspectiveProjection( 90 , 1 , 1 , 1000 ).multiply( LinAlgUtils.translationMatrix( 0 , 0 , -50 ) );
+
+		vectors = new Vector4[ vertexCount ];
+		interleaved = new float[ vertexCount * 4 ];
+		interleavedTarget = new float[ vertexCount * 4 ];
+		xs = new float[ vertexCount ];
+		ys = new float[ vertexCount ];
+		zs = new float[ vertexCount ];
+		targetXs = new float[ vertexCount ];
+		targetYs = new float[ vertexCount ];
+		targetZs = new float[ vertexCount ];
+		targetWs = new float[ vertexCount ];
+
+		for ( int i = 0 ; i < vertexCount ; i++ )
+		{
+			final float x = rnd.nextFloat() * 20 - 10;
+			final float y = rnd.nextFloat() * 20 - 10;
+			final float z = rnd.nextFloat() * 20 - 10;
+			vectors[i] = new Vector4( x , y , z );
+			xs[i] = x;
+			ys[i] = y;
+			zs[i] = z;
+			interleaved[ i * 4 ] = x;
+			interleaved[ i * 4 + 1 ] = y;
+			interleaved[ i * 4 + 2 ] = z;
+			interleaved[ i * 4 + 3 ] = 1;
+		}
+	}
+
+	@Benchmark
+	public Vector4[] vectorArray()
+	{
+		rotation.multiplyInPlace( vectors );
+		return vectors;
+	}
+
+	@Benchmark
+	public float[] interleaved() {
+		return rotation.multiply( interleaved , interleavedTarget , 0 , vertexCount );
+	}
+
+	@Benchmark
+	public float[] structureOfArrays()
+	{
+		rotation.multiply( xs , ys , zs , null , targetXs , targetYs , targetZs , targetWs , 0 , vertexCount );
+		return targetWs;
+	}
+
+	@Benchmark
+	public float[] structureOfArraysAndNormalizeW()
+	{
+		projection.multiplyAndNormalizeW( xs , ys , zs , null , targetXs , targetYs , targetZs , targetWs , 0 , vertexCount );
+		return targetWs;
+	}
+}
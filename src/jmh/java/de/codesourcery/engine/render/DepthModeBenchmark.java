@@ -0,0 +1,96 @@
+package de.codesourcery.engine.render;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.engine.linalg.LinAlgUtils;
+import de.codesourcery.engine.linalg.Matrix;
+import de.codesourcery.engine.linalg.Vector4;
+import de.codesourcery.engine.render.SoftwareRenderer.DepthMode;
+
+/**
+ * Compares frame times of {@link DepthMode#PAINTERS_ALGORITHM} and {@link DepthMode#DEPTH_BUFFER}
+ * for an increasing number of objects , the object count where the depth buffer starts to win
+ * can be read off the results table.
+ *
+ * <p>Renders off-screen and does not need a display.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DepthModeBenchmark
+{
+	private static final int WIDTH = 800;
+	private static final int HEIGHT = 800;
+
+	private static final long RANDOM_SEED = 0xdeadbeefL;
+
+	@Param({"10", "25", "50", "100", "200", "400", "800", "1600"})
+	public int objectCount;
+
+	@Param({"PAINTERS_ALGORITHM", "DEPTH_BUFFER"})
+	public DepthMode depthMode;
+
+	private World world;
+	private OffscreenRenderer renderer;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		renderer = new OffscreenRenderer( WIDTH , HEIGHT );
+		renderer.setAmbientLightFactor( 0.25f );
+		renderer.setLightPosition( new Vector4( 0 , 100 , 100 ) );
+		renderer.setDepthMode( depthMode );
+		// every frame shows the same scene
+		renderer.setSkipUnchangedFrames( false );
+
+		final Object3D sphere = new Object3D();
+		sphere.setPrimitives( LinAlgUtils.createSphere( 10f , 7 , 7 ) );
+		sphere.setForegroundColor( Color.BLUE );
+
+		final Random rnd = new Random( RANDOM_SEED );
+
+		world = new World();
+		for ( int i = 0 ; i < objectCount ; i++ )
+		{
+			final Object3D copy = sphere.createCopy( "copy_"+i );
+			final Matrix translation = LinAlgUtils.translationMatrix( -25+rnd.nextInt( 50 ) , -25+rnd.nextInt( 50 ) , -60+rnd.nextInt( 40 ) );
+			copy.setModelMatrix( LinAlgUtils.rotY( rnd.nextInt( 360 ) ).multiply( translation ) );
+			world.addObject( copy );
+		}
+
+		world.setupPerspectiveProjection( 90 , WIDTH / (float) HEIGHT , 1 , 66000 );
+
+		final Camera camera = world.getCamera();
+		camera.setEyePosition( new Vector4( 0 , 0 , 0 ) , new Vector4( 0 , 0 , -1 ) );
+		camera.updateViewMatrix();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		renderer.close();
+	}
+
+	@Benchmark
+	public FrameBuffer renderFrame() {
+		return renderer.render( world , world.getCamera() );
+	}
+}
@@ -0,0 +1,139 @@
+package de.codesourcery.engine.render;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.codesourcery.engine.geom.IConvexPolygon;
+import de.codesourcery.engine.linalg.BoundingBox;
+import de.codesourcery.engine.linalg.Frustum;
+import de.codesourcery.engine.linalg.LinAlgUtils;
+import de.codesourcery.engine.linalg.Matrix;
+import de.codesourcery.engine.linalg.Vector4;
+import de.codesourcery.engine.render.SoftwareRenderer.PrimitiveBatch;
+import de.codesourcery.engine.render.SoftwareRenderer.RenderingMode;
+
+/**
+ * Benchmarks for the object traversal , culling and geometry stages.
+ *
+ * <p>The scene consists of <code>objectCount</code> spheres placed in front of the camera ,
+ * positions are derived from a fixed seed so results are comparable across commits.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark
+{
+	private static final long RANDOM_SEED = 0xdeadbeefL;
+
+	@Param({"10", "100", "1000"})
+	public int objectCount;
+
+	private World world;
+	private SoftwareRenderer renderer;
+	private Matrix viewProjectionMatrix;
+	private PrimitiveBatch batch;
+
+	private Object3D sphere;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		sphere = new Object3D();
+		sphere.setPrimitives( LinAlgUtils.createSphere( 10f , 7 , 7 ) );
+		sphere.setForegroundColor( Color.BLUE );
+
+		final Random rnd = new Random( RANDOM_SEED );
+
+		world = new World();
+		for ( int i = 0 ; i < objectCount ; i++ )
+		{
+			final Object3D copy = sphere.createCopy( "copy_"+i );
+			copy.setModelMatrix( LinAlgUtils.translationMatrix( -25+rnd.nextInt( 50 ) , -25+rnd.nextInt( 50 ) , -60+rnd.nextInt( 40 ) ) );
+			world.addObject( copy );
+		}
+		world.setupPerspectiveProjection( 90 , 1 , 1 , 66000 );
+
+		final Camera camera = world.getCamera();
+		camera.setEyePosition( new Vector4( 0 , 0 , 0 ) , new Vector4( 0 , 0 , -1 ) );
+		camera.updateViewMatrix();
+		renderer = new SoftwareRenderer();
+		renderer.setAmbientLightFactor( 0.25f );
+		renderer.setLightPosition( new Vector4( 0 , 100 , 100 ) );
+		renderer.setWorld( world );
+
+		viewProjectionMatrix = renderer.beginFrame().getViewProjectionMatrix();
+		batch = renderer.new PrimitiveBatch();
+		batch.reset( RenderingMode.DEFAULT );
+	}
+
+	@Benchmark
+	public void objectIterator(Blackhole blackhole)
+	{
+		for ( IConvexPolygon polygon : sphere )
+		{
+			for ( Vector4 point : polygon.getAllPoints() ) {
+				blackhole.consume( point.x() );
+			}
+		}
+	}
+
+	@Benchmark
+	public Frustum.TestResult frustumTestContainsObject() {
+		return renderer.getCurrentSnapshot().getFrustum().testContains( world.getObjects().get(0) );
+	}
+
+	@Benchmark
+	public int frustumTestContainsBounds()
+	{
+		// bounds of the first object , node 0
+		final float[] bounds = renderer.getTransformHierarchy().getWorldBounds();
+		return renderer.getCurrentSnapshot().getFrustum().testContains( bounds , 0 , Frustum.ALL_PLANES );
+	}
+
+	@Benchmark
+	public List<Object3D> findVisibleObjects()
+	{
+		final List<Object3D> result = new ArrayList<>();
+		renderer.getBoundingVolumeHierarchy().findVisibleObjects( renderer.getCurrentSnapshot().getFrustum() , result );
+		return result;
+	}
+
+	@Benchmark
+	public BoundingBox calculateOrientedBoundingBox() {
+		return BoundingBoxGenerator.calculateOrientedBoundingBox( sphere );
+	}
+
+	@Benchmark
+	public int prepareRendering()
+	{
+		final WorldSnapshot snapshot = renderer.getCurrentSnapshot();
+		int primitives = 0;
+		for ( int node : snapshot.getRootNodes() )
+		{
+			renderer.prepareRendering( snapshot , node , viewProjectionMatrix , Frustum.ALL_PLANES , batch );
+			primitives += batch.getPrimitiveCount();
+			batch.clear();
+		}
+		return primitives;
+	}
+}
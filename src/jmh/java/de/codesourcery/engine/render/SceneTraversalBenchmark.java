@@ -0,0 +1,164 @@
+package de.codesourcery.engine.render;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
+import de.codesourcery.engine.linalg.Frustum;
+import de.codesourcery.engine.linalg.LinAlgUtils;
+import de.codesourcery.engine.linalg.Matrix;
+import de.codesourcery.engine.linalg.Vector4;
+import de.codesourcery.engine.render.SoftwareRenderer.PrimitiveBatch;
+import de.codesourcery.engine.render.SoftwareRenderer.RenderingMode;
+
+/**
+ * Measures scheduling overhead and scaling of the parallel scene traversal.
+ *
+ * <p>{@link #sequential()} runs the geometry stage for all objects on the benchmark thread ,
+ * the difference to {@link #forkJoin()} with <code>cpuCount=1</code> is the per-frame scheduling overhead.
+ * Comparing {@link #forkJoin()} across <code>cpuCount</code> values shows how the traversal scales.</p>
+ *
+ * <p>Every root object has a few children so the traversal descends into the object tree.
+ * {@link #beginFrame()} measures taking a snapshot of the world and recalculating the world transforms of all objects.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SceneTraversalBenchmark
+{
+	private static final long RANDOM_SEED = 0xdeadbeefL;
+
+	private static final int CHILDREN_PER_OBJECT = 3;
+
+	@Param({"100", "1000"})
+	public int objectCount;
+
+	@Param({"1", "2", "4", "8", "16", "32", "64"})
+	public int cpuCount;
+
+	private World world;
+	private SoftwareRenderer renderer;
+	private Matrix viewProjectionMatrix;
+	private PrimitiveBatch batch;
+
+	// model matrices of the root objects , every other frame all objects are moved
+	private AffineMatrix[] modelMatrices;
+	private AffineMatrix[] movedModelMatrices;
+	private int frame;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		final Object3D sphere = new Object3D();
+		sphere.setPrimitives( LinAlgUtils.createSphere( 5f , 7 , 7 ) );
+		sphere.setForegroundColor( Color.BLUE );
+
+		final Random rnd = new Random( RANDOM_SEED );
+
+		world = new World();
+		modelMatrices = new AffineMatrix[ objectCount ];
+		movedModelMatrices = new AffineMatrix[ objectCount ];
+		for ( int i = 0 ; i < objectCount ; i++ )
+		{
+			final Object3D copy = sphere.createCopy( "copy_"+i );
+			final Matrix translation = LinAlgUtils.translationMatrix( -25+rnd.nextInt( 50 ) , -25+rnd.nextInt( 50 ) , -60+rnd.nextInt( 40 ) );
+			modelMatrices[i] = new AffineMatrix( translation );
+			movedModelMatrices[i] = new AffineMatrix( LinAlgUtils.translationMatrix( 1 , 0 , 0 ).multiply( translation ) );
+			copy.setModelMatrix( modelMatrices[i] );
+			for ( int j = 0 ; j < CHILDREN_PER_OBJECT ; j++ )
+			{
+				final Object3D child = sphere.createCopy( "child_"+i+"_"+j );
+				child.setModelMatrix( LinAlgUtils.translationMatrix( -5+rnd.nextInt( 10 ) , -5+rnd.nextInt( 10 ) , -5+rnd.nextInt( 10 ) ) );
+				copy.addChild( child );
+			}
+			world.addObject( copy );
+		}
+		world.setupPerspectiveProjection( 90 , 1 , 1 , 66000 );
+
+		final Camera camera = world.getCamera();
+		camera.setEyePosition( new Vector4( 0 , 0 , 0 ) , new Vector4( 0 , 0 , -1 ) );
+		camera.updateViewMatrix();
+
+		renderer = new SoftwareRenderer();
+		renderer.setCpuCount( cpuCount );
+		renderer.setAmbientLightFactor( 0.25f );
+		renderer.setLightPosition( new Vector4( 0 , 100 , 100 ) );
+		renderer.setWorld( world );
+
+		viewProjectionMatrix = renderer.beginFrame().getViewProjectionMatrix();
+		batch = renderer.new PrimitiveBatch();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		renderer.dispose();
+	}
+
+	@Benchmark
+	public int sequential()
+	{
+		final WorldSnapshot snapshot = renderer.getCurrentSnapshot();
+		final int[] childOffsets = snapshot.getChildOffsets();
+		final int[] childNodes = snapshot.getChildNodes();
+		final float[] subtreeBounds = renderer.getTransformHierarchy().getSubtreeBounds();
+
+		int primitives = 0;
+		for ( int node : snapshot.getRootNodes() )
+		{
+			final int planeMask = snapshot.getFrustum().testContains( subtreeBounds , node * 6 , Frustum.ALL_PLANES );
+			if ( planeMask == Frustum.OUTSIDE ) {
+				continue;
+			}
+			batch.reset( RenderingMode.DEFAULT );
+			renderer.prepareRendering( snapshot , node , viewProjectionMatrix , planeMask , batch );
+			primitives += batch.getPrimitiveCount();
+			for ( int i = childOffsets[ node ] ; i < childOffsets[ node + 1 ] ; i++ )
+			{
+				batch.reset( RenderingMode.DEFAULT );
+				renderer.prepareRendering( snapshot , childNodes[i] , viewProjectionMatrix , planeMask , batch );
+				primitives += batch.getPrimitiveCount();
+			}
+		}
+		return primitives;
+	}
+
+	@Benchmark
+	public WorldSnapshot beginFrame()
+	{
+		// move all objects along with their children
+		final AffineMatrix[] matrices = ( frame++ & 1 ) == 0 ? movedModelMatrices : modelMatrices;
+		final List<Object3D> objects = world.getObjects();
+		for ( int i = 0 ; i < objects.size() ; i++ ) {
+			objects.get(i).setModelMatrix( matrices[i] );
+		}
+		return renderer.beginFrame();
+	}
+
+	@Benchmark
+	public void forkJoin()
+	{
+		final WorldSnapshot snapshot = renderer.getCurrentSnapshot();
+		final int[] rootNodes = snapshot.getRootNodes();
+		renderer.prepareRendering( snapshot , rootNodes , rootNodes.length , viewProjectionMatrix );
+		renderer.discardQueuedPrimitives();
+	}
+}
@@ -0,0 +1,87 @@
+package de.codesourcery.engine.render;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.codesourcery.engine.linalg.LinAlgUtils;
+import de.codesourcery.engine.linalg.Matrix;
+
+/**
+ * Compares transforming vertices stored in x,y,z,w order with transforming
+ * vertices stored as separate component arrays.
+ *
+ * <p>The memory used by both layouts is printed during setup.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexLayoutBenchmark
+{
+	/**
+	 * Number of sphere slices , the sphere has roughly <code>slices^2</code> vertices.
+	 */
+	@Param({"10", "100", "300"})
+	public int slices;
+
+	private Object3D sphere;
+	private Matrix matrix;
+
+	private float[] vertices;
+	private float[] xs;
+	private float[] ys;
+	private float[] zs;
+	private float[] ws;
+
+	private float[] target;
+	private int vertexCount;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		sphere = new Object3D();
+		sphere.setPrimitives( LinAlgUtils.createSphere( 10f , slices , slices ) );
+
+		matrix = LinAlgUtils.rotY( 30 ).multiply( LinAlgUtils.translationMatrix( 1 , 2 , 3 ) );
+
+		vertices = sphere.getVertices();
+		xs = sphere.getXs();
+		ys = sphere.getYs();
+		zs = sphere.getZs();
+		ws = sphere.getWs();
+
+		vertexCount = sphere.getPointCount();
+		target = new float[ vertexCount * 4 ];
+
+		final long interleavedBytes = vertices.length * 4L;
+		final long soaBytes = ( xs.length + ys.length + zs.length + ( ws != null ? ws.length : 0 ) ) * 4L;
+		System.out.println();
+		System.out.println("Vertices: "+vertexCount);
+		System.out.println("Interleaved: "+interleavedBytes+" bytes");
+		System.out.println("Structure-of-arrays: "+soaBytes+" bytes ("+( 100 - soaBytes * 100 / interleavedBytes )+"% less)");
+	}
+
+	@Benchmark
+	public float[] transformInterleaved() {
+		return matrix.multiply( vertices , target , 0 , vertexCount );
+	}
+
+	@Benchmark
+	public float[] transformStructureOfArrays() {
+		return matrix.multiply( xs , ys , zs , ws , target , 0 , vertexCount );
+	}
+}
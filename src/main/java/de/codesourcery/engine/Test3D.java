@@ -18,6 +18,7 @@ import java.awt.event.MouseMotionAdapter;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.JFrame;
@@ -46,6 +47,9 @@ public class Test3D
 
 	private volatile float aspectRatio = INITIAL_CANVAS_WIDTH / (float) INITIAL_CANVAS_HEIGHT;
 
+	// changes to the camera and projection requested by key and mouse handlers , applied by the simulation thread
+	private final ConcurrentLinkedQueue<Runnable> sceneChanges = new ConcurrentLinkedQueue<>();
+
 	public static final int NUM_CUBES = 55;
 
 	private static final float INC_X = 1;
@@ -96,10 +100,6 @@ public class Test3D
 
 		world.setupPerspectiveProjection( 90 , 1.0f , Z_NEAR , Z_FAR );
 
-		world.getFrustum().forceRecalculatePlaneDefinitions();
-
-		System.out.println("Frustum is now: "+world.getFrustum() );
-
 		System.out.println("*** setting eye position and view vector ***");
 		final Vector4 defaultEyePosition = vector( 0,0,0 );
 
@@ -107,7 +107,7 @@ public class Test3D
 		camera.setEyePosition( defaultEyePosition , vector( 0 , 0, -1 ) );		
 		camera.updateViewMatrix();
 
-		world.getFrustum().forceRecalculatePlaneDefinitions();
+		System.out.println("Camera is now: eye="+camera.getEyePosition()+" , view vector="+camera.getViewOrientation() );
 
 		// display frame
 		final SoftwareRenderer renderer = new SoftwareRenderer();
@@ -115,13 +115,20 @@ public class Test3D
 		renderer.setLightPosition( new Vector4( 0 , 100 , 100 ) );
 
 		renderer.setWorld( world );
+		world.setDoubleBuffered( true );
 
 		final Panel3D canvas = new Panel3D( renderer ) {
 
 			@Override
 			protected void panelResized(int newWidth, int newHeight) {
 				aspectRatio = newWidth / (float) newHeight;
-				world.setupPerspectiveProjection( fov.get() ,  aspectRatio  ,  Z_NEAR , Z_FAR );
+				sceneChanges.add( new Runnable() {
+
+					@Override
+					public void run() {
+						world.setupPerspectiveProjection( fov.get() ,  aspectRatio  ,  Z_NEAR , Z_FAR );
+					}
+				});
 			}
 		};
 
@@ -147,10 +154,15 @@ public class Test3D
 			}
 
 			@Override
-			protected void updateEyeTarget(float x, float y, float z) {
-				camera.setViewOrientation( new Vector4( x,y,z ) );
-				camera.updateViewMatrix();
-				canvas.repaint();
+			protected void updateEyeTarget(final float x, final float y, final float z) {
+				sceneChanges.add( new Runnable() {
+
+					@Override
+					public void run() {
+						camera.setViewOrientation( new Vector4( x,y,z ) );
+						camera.updateViewMatrix();
+					}
+				});
 			}
 
 			@Override
@@ -202,59 +214,80 @@ public class Test3D
 
 			public void keyPressed(java.awt.event.KeyEvent e) {
 
-				int keyCode = e.getKeyCode();
+				final int keyCode = e.getKeyCode();
 				switch( keyCode ) 
 				{
 					case KeyEvent.VK_ESCAPE:
 						tracker.setTrackingEnabled( false );
-						break;
-					case KeyEvent.VK_PLUS:
-						fov.set( fov.get() - 1 );
-						world.setupPerspectiveProjection(fov.get(),  aspectRatio  , Z_NEAR, Z_FAR );
-						System.out.println("FoV: "+fov.get()+" degrees");
-						break;
-					case KeyEvent.VK_MINUS:
-						fov.set( fov.get() + 1 );
-						System.out.println("FoV: "+fov.get()+" degrees");
-						world.setupPerspectiveProjection(fov.get(),  aspectRatio , Z_NEAR , Z_FAR );
-						break;
+						return;
 					case KeyEvent.VK_ENTER:
 						tracker.reset();
-						camera.reset();
 						break;
-					case KeyEvent.VK_W:
-						camera.moveForward( INC_Z );
-						break;
-					case KeyEvent.VK_S:
-						camera.moveBackward( INC_Z );
-						break;                        
-					case KeyEvent.VK_A:
-						camera.strafeLeft( INC_X );
-						break;
-					case KeyEvent.VK_D:
-						camera.strafeRight( INC_X );
-						break;
-					case KeyEvent.VK_Q:
-						camera.moveUp( INC_Y );
-						break;       
-					case KeyEvent.VK_E:
-						camera.moveDown( INC_Y );
-						break;  						
-					default:
-						return;
 				}
-				camera.updateViewMatrix();		
+				
+				sceneChanges.add( new Runnable() {
+
+					@Override
+					public void run() 
+					{
+						switch( keyCode ) 
+						{
+							case KeyEvent.VK_PLUS:
+								fov.set( fov.get() - 1 );
+								world.setupPerspectiveProjection(fov.get(),  aspectRatio  , Z_NEAR, Z_FAR );
+								System.out.println("FoV: "+fov.get()+" degrees");
+								break;
+							case KeyEvent.VK_MINUS:
+								fov.set( fov.get() + 1 );
+								System.out.println("FoV: "+fov.get()+" degrees");
+								world.setupPerspectiveProjection(fov.get(),  aspectRatio , Z_NEAR , Z_FAR );
+								break;
+							case KeyEvent.VK_ENTER:
+								camera.reset();
+								break;
+							case KeyEvent.VK_W:
+								camera.moveForward( INC_Z );
+								break;
+							case KeyEvent.VK_S:
+								camera.moveBackward( INC_Z );
+								break;                        
+							case KeyEvent.VK_A:
+								camera.strafeLeft( INC_X );
+								break;
+							case KeyEvent.VK_D:
+								camera.strafeRight( INC_X );
+								break;
+							case KeyEvent.VK_Q:
+								camera.moveUp( INC_Y );
+								break;       
+							case KeyEvent.VK_E:
+								camera.moveDown( INC_Y );
+								break;  						
+							default:
+								return;
+						}
+						camera.updateViewMatrix();
+					}
+				});
 			};
 		});        
 
 		canvas.repaint();
 
-		// rotate eye position around Y axis
+		/*
+		 * The main thread runs the simulation , it is the only thread that modifies the scene. Each step applies
+		 * the camera changes requested by key and mouse handlers , animates the objects and publishes a snapshot. 
+		 * The renderer draws the snapshot published last on the event dispatch thread while the next step is calculated.
+		 */
 		float x1 = 10;
 		float y1 = 20;
 		float z1 = 30;
 		while( true ) 
 		{
+			for ( Runnable change = sceneChanges.poll() ; change != null ; change = sceneChanges.poll() ) {
+				change.run();
+			}
+			
 			// rotate eye position around Y axis
 			Matrix rot1 = LinAlgUtils.rotY( y1 );
 			rot1 = rot1.multiply( LinAlgUtils.rotX(x1) );
@@ -268,6 +301,7 @@ public class Test3D
 				tmp.setModelMatrix( rot1.multiply( rot1 ) );
 			}
 
+			world.publish();
 			canvas.repaint();
 			x1+=0.5;
 			y1+=1;
@@ -0,0 +1,412 @@
+package de.codesourcery.engine.linalg;
+
+/**
+ * An affine transformation (rotation , scaling , shearing and translation).
+ *
+ * <p>Only the upper three rows of the equivalent 4x4 matrix are stored , the last row
+ * is always (0,0,0,1). Composing two affine transformations takes 36 multiplications
+ * instead of 64 and inverting one only requires inverting its upper-left 3x3 part ,
+ * which for rotations (and rotations combined with scaling) is just the transpose.</p>
+ *
+ * @see Matrix
+ */
+public final class AffineMatrix
+{
+    /*
+     * Matrix coefficients are stored in column-major order:
+     *
+     * 0 3 6  9
+     * 1 4 7 10
+     * 2 5 8 11
+     *
+     * The last row is implicitly (0,0,0,1).
+     */
+    private final float[] data;
+
+    // basis vectors are considered perpendicular if the squared cosine of the angle between them is below this value
+    private static final float ORTHOGONALITY_EPSILON = 1e-10f;
+
+    // basis vectors are considered to have unit length if their squared length differs less than this from 1
+    private static final float UNIT_LENGTH_EPSILON = 1e-6f;
+
+    /**
+     * Creates an empty affine matrix.
+     */
+    public AffineMatrix() {
+        this.data = new float[12];
+    }
+
+    public AffineMatrix(AffineMatrix other) {
+        this.data = other.data.clone();
+    }
+
+    public AffineMatrix(float[] data)
+    {
+        if ( data.length != 12 ) {
+            throw new IllegalArgumentException("Invalid array length: "+data.length);
+        }
+        this.data = data;
+    }
+
+    /**
+     * Creates an affine matrix from a 4x4 matrix.
+     *
+     * @param matrix
+     * @throws IllegalArgumentException if the matrix' last row is not (0,0,0,1)
+     * @see Matrix#isAffine()
+     */
+    public AffineMatrix(Matrix matrix)
+    {
+        if ( ! matrix.isAffine() ) {
+            throw new IllegalArgumentException("Not an affine transformation:\n"+matrix);
+        }
+        final float[] m = matrix.getData();
+        this.data = new float[] {
+                m[0] , m[1] , m[2] ,
+                m[4] , m[5] , m[6] ,
+                m[8] , m[9] , m[10] ,
+                m[12] , m[13] , m[14]
+        };
+    }
+
+    public static AffineMatrix identity()
+    {
+        return new AffineMatrix( new float[] {
+                1 , 0 , 0 ,
+                0 , 1 , 0 ,
+                0 , 0 , 1 ,
+                0 , 0 , 0
+        });
+    }
+
+    public float get(int column,int row)
+    {
+        if ( row == 3 ) {
+            return column == 3 ? 1 : 0;
+        }
+        return this.data[ column*3 + row ];
+    }
+
+    /**
+     * Returns the equivalent 4x4 matrix.
+     *
+     * @return
+     */
+    public Matrix toMatrix()
+    {
+        final float[] m = this.data;
+        return new Matrix( new float[] {
+                m[0] , m[1] , m[2] , 0 ,
+                m[3] , m[4] , m[5] , 0 ,
+                m[6] , m[7] , m[8] , 0 ,
+                m[9] , m[10] , m[11] , 1
+        });
+    }
+
+    /**
+     * Multiply by another affine matrix.
+     *
+     * @param other
+     * @return
+     */
+    public AffineMatrix multiply(AffineMatrix other) {
+        return multiply( other , new AffineMatrix() );
+    }
+
+    /**
+     * Multiply by another affine matrix , storing the result in a destination matrix.
+     *
+     * @param other
+     * @param dest destination matrix , must neither be <code>this</code> nor <code>other</code>
+     * @return destination matrix
+     */
+    public AffineMatrix multiply(AffineMatrix other,AffineMatrix dest)
+    {
+        if ( dest == this || dest == other ) {
+            throw new IllegalArgumentException("Destination matrix must not be one of the operands");
+        }
+
+        multiply( this.data , 0 , other.data , 0 , dest.data , 0 );
+        return dest;
+    }
+
+    /**
+     * Multiplies two affine matrices stored in arrays , for callers that keep
+     * many matrices in one flat array (12 floats each).
+     *
+     * <p>The destination range must not overlap either operand.</p>
+     *
+     * @param a left-hand matrix
+     * @param aOffset offset of the left-hand matrix in <code>a</code>
+     * @param b right-hand matrix
+     * @param bOffset offset of the right-hand matrix in <code>b</code>
+     * @param target array to store the product in
+     * @param targetOffset offset of the product in <code>target</code>
+     */
+    public static void multiply(float[] a,int aOffset,float[] b,int bOffset,float[] target,int targetOffset)
+    {
+        final float a0 = a[ aOffset     ] , a1 = a[ aOffset + 1 ] , a2 = a[ aOffset + 2 ];
+        final float a3 = a[ aOffset + 3 ] , a4 = a[ aOffset + 4 ] , a5 = a[ aOffset + 5 ];
+        final float a6 = a[ aOffset + 6 ] , a7 = a[ aOffset + 7 ] , a8 = a[ aOffset + 8 ];
+
+        // basis vectors
+        for ( int col = 0 ; col < 9 ; col += 3 )
+        {
+            final float x = b[ bOffset + col ];
+            final float y = b[ bOffset + col + 1 ];
+            final float z = b[ bOffset + col + 2 ];
+            target[ targetOffset + col     ] = a0 * x + a3 * y + a6 * z;
+            target[ targetOffset + col + 1 ] = a1 * x + a4 * y + a7 * z;
+            target[ targetOffset + col + 2 ] = a2 * x + a5 * y + a8 * z;
+        }
+
+        // translation
+        final float x = b[ bOffset + 9 ];
+        final float y = b[ bOffset + 10 ];
+        final float z = b[ bOffset + 11 ];
+        target[ targetOffset +  9 ] = a0 * x + a3 * y + a6 * z + a[ aOffset + 9 ];
+        target[ targetOffset + 10 ] = a1 * x + a4 * y + a7 * z + a[ aOffset + 10 ];
+        target[ targetOffset + 11 ] = a2 * x + a5 * y + a8 * z + a[ aOffset + 11 ];
+    }
+
+    /**
+     * Returns the inverse of this matrix.
+     *
+     * <p>If the basis vectors are perpendicular to each other the inverse of the upper-left 3x3 part
+     * is its transpose , with each row divided by the squared length of the basis vector unless
+     * all basis vectors have unit length. Other matrices are inverted using their cofactor matrix.</p>
+     *
+     * @return inverted matrix or <code>null</code> if this matrix is not invertible
+     */
+    public AffineMatrix invert()
+    {
+        final float[] m = this.data;
+
+        // basis vectors
+        final float ax = m[0] , ay = m[1] , az = m[2];
+        final float bx = m[3] , by = m[4] , bz = m[5];
+        final float cx = m[6] , cy = m[7] , cz = m[8];
+
+        final float aa = ax * ax + ay * ay + az * az;
+        final float bb = bx * bx + by * by + bz * bz;
+        final float cc = cx * cx + cy * cy + cz * cz;
+
+        final float ab = ax * bx + ay * by + az * bz;
+        final float bc = bx * cx + by * cy + bz * cz;
+        final float ca = cx * ax + cy * ay + cz * az;
+
+        // inverse of the upper-left 3x3 part , in column-major order
+        final float[] result = new float[12];
+        if ( ab * ab <= ORTHOGONALITY_EPSILON * aa * bb && bc * bc <= ORTHOGONALITY_EPSILON * bb * cc && ca * ca <= ORTHOGONALITY_EPSILON * cc * aa )
+        {
+            if ( aa == 0 || bb == 0 || cc == 0 ) {
+                return null;
+            }
+
+            if ( Math.abs( aa - 1 ) <= UNIT_LENGTH_EPSILON && Math.abs( bb - 1 ) <= UNIT_LENGTH_EPSILON && Math.abs( cc - 1 ) <= UNIT_LENGTH_EPSILON )
+            {
+                // orthonormal , inverse is the transpose
+                result[0] = ax; result[3] = ay; result[6] = az;
+                result[1] = bx; result[4] = by; result[7] = bz;
+                result[2] = cx; result[5] = cy; result[8] = cz;
+            }
+            else
+            {
+                // orthogonal , rows of the inverse are the basis vectors divided by their squared lengths
+                final float ia = 1f / aa , ib = 1f / bb , ic = 1f / cc;
+                result[0] = ax * ia; result[3] = ay * ia; result[6] = az * ia;
+                result[1] = bx * ib; result[4] = by * ib; result[7] = bz * ib;
+                result[2] = cx * ic; result[5] = cy * ic; result[8] = cz * ic;
+            }
+        }
+        else
+        {
+            // rows of the inverse are b x c , c x a and a x b divided by the determinant
+            final float r0x = by * cz - bz * cy , r0y = bz * cx - bx * cz , r0z = bx * cy - by * cx;
+            final float r1x = cy * az - cz * ay , r1y = cz * ax - cx * az , r1z = cx * ay - cy * ax;
+            final float r2x = ay * bz - az * by , r2y = az * bx - ax * bz , r2z = ax * by - ay * bx;
+
+            final float det = ax * r0x + ay * r0y + az * r0z;
+            if ( det == 0 ) {
+                return null;
+            }
+            final float invDet = 1f / det;
+            result[0] = r0x * invDet; result[3] = r0y * invDet; result[6] = r0z * invDet;
+            result[1] = r1x * invDet; result[4] = r1y * invDet; result[7] = r1z * invDet;
+            result[2] = r2x * invDet; result[5] = r2y * invDet; result[8] = r2z * invDet;
+        }
+
+        // translation is the negated original translation , transformed by the inverse
+        final float tx = m[9] , ty = m[10] , tz = m[11];
+        result[  9 ] = -( result[0] * tx + result[3] * ty + result[6] * tz );
+        result[ 10 ] = -( result[1] * tx + result[4] * ty + result[7] * tz );
+        result[ 11 ] = -( result[2] * tx + result[5] * ty + result[8] * tz );
+        return new AffineMatrix( result );
+    }
+
+    /**
+     * Returns the determinant of this matrix.
+     *
+     * <p>The determinant is negative if this matrix mirrors objects.</p>
+     *
+     * @return
+     */
+    public float determinant()
+    {
+        final float[] m = this.data;
+        return m[0] * ( m[4] * m[8] - m[5] * m[7] ) - m[3] * ( m[1] * m[8] - m[2] * m[7] ) + m[6] * ( m[1] * m[5] - m[2] * m[4] );
+    }
+
+    /**
+     * Returns a matrix that transforms surface normals the same way this matrix transforms points.
+     *
+     * @return
+     * @see Matrix#normalMatrix()
+     */
+    public Matrix normalMatrix()
+    {
+        final float[] m = this.data;
+
+        final float ax = m[0] , ay = m[1] , az = m[2];
+        final float bx = m[3] , by = m[4] , bz = m[5];
+        final float cx = m[6] , cy = m[7] , cz = m[8];
+
+        // columns of the cofactor matrix are b x c , c x a and a x b
+        final float[] result = new float[ Matrix.SIZE * Matrix.SIZE ];
+        result[0] = by * cz - bz * cy;
+        result[1] = bz * cx - bx * cz;
+        result[2] = bx * cy - by * cx;
+
+        result[4] = cy * az - cz * ay;
+        result[5] = cz * ax - cx * az;
+        result[6] = cx * ay - cy * ax;
+
+        result[8] = ay * bz - az * by;
+        result[9] = az * bx - ax * bz;
+        result[10] = ax * by - ay * bx;
+
+        result[15] = 1;
+        return new Matrix( result );
+    }
+
+    public Vector4 multiply(Vector4 vector)
+    {
+        final float[] m = this.data;
+        final float x = vector.x();
+        final float y = vector.y();
+        final float z = vector.z();
+        final float w = vector.w();
+        return new Vector4( m[0] * x + m[3] * y + m[6] * z + m[9]  * w ,
+                            m[1] * x + m[4] * y + m[7] * z + m[10] * w ,
+                            m[2] * x + m[5] * y + m[8] * z + m[11] * w ,
+                            w );
+    }
+
+    /**
+     * Multiply <code>vectorCount</code> vectors stored as separate component arrays , starting with the vector at index <code>firstVector</code>.
+     *
+     * <p>Results are stored in x,y,z,w order , the result for vector <code>n</code> starts at <code>target[n*4]</code>.</p>
+     *
+     * @param xs
+     * @param ys
+     * @param zs
+     * @param ws W components , <code>null</code> if W is 1 for all vectors
+     * @param target
+     * @param firstVector
+     * @param vectorCount
+     * @return
+     * @see Matrix#multiply(float[], float[], float[], float[], float[], int, int)
+     */
+    public float[] multiply(float[] xs,float[] ys,float[] zs,float[] ws,float[] target,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
+
+        final float m0 = m[0] , m3 = m[3] , m6 = m[6] , m9  = m[9];
+        final float m1 = m[1] , m4 = m[4] , m7 = m[7] , m10 = m[10];
+        final float m2 = m[2] , m5 = m[5] , m8 = m[8] , m11 = m[11];
+
+        final int end = firstVector + vectorCount;
+        if ( ws == null )
+        {
+            for ( int i = firstVector , offset = firstVector * 4 ; i < end ; i++ , offset += 4 )
+            {
+                final float x = xs[ i ];
+                final float y = ys[ i ];
+                final float z = zs[ i ];
+
+                target[ offset   ] = m0 * x + m3 * y + m6 * z + m9;
+                target[ offset+1 ] = m1 * x + m4 * y + m7 * z + m10;
+                target[ offset+2 ] = m2 * x + m5 * y + m8 * z + m11;
+                target[ offset+3 ] = 1;
+            }
+            return target;
+        }
+
+        for ( int i = firstVector , offset = firstVector * 4 ; i < end ; i++ , offset += 4 )
+        {
+            final float x = xs[ i ];
+            final float y = ys[ i ];
+            final float z = zs[ i ];
+            final float w = ws[ i ];
+
+            target[ offset   ] = m0 * x + m3 * y + m6 * z + m9  * w;
+            target[ offset+1 ] = m1 * x + m4 * y + m7 * z + m10 * w;
+            target[ offset+2 ] = m2 * x + m5 * y + m8 * z + m11 * w;
+            target[ offset+3 ] = w;
+        }
+        return target;
+    }
+
+    /**
+     * Multiply <code>vectorCount</code> vectors stored as separate component arrays , starting with the vector at index <code>firstVector</code>
+     * and storing results as separate component arrays (at the same indices).
+     *
+     * <p>W is not changed by affine transformations , so only X , Y and Z are calculated. Like
+     * {@link Matrix#multiply(float[], float[], float[], float[], float[], float[], float[], float[], int, int)} , results are
+     * calculated one component at a time so the JIT compiler can use SIMD instructions.</p>
+     *
+     * @param xs
+     * @param ys
+     * @param zs
+     * @param ws W components , <code>null</code> if W is 1 for all vectors
+     * @param targetXs target arrays , must not be any of the input arrays
+     * @param targetYs
+     * @param targetZs
+     * @param firstVector
+     * @param vectorCount
+     */
+    public void multiply(float[] xs,float[] ys,float[] zs,float[] ws,float[] targetXs,float[] targetYs,float[] targetZs,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
+        final int end = firstVector + vectorCount;
+        multiplyRow( xs , ys , zs , ws , m[0] , m[3] , m[6] , m[9] , targetXs , firstVector , end );
+        multiplyRow( xs , ys , zs , ws , m[1] , m[4] , m[7] , m[10] , targetYs , firstVector , end );
+        multiplyRow( xs , ys , zs , ws , m[2] , m[5] , m[8] , m[11] , targetZs , firstVector , end );
+    }
+
+    private static void multiplyRow(float[] xs,float[] ys,float[] zs,float[] ws,float mx,float my,float mz,float mw,float[] target,int start,int end)
+    {
+        if ( ws == null )
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = mx * xs[i] + my * ys[i] + mz * zs[i] + mw;
+            }
+        }
+        else
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = mx * xs[i] + my * ys[i] + mz * zs[i] + mw * ws[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toMatrix().toString();
+    }
+
+    public float[] getData()
+    {
+        return this.data;
+    }
+}
@@ -13,6 +13,7 @@ public class BoundingBox {
 	private float height;
 	private float depth;
 	private final float[] points;
+	private final float[] bounds;
 	private final boolean isAxisAligned;
 	
 	public BoundingBox createCopy() {
@@ -34,6 +35,7 @@ public class BoundingBox {
 	private BoundingBox(float[] points,boolean isAxisAligned) {
 		this.points = new float[ points.length ];
 		System.arraycopy( points , 0 , this.points , 0 , points.length );
+		this.bounds = calcBounds( this.points );
 		this.isAxisAligned = isAxisAligned; 
 	}
 	
@@ -50,9 +52,25 @@ public class BoundingBox {
 		this.depth = depth;
 		
 		this.points = calcPoints();
+		this.bounds = calcBounds( this.points );
 		this.isAxisAligned = isAxisAligned;
 	}
 	
+	private static float[] calcBounds(float[] points) 
+	{
+		final float[] result = { Float.POSITIVE_INFINITY , Float.POSITIVE_INFINITY , Float.POSITIVE_INFINITY , 
+				Float.NEGATIVE_INFINITY , Float.NEGATIVE_INFINITY , Float.NEGATIVE_INFINITY };
+		for ( int i = 0 ; i < points.length ; i += 4 ) 
+		{
+			for ( int j = 0 ; j < 3 ; j++ ) 
+			{
+				result[ j ] = Math.min( result[ j ] , points[ i + j ] );
+				result[ j + 3 ] = Math.max( result[ j + 3 ] , points[ i + j ] );
+			}
+		}
+		return result;
+	}
+	
 	public boolean isAxisAligned() {
 		return isAxisAligned;
 	}
@@ -110,7 +128,6 @@ public class BoundingBox {
 		/*
 		 * The methods
 		 * 
-		 * - Frustum#testContains() 
 		 * - SoftwareRenderer#prepareRendering()
 		 * 
 		 * rely on this method returning an
@@ -129,6 +146,18 @@ public class BoundingBox {
 		return this.points;
 	}
 	
+	/**
+	 * Returns the extent of this box in model space.
+	 * 
+	 * <p>The corners of this box are always aligned with the axes of the 
+	 * model coordinate system , the box only gets oriented by the model matrix.</p>
+	 * 
+	 * @return min x,y,z followed by max x,y,z , must not be modified
+	 */
+	public float[] getBounds() {
+		return this.bounds;
+	}
+	
 	private Quad[] createQuads() 
 	{
 		return createQuads( getPoints() );
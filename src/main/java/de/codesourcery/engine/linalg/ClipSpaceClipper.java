@@ -0,0 +1,245 @@
+package de.codesourcery.engine.linalg;
+
+/**
+ * Clips convex polygons in homogeneous clip space (before the perspective division).
+ *
+ * <p>Polygons that lie completely outside any of the six frustum planes are rejected.
+ * Since the rasterizer clamps to the viewport anyway, polygons are only split (Sutherland-Hodgman) when
+ * they cross the near plane (where the perspective division would blow up)
+ * or a guard band of {@link #GUARD_BAND} times the viewport size (so screen coordinates stay bounded).
+ * Everything else is passed through unchanged.</p>
+ *
+ * <p>Callers calculate each vertex' out code once using
+ * {@link #outCode(float, float, float, float)} and then combine the out codes of a polygon's
+ * vertices to decide whether it needs to be rejected ({@link #isOutside(int)} , all codes AND'ed)
+ * or clipped ({@link #needsClipping(int)} , all codes OR'ed).</p>
+ *
+ * <p>This class is stateless and thus thread-safe.</p>
+ */
+public final class ClipSpaceClipper
+{
+	/**
+	 * Guard band size , in multiples of the NDC range [-1,1].
+	 */
+	public static final float GUARD_BAND = 4f;
+
+	// out codes
+	private static final int NEAR   = 1<<0;
+	private static final int FAR    = 1<<1;
+	private static final int LEFT   = 1<<2;
+	private static final int RIGHT  = 1<<3;
+	private static final int BOTTOM = 1<<4;
+	private static final int TOP    = 1<<5;
+	private static final int GUARD_LEFT   = 1<<6;
+	private static final int GUARD_RIGHT  = 1<<7;
+	private static final int GUARD_BOTTOM = 1<<8;
+	private static final int GUARD_TOP    = 1<<9;
+
+	private static final int FRUSTUM_PLANES = NEAR | FAR | LEFT | RIGHT | BOTTOM | TOP;
+	private static final int CLIPPING_PLANES = NEAR | GUARD_LEFT | GUARD_RIGHT | GUARD_BOTTOM | GUARD_TOP;
+
+	private ClipSpaceClipper() {
+	}
+
+	/**
+	 * Returns the out code of a clip-space vertex.
+	 *
+	 * @param vertices
+	 * @param offset offset of the vertex' X coordinate
+	 * @return bit mask of the planes this vertex is outside of , 0 if the vertex is visible
+	 */
+	public static int outCode(float[] vertices,int offset) {
+		return outCode( vertices[ offset ] , vertices[ offset + 1 ] , vertices[ offset + 2 ] , vertices[ offset + 3 ] );
+	}
+
+	/**
+	 * Returns the out code of a clip-space vertex.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param w
+	 * @return bit mask of the planes this vertex is outside of , 0 if the vertex is visible
+	 */
+	public static int outCode(float x,float y,float z,float w)
+	{
+		final float guardW = GUARD_BAND * w;
+
+		int code = 0;
+		if ( z < -w ) {
+			code |= NEAR;
+		}
+		if ( z > w ) {
+			code |= FAR;
+		}
+		if ( x < -w ) {
+			code |= LEFT;
+			if ( x < -guardW ) {
+				code |= GUARD_LEFT;
+			}
+		}
+		if ( x > w ) {
+			code |= RIGHT;
+			if ( x > guardW ) {
+				code |= GUARD_RIGHT;
+			}
+		}
+		if ( y < -w ) {
+			code |= BOTTOM;
+			if ( y < -guardW ) {
+				code |= GUARD_BOTTOM;
+			}
+		}
+		if ( y > w ) {
+			code |= TOP;
+			if ( y > guardW ) {
+				code |= GUARD_TOP;
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Check whether a polygon is invisible.
+	 *
+	 * @param allOutCodes the out codes of all the polygon's vertices AND'ed together
+	 * @return <code>true</code> if all vertices are on the outside of the same frustum plane
+	 */
+	public static boolean isOutside(int allOutCodes) {
+		return ( allOutCodes & FRUSTUM_PLANES ) != 0;
+	}
+
+	/**
+	 * Check whether a polygon needs to be clipped.
+	 *
+	 * @param anyOutCodes the out codes of all the polygon's vertices OR'ed together
+	 * @return <code>true</code> if the polygon crosses the near plane or the guard band
+	 */
+	public static boolean needsClipping(int anyOutCodes) {
+		return ( anyOutCodes & CLIPPING_PLANES ) != 0;
+	}
+
+	/**
+	 * Clip a convex polygon whose clip-space vertices are stored as separate component arrays.
+	 *
+	 * @param xs
+	 * @param ys
+	 * @param zs
+	 * @param ws
+	 * @param indices vertex offsets of the polygon's vertices , the vertex at offset <code>n</code> is stored at index <code>n/4</code>
+	 * of the component arrays (offsets use the x,y,z,w layout of interleaved vertex arrays)
+	 * @param firstIndex index of the polygon's first vertex offset within the <code>indices</code> array
+	 * @param count number of vertices
+	 * @param anyOutCodes the out codes of all the polygon's vertices OR'ed together
+	 * @return clipped polygon (vertices stored in x,y,z,w order without gaps) or <code>null</code> if
+	 * nothing of the polygon remains visible
+	 */
+	public static float[] clip(float[] xs,float[] ys,float[] zs,float[] ws,int[] indices,int firstIndex,int count,int anyOutCodes)
+	{
+		float[] result = new float[ count * 4 ];
+		for ( int i = 0 ; i < count ; i++ )
+		{
+			final int vertex = indices[ firstIndex + i ] >> 2;
+			result[ i * 4 ] = xs[ vertex ];
+			result[ i * 4 + 1 ] = ys[ vertex ];
+			result[ i * 4 + 2 ] = zs[ vertex ];
+			result[ i * 4 + 3 ] = ws[ vertex ];
+		}
+
+		if ( ( anyOutCodes & NEAR ) != 0 ) {
+			result = clip( result , NEAR );
+		}
+		if ( ( anyOutCodes & GUARD_LEFT ) != 0 && result != null ) {
+			result = clip( result , GUARD_LEFT );
+		}
+		if ( ( anyOutCodes & GUARD_RIGHT ) != 0 && result != null ) {
+			result = clip( result , GUARD_RIGHT );
+		}
+		if ( ( anyOutCodes & GUARD_BOTTOM ) != 0 && result != null ) {
+			result = clip( result , GUARD_BOTTOM );
+		}
+		if ( ( anyOutCodes & GUARD_TOP ) != 0 && result != null ) {
+			result = clip( result , GUARD_TOP );
+		}
+		return result;
+	}
+
+	/**
+	 * Signed distance of a vertex to a clipping plane , positive values are inside.
+	 */
+	private static float distance(float[] vertices,int offset,int plane)
+	{
+		final float x = vertices[ offset ];
+		final float y = vertices[ offset + 1 ];
+		final float z = vertices[ offset + 2 ];
+		final float w = vertices[ offset + 3 ];
+		switch( plane )
+		{
+			case NEAR:
+				return z + w;
+			case GUARD_LEFT:
+				return x + GUARD_BAND * w;
+			case GUARD_RIGHT:
+				return GUARD_BAND * w - x;
+			case GUARD_BOTTOM:
+				return y + GUARD_BAND * w;
+			case GUARD_TOP:
+				return GUARD_BAND * w - y;
+			default:
+				throw new IllegalArgumentException("Unsupported plane: "+plane);
+		}
+	}
+
+	/**
+	 * Sutherland-Hodgman against a single plane.
+	 *
+	 * @return clipped polygon or <code>null</code> if less than 3 vertices remain
+	 */
+	private static float[] clip(float[] input,int plane)
+	{
+		final int inputCount = input.length / 4;
+		final float[] output = new float[ ( inputCount + 1 ) * 4 ]; // convex polygons gain at most one vertex per plane
+		int outputOffset = 0;
+
+		int previous = ( inputCount - 1 ) * 4;
+		float previousDistance = distance( input , previous , plane );
+		for ( int current = 0 ; current < input.length ; current += 4 )
+		{
+			final float currentDistance = distance( input , current , plane );
+
+			if ( currentDistance >= 0 )
+			{
+				if ( previousDistance < 0 ) { // entering
+					intersect( input , previous , previousDistance , current , currentDistance , output , outputOffset );
+					outputOffset += 4;
+				}
+				System.arraycopy( input , current , output , outputOffset , 4 );
+				outputOffset += 4;
+			}
+			else if ( previousDistance >= 0 ) { // leaving
+				intersect( input , previous , previousDistance , current , currentDistance , output , outputOffset );
+				outputOffset += 4;
+			}
+			previous = current;
+			previousDistance = currentDistance;
+		}
+
+		if ( outputOffset < 3 * 4 ) {
+			return null;
+		}
+		if ( outputOffset == output.length ) {
+			return output;
+		}
+		final float[] result = new float[ outputOffset ];
+		System.arraycopy( output , 0 , result , 0 , outputOffset );
+		return result;
+	}
+
+	private static void intersect(float[] input,int v0,float d0,int v1,float d1,float[] output,int outputOffset)
+	{
+		final float t = d0 / ( d0 - d1 );
+		for ( int i = 0 ; i < 4 ; i++ ) {
+			output[ outputOffset + i ] = input[ v0 + i ] + t * ( input[ v1 + i ] - input[ v0 + i ] );
+		}
+	}
+}
@@ -1,197 +1,465 @@
 package de.codesourcery.engine.linalg;
 
-import de.codesourcery.engine.math.Constants;
 import de.codesourcery.engine.render.Object3D;
-import de.codesourcery.engine.render.World;
 
-
-public final class Frustum  
-{  
+/**
+ * The view frustum.
+ *
+ * <p>Planes are extracted from the combined projection*view matrix (Gribb/Hartmann) and stored as
+ * A,B,C,D tuples in a single array , a point is inside a plane if <code>A*x + B*y + C*z + D >= 0</code>.
+ * Every {@link #setViewProjectionMatrix(Matrix) update} publishes a new array , so tests never need to
+ * lock and always see a consistent set of planes.</p>
+ */
+public final class Frustum
+{
 	private static final String[] PLANE_NAMES = {"TOP","BOTTOM","LEFT","RIGHT","NEAR","FAR"};
 	private static final int TOP=0, BOTTOM =1, LEFT=2,RIGHT=3, NEAR=4, FAR=5;
 
-	private static final String planeIndexToName(int index) {
-		return PLANE_NAMES[ index ];
-	}
+	private static final int PLANE_COUNT = 6;
+
 	public static enum TestResult {
 		OUTSIDE, INTERSECT, INSIDE
 	}
 
-	private Plane[] planes = new Plane[6];
-
-	Vector4 ntl,ntr,nbl,nbr,ftl,ftr,fbl,fbr;
-	float nearD, farD, ratio, angle,tang;
-	float nw,nh,fw,fh;	
-	
-	private final Vector4 eyePosition = new Vector4(0,0,0);
-	private final Vector4 eyeTarget = new Vector4(0,0,-1);
-	private final Vector4 upVector = new Vector4(0,1,0);
-
-	private volatile boolean needsPlaneRecalculation = true;
-	
-	public Frustum() {
-		for ( int i = 0 ; i < planes.length ; i++ ) {
-			planes[i] = new Plane(new Vector4(),new Vector4());
+	/**
+	 * Plane mask with all six frustum planes set , see {@link #testContains(float[], int, int)}.
+	 */
+	public static final int ALL_PLANES = (1<<6)-1;
+
+	/**
+	 * Plane mask value returned by {@link #testContains(float[], int, int)} for boxes
+	 * that are completely outside the frustum.
+	 */
+	public static final int OUTSIDE = -1;
+
+	/* A,B,C,D of each plane , normals point inside the frustum and have unit length.
+	 * All zeros until the first update , so everything is considered to be inside.
+	 */
+	private volatile float[] planes = new float[ PLANE_COUNT * 4 ];
+
+	/**
+	 * Extract the frustum planes from a projection*view matrix.
+	 *
+	 * @param viewProjectionMatrix
+	 */
+	public void setViewProjectionMatrix(Matrix viewProjectionMatrix)
+	{
+		final float[] m = viewProjectionMatrix.getData();
+		final float[] result = new float[ PLANE_COUNT * 4 ];
+
+		// clip space coordinates are inside if -w <= x,y,z <= w
+		for ( int i = 0 ; i < 4 ; i++ )
+		{
+			final int col = i * Matrix.SIZE;
+			final float x = m[ col ];
+			final float y = m[ col + 1 ];
+			final float z = m[ col + 2 ];
+			final float w = m[ col + 3 ];
+			result[ LEFT*4 + i ]   = w + x;
+			result[ RIGHT*4 + i ]  = w - x;
+			result[ BOTTOM*4 + i ] = w + y;
+			result[ TOP*4 + i ]    = w - y;
+			result[ NEAR*4 + i ]   = w + z;
+			result[ FAR*4 + i ]    = w - z;
+		}
+
+		// normalize so that sphere radii can be compared with plane distances
+		for ( int offset = 0 ; offset < result.length ; offset += 4 )
+		{
+			final float a = result[ offset ];
+			final float b = result[ offset + 1 ];
+			final float c = result[ offset + 2 ];
+			final float length = (float) Math.sqrt( a*a + b*b + c*c );
+			if ( length != 0 )
+			{
+				result[ offset ] = a / length;
+				result[ offset + 1 ] = b / length;
+				result[ offset + 2 ] = c / length;
+				result[ offset + 3 ] /= length;
+			}
 		}
+		this.planes = result;
 	}
-	
-	public synchronized void setPerspective(float angle, float ratio, float nearD, float farD) {
-
-		// store the information
-		this.ratio = ratio;
-		this.angle = angle;
-		this.nearD = nearD;
-		this.farD = farD;
-
-		// compute width and height of the near and far plane sections
-		tang = (float) Math.tan( Constants.DEG_TO_RAD * angle * 0.5f) ;
-		nh = nearD * tang;
-		nw = nh * ratio; 
-		fh = farD  * tang;
-		fw = fh * ratio;
-		needsPlaneRecalculation = true;
+
+	/**
+	 * Returns the frustum planes.
+	 *
+	 * @return A,B,C,D of all six planes , must not be modified
+	 */
+	public float[] getPlanes() {
+		return planes;
 	}
-	
+
 	@Override
-	public String toString() {
-		
-//		String result = "Frustrum[ left X="+pl[LEFT].getPoint().x()+" , "+
-//				                 " right X="+pl[RIGHT].getPoint().x()+" , "+
-//				                 " near Z="+pl[NEAR].getPoint().z()+" , "+
-//				                 " far Z="+pl[FAR].getPoint().z()+" , "+
-//				                 " top Y="+pl[TOP].getPoint().y()+" , "+
-//				                 " bottom Y="+pl[BOTTOM].getPoint().y()+" , ";			                 
-		String result = "Plane TOP    = "+planes[TOP]+"\n"+
-						"Plane BOTTOM = "+planes[BOTTOM]+"\n"+
-						"Plane LEFT   = "+planes[LEFT]+"\n"+
-						"Plane RIGHT  = "+planes[RIGHT]+"\n"+
-						"Plane NEAR   = "+planes[NEAR]+"\n"+
-						"Plane FAR    = "+planes[FAR];
-		return result;
+	public String toString()
+	{
+		final float[] p = this.planes;
+		final StringBuilder result = new StringBuilder();
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
+		{
+			final int offset = index * 4;
+			if ( index > 0 ) {
+				result.append("\n");
+			}
+			result.append("Plane ").append( String.format( "%-6s" , PLANE_NAMES[ index ] ) ).append(" = ")
+				.append( p[ offset ] ).append(" * x + ").append( p[ offset + 1 ] ).append(" * y + ")
+				.append( p[ offset + 2 ] ).append(" * z + ").append( p[ offset + 3 ] );
+		}
+		return result.toString();
 	}
-	
-	
-	public synchronized void setEyePosition(Vector4 eyePosition, Vector4 eyeTarget, Vector4 upVector) {
-//		System.out.println("new frustum eye position: "+this.eyePosition+" -> "+eyePosition);
-//		System.out.println("new frustum eye target: "+this.eyeTarget+" -> "+eyeTarget);
-//		System.out.println("new frustum up vector: "+this.upVector+" -> "+upVector);
-//		System.out.println("***");
-		this.eyePosition.copyFrom( eyePosition );
-		this.eyeTarget.copyFrom( eyeTarget );
-		this.upVector.copyFrom( upVector );
-		needsPlaneRecalculation = true;
+
+	/**
+	 * Converts a plane mask returned by one of the <code>testContains()</code> methods.
+	 *
+	 * @param planeMask
+	 * @return
+	 */
+	public static TestResult toTestResult(int planeMask)
+	{
+		if ( planeMask == OUTSIDE ) {
+			return TestResult.OUTSIDE;
+		}
+		return planeMask == 0 ? TestResult.INSIDE : TestResult.INTERSECT;
 	}
-	
-	public TestResult testContains(Matrix modelViewMatrix, Object3D object) 
+
+	/**
+	 * Test an object's oriented bounding box against the frustum.
+	 *
+	 * @param object
+	 * @return
+	 * @see #testContains(Object3D, int)
+	 */
+	public TestResult testContains(Object3D object) {
+		return toTestResult( testContains( object , ALL_PLANES ) );
+	}
+
+	/**
+	 * Test an object's oriented bounding box against the frustum.
+	 *
+	 * <p>The box is oriented by the object's {@link Object3D#getModelMatrix() current world transform} ,
+	 * objects without a bounding box are considered to intersect all tested planes.</p>
+	 *
+	 * @param object
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @return {@link #OUTSIDE} if the box is outside the frustum , otherwise the mask of tested planes the box intersects
+	 * (0 means the box is completely inside the frustum)
+	 * @see #testContains(Object3D, AffineMatrix, int)
+	 */
+	public int testContains(Object3D object,int planeMask) {
+		return testContains( object , object.getModelMatrix() , planeMask );
+	}
+
+	/**
+	 * Test an object's oriented bounding box against the frustum.
+	 *
+	 * <p>Objects without a bounding box are considered to intersect all tested planes.</p>
+	 *
+	 * @param object
+	 * @param worldTransform world transform the box is oriented by
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @return {@link #OUTSIDE} if the box is outside the frustum , otherwise the mask of tested planes the box intersects
+	 * (0 means the box is completely inside the frustum)
+	 * @see #testContains(AffineMatrix, float[], int, int)
+	 */
+	public int testContains(Object3D object,AffineMatrix worldTransform,int planeMask)
 	{
-		if ( needsPlaneRecalculation ) {
-			recalculatePlaneDefinitions();
+		final BoundingBox box = object.getOrientedBoundingBox();
+		if ( box == null ) {
+			return planeMask;
 		}
-		
-		final Vector4[] points;
-		final BoundingBox boundingBox = object.getOrientedBoundingBox();
-		if ( boundingBox != null ) {
-			points = boundingBox.getPoints();
-		} 
-		else 
+		return testContains( worldTransform , box.getBounds() , 0 , planeMask );
+	}
+
+	/**
+	 * Test an oriented box against the frustum.
+	 *
+	 * <p>The box is given as an axis-aligned box in model space that is oriented by the model matrix. For each plane
+	 * the box' half extents are projected onto the plane's normal vector , the box is outside if its center is farther than this
+	 * radius behind the plane and straddles the plane if its center is closer than the radius. Unlike testing the box corners
+	 * this also works for boxes that are larger than the frustum.</p>
+	 *
+	 * @param modelMatrix transforms the box to world space
+	 * @param bounds min x,y,z followed by max x,y,z in model space
+	 * @param offset offset of min x within the <code>bounds</code> array
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @return {@link #OUTSIDE} if the box is outside the frustum , otherwise the mask of tested planes the box intersects
+	 * (0 means the box is completely inside the frustum)
+	 */
+	public int testContains(AffineMatrix modelMatrix,float[] bounds,int offset,int planeMask)
+	{
+		final float[] p = this.planes;
+		final float[] m = modelMatrix.getData();
+
+		// center and half extents in model space
+		final float cx = ( bounds[ offset ] + bounds[ offset + 3 ] ) * 0.5f;
+		final float cy = ( bounds[ offset + 1 ] + bounds[ offset + 4 ] ) * 0.5f;
+		final float cz = ( bounds[ offset + 2 ] + bounds[ offset + 5 ] ) * 0.5f;
+		final float ex = ( bounds[ offset + 3 ] - bounds[ offset ] ) * 0.5f;
+		final float ey = ( bounds[ offset + 4 ] - bounds[ offset + 1 ] ) * 0.5f;
+		final float ez = ( bounds[ offset + 5 ] - bounds[ offset + 2 ] ) * 0.5f;
+
+		// center and box axes scaled by the half extents in world space
+		final float x = m[0] * cx + m[3] * cy + m[6] * cz + m[9];
+		final float y = m[1] * cx + m[4] * cy + m[7] * cz + m[10];
+		final float z = m[2] * cx + m[5] * cy + m[8] * cz + m[11];
+		final float ux = m[0] * ex , uy = m[1] * ex , uz = m[2] * ex;
+		final float vx = m[3] * ey , vy = m[4] * ey , vz = m[5] * ey;
+		final float wx = m[6] * ez , wy = m[7] * ez , wz = m[8] * ez;
+
+		int result = 0;
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
 		{
-			final float[] vertices = object.getVertices();
-			points = new Vector4[ vertices.length / 4 ];
-			final int len = points.length;
-			for ( int ptr = 0 , target = 0 ; target < len ; ptr+=4 , target++) 
-			{
-				points[ target ] = new Vector4( vertices[ ptr ] , vertices[ptr+1] , vertices[ptr+2] );
+			final int mask = 1 << index;
+			if ( ( planeMask & mask ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float a = p[ plane ];
+			final float b = p[ plane + 1 ];
+			final float c = p[ plane + 2 ];
+
+			final float distance = a * x + b * y + c * z + p[ plane + 3 ];
+			final float radius = Math.abs( a * ux + b * uy + c * uz ) + Math.abs( a * vx + b * vy + c * vz ) + Math.abs( a * wx + b * wy + c * wz );
+			if ( distance < -radius ) {
+				return OUTSIDE;
+			}
+			if ( distance < radius ) {
+				result |= mask;
 			}
 		}
-		
-		modelViewMatrix.multiplyInPlace( points );
-		
-		TestResult result = TestResult.OUTSIDE;
-		for ( Vector4 point : points ) 
+		return result;
+	}
+
+	public TestResult testContains(Vector4 point)
+	{
+		final float[] p = this.planes;
+		final float x = point.x();
+		final float y = point.y();
+		final float z = point.z();
+		for ( int offset = 0 ; offset < p.length ; offset += 4 )
 		{
-			switch ( testContains( point ) ) 
-			{
-				case INSIDE:
-				case INTERSECT:
-					return TestResult.INSIDE;
-				case OUTSIDE:
-					break;
-					default:
-						throw new RuntimeException("Unreachable code reached");
-			}
-			
+			// negative distance means the point is on the opposite side of the plane's (inward pointing) normal vector
+			if ( p[ offset ] * x + p[ offset + 1 ] * y + p[ offset + 2 ] * z + p[ offset + 3 ] < 0 ) {
+				return TestResult.OUTSIDE;
+			}
+		}
+		return TestResult.INSIDE;
+	}
+
+	/**
+	 * Test an axis-aligned box against the frustum.
+	 *
+	 * <p>For each plane only the box corner that is farthest along the plane's (inward pointing) normal vector
+	 * (the "positive vertex") is tested , if this vertex is outside so is the whole box. Planes the box
+	 * is completely inside of need not be tested again for boxes contained in this box , so the returned mask
+	 * can be passed on when testing nested boxes.</p>
+	 *
+	 * @param bounds min x,y,z followed by max x,y,z
+	 * @param offset offset of min x within the <code>bounds</code> array
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @return {@link #OUTSIDE} if the box is outside the frustum , otherwise the mask of tested planes the box intersects
+	 * (0 means the box is completely inside the frustum)
+	 */
+	public int testContains(float[] bounds,int offset,int planeMask)
+	{
+		final float[] p = this.planes;
+
+		final float minX = bounds[ offset ];
+		final float minY = bounds[ offset + 1 ];
+		final float minZ = bounds[ offset + 2 ];
+		final float maxX = bounds[ offset + 3 ];
+		final float maxY = bounds[ offset + 4 ];
+		final float maxZ = bounds[ offset + 5 ];
+
+		int result = 0;
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
+		{
+			final int mask = 1 << index;
+			if ( ( planeMask & mask ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float a = p[ plane ];
+			final float b = p[ plane + 1 ];
+			final float c = p[ plane + 2 ];
+			final float d = p[ plane + 3 ];
+
+			// positive vertex , farthest inside
+			final float px = a >= 0 ? maxX : minX;
+			final float py = b >= 0 ? maxY : minY;
+			final float pz = c >= 0 ? maxZ : minZ;
+			if ( a * px + b * py + c * pz + d < 0 ) {
+				return OUTSIDE;
+			}
+
+			// negative vertex , farthest outside
+			final float nx = a >= 0 ? minX : maxX;
+			final float ny = b >= 0 ? minY : maxY;
+			final float nz = c >= 0 ? minZ : maxZ;
+			if ( a * nx + b * ny + c * nz + d < 0 ) {
+				result |= mask;
+			}
 		}
 		return result;
 	}
-	
-	public TestResult testContains(Vector4 point) 
+
+	/**
+	 * Test a sphere against the frustum.
+	 *
+	 * @param x center X
+	 * @param y center Y
+	 * @param z center Z
+	 * @param radius
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @return {@link #OUTSIDE} if the sphere is outside the frustum , otherwise the mask of tested planes the sphere intersects
+	 * (0 means the sphere is completely inside the frustum)
+	 * @see #testContains(float[], int, int)
+	 */
+	public int testContains(float x,float y,float z,float radius,int planeMask)
+	{
+		final float[] p = this.planes;
+
+		int result = 0;
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
+		{
+			final int mask = 1 << index;
+			if ( ( planeMask & mask ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float distance = p[ plane ] * x + p[ plane + 1 ] * y + p[ plane + 2 ] * z + p[ plane + 3 ];
+			if ( distance < -radius ) {
+				return OUTSIDE;
+			}
+			if ( distance < radius ) {
+				result |= mask;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Test <code>count</code> points stored as separate component arrays , starting with the point at index <code>first</code>.
+	 *
+	 * @param xs
+	 * @param ys
+	 * @param zs
+	 * @param first
+	 * @param count
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @param results receives {@link #OUTSIDE} or 0 for each point , the result for point <code>n</code> is stored at <code>results[n]</code>
+	 */
+	public void testPoints(float[] xs,float[] ys,float[] zs,int first,int count,int planeMask,int[] results)
 	{
-		if ( needsPlaneRecalculation ) {
-			recalculatePlaneDefinitions();
+		final float[] p = this.planes;
+		final int end = first + count;
+		for ( int i = first ; i < end ; i++ ) {
+			results[i] = 0;
 		}
-		
-		for ( int index = 0 ; index < planes.length ; index++ ) 
+
+		// one plane at a time , keeps the inner loop short
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
 		{
-			final Plane plane = planes[ index ];
-			/* plane normal vectors point outside the frustum , 
-			 * negative distance means the point is on the opposite side of the plane's normal vector
-			 * and thus inside the view frustum
-			 */
-			if ( plane.distance( point ) < 0 ) { 
-//				System.out.println("Point "+point+" is outside "+planeIndexToName( index)+" : "+plane);				
-				return TestResult.OUTSIDE;
+			if ( ( planeMask & ( 1 << index ) ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float a = p[ plane ];
+			final float b = p[ plane + 1 ];
+			final float c = p[ plane + 2 ];
+			final float d = p[ plane + 3 ];
+			for ( int i = first ; i < end ; i++ )
+			{
+				final float distance = a * xs[i] + b * ys[i] + c * zs[i] + d;
+				results[i] |= distance < 0 ? OUTSIDE : 0;
 			}
 		}
-		return TestResult.INSIDE;
 	}
-	
-	public void forceRecalculatePlaneDefinitions() {
-		recalculatePlaneDefinitions();
+
+	/**
+	 * Test <code>count</code> spheres , starting with the sphere at index <code>first</code>.
+	 *
+	 * @param spheres center x,y,z and radius of each sphere
+	 * @param first
+	 * @param count
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @param results receives the {@link #testContains(float, float, float, float, int) test result} for each sphere ,
+	 * the result for sphere <code>n</code> is stored at <code>results[n]</code>
+	 */
+	public void testSpheres(float[] spheres,int first,int count,int planeMask,int[] results)
+	{
+		final float[] p = this.planes;
+		final int end = first + count;
+		for ( int i = first ; i < end ; i++ ) {
+			results[i] = 0;
+		}
+
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
+		{
+			final int mask = 1 << index;
+			if ( ( planeMask & mask ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float a = p[ plane ];
+			final float b = p[ plane + 1 ];
+			final float c = p[ plane + 2 ];
+			final float d = p[ plane + 3 ];
+			for ( int i = first , offset = first * 4 ; i < end ; i++ , offset += 4 )
+			{
+				final float distance = a * spheres[ offset ] + b * spheres[ offset + 1 ] + c * spheres[ offset + 2 ] + d;
+				final float radius = spheres[ offset + 3 ];
+				// OUTSIDE has all bits set and thus stays OUTSIDE
+				results[i] |= ( distance < -radius ? OUTSIDE : 0 ) | ( distance < radius ? mask : 0 );
+			}
+		}
 	}
-	
-	private synchronized void recalculatePlaneDefinitions() 
+
+	/**
+	 * Test <code>count</code> axis-aligned boxes , starting with the box at index <code>first</code>.
+	 *
+	 * @param bounds min x,y,z followed by max x,y,z of each box
+	 * @param first
+	 * @param count
+	 * @param planeMask planes to test , bit N set means plane N needs testing
+	 * @param results receives the {@link #testContains(float[], int, int) test result} for each box ,
+	 * the result for box <code>n</code> is stored at <code>results[n]</code>
+	 */
+	public void testBoxes(float[] bounds,int first,int count,int planeMask,int[] results)
 	{
-		// compute the Z axis of camera
-		// this axis points in the opposite direction from 
-		// the looking direction
-		Vector4 Z = eyePosition.minus( eyeTarget );
-		Z.normalizeInPlace();
-
-		// X axis of camera with given "up" vector and Z axis
-		Vector4 X = upVector.crossProduct( Z );
-		X.normalizeInPlace();
-
-		// the real "up" vector is the cross product of Z and X
-		Vector4 Y = Z.crossProduct( X );
-
-		// compute the centers of the near and far planes
-		final Vector4 nc = eyePosition.minus( Z.multiply( nearD ) );
-		final Vector4 fc = eyePosition.minus( Z.multiply( farD ) ); 
-
-		planes[NEAR].setNormalAndPoint( Z.multiply(-1f) , nc);
-		planes[FAR].setNormalAndPoint(  Z               , fc);
-
-		Vector4 aux = ( nc.plus(Y.multiply(nh) ) ).minus( eyePosition );
-		aux.normalizeInPlace();
-		Vector4 normal = aux.crossProduct( X );
-		planes[TOP].setNormalAndPoint(normal, nc.plus( Y.multiply( nh ) ) );
-
-		aux = (nc.minus( Y.multiply(nh) ) ).minus( eyePosition );
-		aux.normalizeInPlace();
-		normal = X.crossProduct( aux );
-		planes[BOTTOM].setNormalAndPoint(normal,nc.minus( Y.multiply( nh ) ));
-		
-		aux = (nc.minus( X.multiply(nw) ) ).minus(eyePosition);
-		aux.normalizeInPlace();
-		normal = aux.crossProduct( Y );
-		planes[LEFT].setNormalAndPoint(normal, nc.minus( X.multiply( nw) ) );
-
-		aux = (nc.plus( X.multiply(nw) )).minus( eyePosition );
-		aux.normalizeInPlace();
-		normal = Y.crossProduct( aux );
-		planes[RIGHT].setNormalAndPoint(normal,nc.plus( X.multiply(nw)));	
-		
-		needsPlaneRecalculation = false;
-		System.out.println( this );
+		final float[] p = this.planes;
+		final int end = first + count;
+		for ( int i = first ; i < end ; i++ ) {
+			results[i] = 0;
+		}
+
+		for ( int index = 0 ; index < PLANE_COUNT ; index++ )
+		{
+			final int mask = 1 << index;
+			if ( ( planeMask & mask ) == 0 ) {
+				continue;
+			}
+			final int plane = index * 4;
+			final float a = p[ plane ];
+			final float b = p[ plane + 1 ];
+			final float c = p[ plane + 2 ];
+			final float d = p[ plane + 3 ];
+
+			// the positive / negative vertex only depends on the plane normal
+			final int px = a >= 0 ? 3 : 0;
+			final int py = b >= 0 ? 4 : 1;
+			final int pz = c >= 0 ? 5 : 2;
+			final int nx = 3 - px;
+			final int ny = 5 - py;
+			final int nz = 7 - pz;
+
+			for ( int i = first , offset = first * 6 ; i < end ; i++ , offset += 6 )
+			{
+				final float positive = a * bounds[ offset + px ] + b * bounds[ offset + py ] + c * bounds[ offset + pz ] + d;
+				final float negative = a * bounds[ offset + nx ] + b * bounds[ offset + ny ] + c * bounds[ offset + nz ] + d;
+				// OUTSIDE has all bits set and thus stays OUTSIDE
+				results[i] |= ( positive < 0 ? OUTSIDE : 0 ) | ( negative < 0 ? mask : 0 );
+			}
+		}
 	}
 }
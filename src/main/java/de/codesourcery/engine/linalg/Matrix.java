@@ -89,6 +89,22 @@ public final class Matrix
         return new Matrix( multiply( other , new float[ SIZE*SIZE ] ) );
     }
     
+    /**
+     * Multiply by another 4x4 matrix , storing the result in a destination matrix.
+     * 
+     * @param other
+     * @param dest destination matrix , must neither be <code>this</code> nor <code>other</code>
+     * @return destination matrix
+     */
+    public Matrix multiply(Matrix other,Matrix dest) 
+    {
+        if ( dest == this || dest == other ) {
+            throw new IllegalArgumentException("Destination matrix must not be one of the operands");
+        }
+        multiply( other , dest.data );
+        return dest;
+    }
+    
     /**
      * Multiply by another 4x4 matrix.
      * 
@@ -149,6 +165,49 @@ public final class Matrix
         return target;
     }
 
+    /**
+     * Multiply by an affine matrix.
+     * 
+     * <p>The last row of an affine matrix is (0,0,0,1) , this takes 48 instead of 64 multiplications.</p>
+     * 
+     * @param other
+     * @return
+     */
+    public Matrix multiply(AffineMatrix other) 
+    {
+        final float[] a = this.data;
+        final float[] b = other.getData();
+        final float[] target = new float[ SIZE*SIZE ];
+
+        for ( int col = 0 , offset = 0 ; col < 3 ; col++ , offset += 3 ) 
+        {
+            final float x = b[ offset ];
+            final float y = b[ offset + 1 ];
+            final float z = b[ offset + 2 ];
+            for ( int row = 0 ; row < SIZE ; row++ ) {
+                target[ col*SIZE + row ] = a[ row ] * x + a[ row + SIZE ] * y + a[ row + SIZE*2 ] * z;
+            }
+        }
+
+        final float x = b[ 9 ];
+        final float y = b[ 10 ];
+        final float z = b[ 11 ];
+        for ( int row = 0 ; row < SIZE ; row++ ) {
+            target[ SIZE*3 + row ] = a[ row ] * x + a[ row + SIZE ] * y + a[ row + SIZE*2 ] * z + a[ row + SIZE*3 ];
+        }
+        return new Matrix( target );
+    }
+
+    /**
+     * Check whether this matrix is an affine transformation (the last row is (0,0,0,1)).
+     * 
+     * @return
+     * @see AffineMatrix
+     */
+    public boolean isAffine() {
+        return data[3] == 0 && data[7] == 0 && data[11] == 0 && data[15] == 1;
+    }
+
     // code used to generate the above:
     
     //	public static void main(String[] args)
@@ -237,6 +296,62 @@ public final class Matrix
         return StringUtils.leftPad( df.format( v ) , 6 );
     }
 
+    /**
+     * Transpose this matrix , storing the result in a destination matrix.
+     * 
+     * @param dest destination matrix , must not be <code>this</code>
+     * @return destination matrix
+     */
+    public Matrix transpose(Matrix dest) 
+    {
+        if ( dest == this ) {
+            throw new IllegalArgumentException("Destination matrix must not be this matrix");
+        }
+        for ( int row = 0 ; row < SIZE ; row++ ) {
+            for ( int col = 0 ; col < SIZE ; col++ ) {
+                dest.set( row , col , get( col , row ) );
+            }
+        }
+        return dest;
+    }
+    
+    /**
+     * Returns a matrix that transforms surface normals the same way this matrix transforms points.
+     *
+     * <p>The upper-left 3x3 part of the result holds the cofactor matrix of this matrix' upper-left 3x3 part
+     * (the inverse transpose multiplied by the determinant) , the remaining elements are those of the identity matrix.
+     * Unlike the inverse transpose , this also works for singular matrices and keeps normals pointing outwards
+     * for mirroring transformations. Transformed normals are not normalized.</p>
+     *
+     * @return
+     */
+    public Matrix normalMatrix()
+    {
+        final float[] m = this.data;
+
+        // columns of the upper-left 3x3 part
+        final float ax = m[0] , ay = m[1] , az = m[2];
+        final float bx = m[ SIZE ] , by = m[ 1 + SIZE ] , bz = m[ 2 + SIZE ];
+        final float cx = m[ SIZE*2 ] , cy = m[ 1 + SIZE*2 ] , cz = m[ 2 + SIZE*2 ];
+
+        // columns of the cofactor matrix are b x c , c x a and a x b
+        final float[] result = new float[ SIZE * SIZE ];
+        result[0] = by * cz - bz * cy;
+        result[1] = bz * cx - bx * cz;
+        result[2] = bx * cy - by * cx;
+
+        result[ SIZE ] = cy * az - cz * ay;
+        result[ 1 + SIZE ] = cz * ax - cx * az;
+        result[ 2 + SIZE ] = cx * ay - cy * ax;
+
+        result[ SIZE*2 ] = ay * bz - az * by;
+        result[ 1 + SIZE*2 ] = az * bx - ax * bz;
+        result[ 2 + SIZE*2 ] = ax * by - ay * bx;
+
+        result[ 3 + SIZE*3 ] = 1;
+        return new Matrix( result );
+    }
+
     public Matrix transpose() {
 
         Matrix result = new Matrix();
@@ -278,29 +393,247 @@ public final class Matrix
         return transformed;
     }
     
+    /**
+     * Multiply vectors , storing the results in destination vectors.
+     * 
+     * @param input
+     * @param dest destination vectors , may be the input array
+     * @return destination vectors
+     */
+    public Vector4[] multiply(Vector4[] input,Vector4[] dest)
+    {
+        final int len = input.length;
+        for ( int i = 0 ; i < len ; i++ ) {
+            multiply( input[i] , dest[i] );
+        }
+        return dest;
+    }
+    
     public float[] multiply(float[] vectorData)
     {
-        final float[] result = new float[ vectorData.length ];
+        return multiply( vectorData , new float[ vectorData.length ] );
+    }
 
-        final float[] thisData = this.data;
+    /**
+     * Multiply vectors stored in x,y,z,w order.
+     * 
+     * @param vectorData
+     * @param target target array where results should be stored , may be the input array
+     * @return
+     */
+    public float[] multiply(float[] vectorData,float[] target)
+    {
+        return multiply( vectorData , target , vectorData.length / 4 );
+    }
+
+    /**
+     * Multiply the first <code>vectorCount</code> vectors stored in x,y,z,w order.
+     * 
+     * @param vectorData
+     * @param target target array where results should be stored , may be the input array
+     * @param vectorCount
+     * @return
+     */
+    public float[] multiply(float[] vectorData,float[] target,int vectorCount)
+    {
+        return multiply( vectorData , target , 0 , vectorCount );
+    }
+
+    /**
+     * Multiply <code>vectorCount</code> vectors stored in x,y,z,w order , starting with the vector at index <code>firstVector</code>.
+     * 
+     * @param vectorData
+     * @param target target array where results should be stored (at the same offsets) , may be the input array
+     * @param firstVector
+     * @param vectorCount
+     * @return
+     */
+    public float[] multiply(float[] vectorData,float[] target,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
         
-        int i = 0;
-        for ( int offset = 0 ; offset < vectorData.length ; offset += 4) 
+        final float m0 = m[0] , m4 = m[ SIZE ] , m8  = m[ SIZE*2 ] , m12 = m[ SIZE*3 ];
+        final float m1 = m[1] , m5 = m[ 1 + SIZE ] , m9  = m[ 1 + SIZE*2 ] , m13 = m[ 1 + SIZE*3 ];
+        final float m2 = m[2] , m6 = m[ 2 + SIZE ] , m10 = m[ 2 + SIZE*2 ] , m14 = m[ 2 + SIZE*3 ];
+        final float m3 = m[3] , m7 = m[ 3 + SIZE ] , m11 = m[ 3 + SIZE*2 ] , m15 = m[ 3 + SIZE*3 ];
+        
+        final int end = ( firstVector + vectorCount ) * 4;
+        for ( int offset = firstVector * 4 ; offset < end ; offset += 4) 
+        {
+            final float x = vectorData[ offset ];
+            final float y = vectorData[ offset+1 ];
+            final float z = vectorData[ offset+2 ];
+            final float w = vectorData[ offset+3 ];
+            
+            target[ offset   ] = m0 * x + m4 * y + m8  * z + m12 * w;
+            target[ offset+1 ] = m1 * x + m5 * y + m9  * z + m13 * w;
+            target[ offset+2 ] = m2 * x + m6 * y + m10 * z + m14 * w;
+            target[ offset+3 ] = m3 * x + m7 * y + m11 * z + m15 * w;
+        }
+        return target;
+    }
+
+    /**
+     * Multiply <code>vectorCount</code> vectors stored as separate component arrays , starting with the vector at index <code>firstVector</code>.
+     *
+     * <p>Results are stored in x,y,z,w order , the result for vector <code>n</code> starts at <code>target[n*4]</code>.</p>
+     *
+     * @param xs
+     * @param ys
+     * @param zs
+     * @param ws W components , <code>null</code> if W is 1 for all vectors
+     * @param target
+     * @param firstVector
+     * @param vectorCount
+     * @return
+     */
+    public float[] multiply(float[] xs,float[] ys,float[] zs,float[] ws,float[] target,int firstVector,int vectorCount)
+    {
+        if ( ws != null ) {
+            return multiplyWithW( xs , ys , zs , ws , target , firstVector , vectorCount );
+        }
+
+        final float[] m = this.data;
+
+        final float m0 = m[0] , m4 = m[ SIZE ] , m8  = m[ SIZE*2 ] , m12 = m[ SIZE*3 ];
+        final float m1 = m[1] , m5 = m[ 1 + SIZE ] , m9  = m[ 1 + SIZE*2 ] , m13 = m[ 1 + SIZE*3 ];
+        final float m2 = m[2] , m6 = m[ 2 + SIZE ] , m10 = m[ 2 + SIZE*2 ] , m14 = m[ 2 + SIZE*3 ];
+        final float m3 = m[3] , m7 = m[ 3 + SIZE ] , m11 = m[ 3 + SIZE*2 ] , m15 = m[ 3 + SIZE*3 ];
+
+        final int end = firstVector + vectorCount;
+        for ( int i = firstVector , offset = firstVector * 4 ; i < end ; i++ , offset += 4 )
         {
-            result[i++] = this.data[ 0 ] * vectorData[ offset ] + thisData[ 0 + SIZE ] * vectorData[ offset+1 ] +  
-                    thisData[ 0 + SIZE*2 ] * vectorData[ offset+2 ] + thisData[ 0 + SIZE*3 ] * vectorData[ offset+3 ];
+            final float x = xs[ i ];
+            final float y = ys[ i ];
+            final float z = zs[ i ];
+
+            // w == 1
+            target[ offset   ] = m0 * x + m4 * y + m8  * z + m12;
+            target[ offset+1 ] = m1 * x + m5 * y + m9  * z + m13;
+            target[ offset+2 ] = m2 * x + m6 * y + m10 * z + m14;
+            target[ offset+3 ] = m3 * x + m7 * y + m11 * z + m15;
+        }
+        return target;
+    }
 
-            result[ i++ ] = thisData[ 1 ] * vectorData[ offset ] + thisData[ 1 + SIZE ] * vectorData[ offset+1 ] + thisData[ 1 + SIZE*2 ] * vectorData[ offset+2 ]+
-                    thisData[ 1 + SIZE*3 ] * vectorData[ offset+3 ];
+    /**
+     * Multiply <code>vectorCount</code> vectors stored as separate component arrays , starting with the vector at index <code>firstVector</code>
+     * and storing results as separate component arrays (at the same indices).
+     *
+     * <p>Results are calculated one component at a time , in loops that only access array elements with the same index.
+     * This allows the JIT compiler to process several vectors at once using SIMD instructions
+     * (and falls back to scalar code on CPUs without them).</p>
+     *
+     * @param xs
+     * @param ys
+     * @param zs
+     * @param ws W components , <code>null</code> if W is 1 for all vectors
+     * @param targetXs target arrays , must not be any of the input arrays
+     * @param targetYs
+     * @param targetZs
+     * @param targetWs
+     * @param firstVector
+     * @param vectorCount
+     */
+    public void multiply(float[] xs,float[] ys,float[] zs,float[] ws,float[] targetXs,float[] targetYs,float[] targetZs,float[] targetWs,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
+        final int end = firstVector + vectorCount;
+        multiplyRow( xs , ys , zs , ws , m[0] , m[ SIZE ] , m[ SIZE*2 ] , m[ SIZE*3 ] , targetXs , firstVector , end );
+        multiplyRow( xs , ys , zs , ws , m[1] , m[ 1 + SIZE ] , m[ 1 + SIZE*2 ] , m[ 1 + SIZE*3 ] , targetYs , firstVector , end );
+        multiplyRow( xs , ys , zs , ws , m[2] , m[ 2 + SIZE ] , m[ 2 + SIZE*2 ] , m[ 2 + SIZE*3 ] , targetZs , firstVector , end );
+        multiplyRow( xs , ys , zs , ws , m[3] , m[ 3 + SIZE ] , m[ 3 + SIZE*2 ] , m[ 3 + SIZE*3 ] , targetWs , firstVector , end );
+    }
+
+    /**
+     * Multiply vectors stored as separate component arrays and divide their X,Y and Z components by W afterwards (W is kept).
+     *
+     * <p>Used to transform vertices into clip space and apply the perspective division in one call.</p>
+     *
+     * @param xs
+     * @param ys
+     * @param zs
+     * @param ws W components , <code>null</code> if W is 1 for all vectors
+     * @param targetXs target arrays , must not be any of the input arrays
+     * @param targetYs
+     * @param targetZs
+     * @param targetWs
+     * @param firstVector
+     * @param vectorCount
+     * @see #multiply(float[], float[], float[], float[], float[], float[], float[], float[], int, int)
+     * @see Vector4#normalizeW()
+     */
+    public void multiplyAndNormalizeW(float[] xs,float[] ys,float[] zs,float[] ws,float[] targetXs,float[] targetYs,float[] targetZs,float[] targetWs,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
+        final int end = firstVector + vectorCount;
+        // W first , it is needed by all other components
+        multiplyRow( xs , ys , zs , ws , m[3] , m[ 3 + SIZE ] , m[ 3 + SIZE*2 ] , m[ 3 + SIZE*3 ] , targetWs , firstVector , end );
+        multiplyRowAndDivide( xs , ys , zs , ws , m[0] , m[ SIZE ] , m[ SIZE*2 ] , m[ SIZE*3 ] , targetWs , targetXs , firstVector , end );
+        multiplyRowAndDivide( xs , ys , zs , ws , m[1] , m[ 1 + SIZE ] , m[ 1 + SIZE*2 ] , m[ 1 + SIZE*3 ] , targetWs , targetYs , firstVector , end );
+        multiplyRowAndDivide( xs , ys , zs , ws , m[2] , m[ 2 + SIZE ] , m[ 2 + SIZE*2 ] , m[ 2 + SIZE*3 ] , targetWs , targetZs , firstVector , end );
+    }
 
-            result[ i++ ] = thisData[ 2 ] * vectorData[ offset ] + thisData[ 2 + SIZE ] * vectorData[ offset+1 ]+
-                    thisData[ 2 + SIZE*2 ] * vectorData[ offset+2 ] + thisData[ 2 + SIZE*3 ] * vectorData[ offset+3 ];
+    /*
+     * Loop bodies need to stay small , otherwise the JIT compiler does not unroll
+     * them far enough to use SIMD instructions.
+     */
+    private static void multiplyRow(float[] xs,float[] ys,float[] zs,float[] ws,float mx,float my,float mz,float mw,float[] target,int start,int end)
+    {
+        if ( ws == null )
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = mx * xs[i] + my * ys[i] + mz * zs[i] + mw;
+            }
+        }
+        else
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = mx * xs[i] + my * ys[i] + mz * zs[i] + mw * ws[i];
+            }
+        }
+    }
 
-            result [ i++ ] = thisData[ 3 ] * vectorData[ offset+0 ]+ thisData[ 3 + SIZE ] * vectorData[ offset+1 ]+ thisData[ 3 + SIZE*2 ] * vectorData[ offset+2 ]+
-                    thisData[ 3 + SIZE*3 ] * vectorData[ offset+3 ];
+    private static void multiplyRowAndDivide(float[] xs,float[] ys,float[] zs,float[] ws,float mx,float my,float mz,float mw,float[] divisors,float[] target,int start,int end)
+    {
+        if ( ws == null )
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = ( mx * xs[i] + my * ys[i] + mz * zs[i] + mw ) / divisors[i];
+            }
         }
-        return result;
-    }     
+        else
+        {
+            for ( int i = start ; i < end ; i++ ) {
+                target[i] = ( mx * xs[i] + my * ys[i] + mz * zs[i] + mw * ws[i] ) / divisors[i];
+            }
+        }
+    }
+
+    private float[] multiplyWithW(float[] xs,float[] ys,float[] zs,float[] ws,float[] target,int firstVector,int vectorCount)
+    {
+        final float[] m = this.data;
+
+        final float m0 = m[0] , m4 = m[ SIZE ] , m8  = m[ SIZE*2 ] , m12 = m[ SIZE*3 ];
+        final float m1 = m[1] , m5 = m[ 1 + SIZE ] , m9  = m[ 1 + SIZE*2 ] , m13 = m[ 1 + SIZE*3 ];
+        final float m2 = m[2] , m6 = m[ 2 + SIZE ] , m10 = m[ 2 + SIZE*2 ] , m14 = m[ 2 + SIZE*3 ];
+        final float m3 = m[3] , m7 = m[ 3 + SIZE ] , m11 = m[ 3 + SIZE*2 ] , m15 = m[ 3 + SIZE*3 ];
+
+        final int end = firstVector + vectorCount;
+        for ( int i = firstVector , offset = firstVector * 4 ; i < end ; i++ , offset += 4 )
+        {
+            final float x = xs[ i ];
+            final float y = ys[ i ];
+            final float z = zs[ i ];
+            final float w = ws[ i ];
+
+            target[ offset   ] = m0 * x + m4 * y + m8  * z + m12 * w;
+            target[ offset+1 ] = m1 * x + m5 * y + m9  * z + m13 * w;
+            target[ offset+2 ] = m2 * x + m6 * y + m10 * z + m14 * w;
+            target[ offset+3 ] = m3 * x + m7 * y + m11 * z + m15 * w;
+        }
+        return target;
+    }
 
     public Vector4 multiply(Vector4 vector4)
     {
@@ -325,21 +658,92 @@ public final class Matrix
         return new Vector4( result );
     }
 
+    /**
+     * Multiply a vector , storing the result in a destination vector.
+     * 
+     * @param vector4
+     * @param dest destination vector , may be the input vector
+     * @return destination vector
+     */
+    public Vector4 multiply(Vector4 vector4,Vector4 dest)
+    {
+        final float[] thisData = this.data;
+
+        final int offset = vector4.getDataOffset(); 
+        final float[] data = vector4.getDataArray();
+
+        final float x = thisData[ 0 ] * data[ offset ] + thisData[ 0 + SIZE ] * data[ offset+1 ] +  
+                thisData[ 0 + SIZE*2 ] * data[ offset+2 ] + thisData[ 0 + SIZE*3 ] * data[ offset+3 ];
+
+        final float y = thisData[ 1 ] * data[ offset ] + thisData[ 1 + SIZE ] * data[ offset+1 ] + thisData[ 1 + SIZE*2 ] * data[ offset+2 ]+
+                thisData[ 1 + SIZE*3 ] * data[ offset+3 ];
+
+        final float z = thisData[ 2 ] * data[ offset ] + thisData[ 2 + SIZE ] * data[ offset+1 ]+
+                thisData[ 2 + SIZE*2 ] * data[ offset+2 ] + thisData[ 2 + SIZE*3 ] * data[ offset+3 ];
+
+        final float w = thisData[ 3 ] * data[ offset+0 ]+ thisData[ 3 + SIZE ] * data[ offset+1 ]+ thisData[ 3 + SIZE*2 ] * data[ offset+2 ]+
+                thisData[ 3 + SIZE*3 ] * data[ offset+3 ];        
+
+        dest.set( x , y , z , w );
+        return dest;
+    }
+
     public void multiplyInPlace(Vector4[] data) 
     {
-        for ( Vector4 v : data ) {
-            multiplyInPlace( v );
-        }
+        multiplyInPlace( data , false );
     }
 
+    /**
+     * Multiply vectors in-place and divide their X,Y and Z components by W afterwards.
+     * 
+     * @param data
+     * @see Vector4#normalizeWInPlace()
+     */
     public void multiplyInPlaceAndNormalizeW(Vector4[] data) 
     {
-        for ( Vector4 v : data ) {
-            multiplyInPlace( v );
-            v.normalizeWInPlace();
-        }
+        multiplyInPlace( data , true );
     }    
 
+    private void multiplyInPlace(Vector4[] vectors,boolean normalizeW) 
+    {
+        final float[] m = this.data;
+
+        final float m0 = m[0] , m4 = m[ SIZE ] , m8  = m[ SIZE*2 ] , m12 = m[ SIZE*3 ];
+        final float m1 = m[1] , m5 = m[ 1 + SIZE ] , m9  = m[ 1 + SIZE*2 ] , m13 = m[ 1 + SIZE*3 ];
+        final float m2 = m[2] , m6 = m[ 2 + SIZE ] , m10 = m[ 2 + SIZE*2 ] , m14 = m[ 2 + SIZE*3 ];
+        final float m3 = m[3] , m7 = m[ 3 + SIZE ] , m11 = m[ 3 + SIZE*2 ] , m15 = m[ 3 + SIZE*3 ];
+
+        for ( Vector4 v : vectors ) 
+        {
+            final float[] data = v.getDataArray();
+            final int offset = v.getDataOffset();
+
+            final float x = data[ offset ];
+            final float y = data[ offset+1 ];
+            final float z = data[ offset+2 ];
+            final float w = data[ offset+3 ];
+
+            final float resultX = m0 * x + m4 * y + m8  * z + m12 * w;
+            final float resultY = m1 * x + m5 * y + m9  * z + m13 * w;
+            final float resultZ = m2 * x + m6 * y + m10 * z + m14 * w;
+            final float resultW = m3 * x + m7 * y + m11 * z + m15 * w;
+
+            if ( normalizeW && resultW != 1.0f ) 
+            {
+                data[ offset ] = resultX / resultW;
+                data[ offset+1 ] = resultY / resultW;
+                data[ offset+2 ] = resultZ / resultW;
+            } 
+            else 
+            {
+                data[ offset ] = resultX;
+                data[ offset+1 ] = resultY;
+                data[ offset+2 ] = resultZ;
+            }
+            data[ offset+3 ] = resultW;
+        }
+    }
+
     public void multiplyInPlace(Vector4 vector4)
     {
         final float[] thisData = this.data;
@@ -2,8 +2,8 @@ package de.codesourcery.engine.linalg;
 
 public class Plane {
 
-	private Vector4 normal;
-	private Vector4 point;
+	private final Vector4 normal;
+	private final Vector4 point;
 	private float d;
 	
 	public Plane( Vector4 normal,Vector4 point) {
@@ -32,14 +32,19 @@ public class Plane {
 		return this.normal.dotProduct( point ) + d;
 	}
 	
+	public float distance(float x,float y,float z) 
+	{
+		return normal.x() * x + normal.y() * y + normal.z() * z + d;
+	}
+	
 	public void setNormalAndPoint(Vector4 normal,Vector4 point) {
-		this.normal = new Vector4( normal );
-		this.point = new Vector4(point);
+		this.normal.copyFrom( normal );
+		this.point.copyFrom( point );
 		
 		/*
 		 * D = – n . p0 (dot product).
 		 */
-		d = this.normal.multiply( -1 ).dotProduct( this.point );		
+		d = -this.normal.dotProduct( this.point );		
 	}
 	
 	@Override
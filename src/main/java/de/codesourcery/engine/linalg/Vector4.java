@@ -51,6 +51,14 @@ public final class Vector4
         this.offset = offset;
     }
     
+    public void set(float x,float y,float z,float w) 
+    {
+        data[offset] = x;
+        data[offset+1] = y;
+        data[offset+2] = z;
+        data[offset+3] = w;
+    }
+    
     public boolean isEquals(Vector4 other) {
         return this.x() == other.x() &&
                 this.y() == other.y() &&
@@ -96,6 +104,19 @@ public final class Vector4
         return new Vector4( this.x() - other.x() , this.y() - other.y() , this.z() - other.z() , w() );
     }
     
+    /**
+     * Subtract another vector , storing the result in a destination vector.
+     * 
+     * @param other
+     * @param dest destination vector , may be <code>this</code> or <code>other</code>
+     * @return destination vector
+     */
+    public Vector4 minus(Vector4 other,Vector4 dest) 
+    {
+        dest.set( this.x() - other.x() , this.y() - other.y() , this.z() - other.z() , w() );
+        return dest;
+    }
+    
     public float distanceTo(Vector4 point) 
     {
     	float x = this.x() - point.x();
@@ -107,6 +128,19 @@ public final class Vector4
     public Vector4 plus(Vector4 other) {
      // TODO: Maybe it's faster to use a loop here ? Needs benchmarking
         return new Vector4( this.x() + other.x() , this.y() + other.y() , this.z() + other.z() , w() );
+    }
+    
+    /**
+     * Add another vector , storing the result in a destination vector.
+     * 
+     * @param other
+     * @param dest destination vector , may be <code>this</code> or <code>other</code>
+     * @return destination vector
+     */
+    public Vector4 plus(Vector4 other,Vector4 dest) 
+    {
+        dest.set( this.x() + other.x() , this.y() + other.y() , this.z() + other.z() , w() );
+        return dest;
     }        
     
     public Vector4(float x,float y,float z) {
@@ -142,6 +176,35 @@ public final class Vector4
         return new Vector4( result );
     }
     
+    /**
+     * Multiply with a matrix (row vector * matrix) , storing the result in a destination vector.
+     * 
+     * @param matrix
+     * @param dest destination vector , may be <code>this</code>
+     * @return destination vector
+     */
+    public Vector4 multiply( Matrix matrix,Vector4 dest) 
+    {
+        final float[] thisData = this.data;
+        final float[] matrixData = matrix.getData();
+        final int offset = this.offset;
+        
+        final float x = thisData[ offset ] * matrixData[0] + thisData[offset+1] * matrixData[1]+
+                        thisData[offset+2] * matrixData[2]+ thisData[offset+3] * matrixData[3];
+        
+        final float y = thisData[ offset ] * matrixData[4] + thisData[offset+1] * matrixData[5] +
+                        thisData[offset+2] * matrixData[6] + thisData[offset+3] * matrixData[7];
+        
+        final float z = thisData[ offset ] * matrixData[8] + thisData[offset+1] * matrixData[9] +
+                        thisData[offset+2] * matrixData[10] + thisData[offset+3] * matrixData[11];
+        
+        final float w = thisData[ offset ] * matrixData[12] + thisData[offset+1] * matrixData[13] +
+                        thisData[offset+2] * matrixData[14] + thisData[offset+3] * matrixData[15];
+        
+        dest.set( x , y , z , w );
+        return dest;
+    }
+    
     public float[] getDataArray()
     {
         return data;
@@ -162,6 +225,19 @@ public final class Vector4
         return new Vector4( x()*value , y()*value , z()*value , w() );
     }
     
+    /**
+     * Scale this vector , storing the result in a destination vector.
+     * 
+     * @param value
+     * @param dest destination vector , may be <code>this</code>
+     * @return destination vector
+     */
+    public Vector4 multiply(float value,Vector4 dest) 
+    {
+        dest.set( x()*value , y()*value , z()*value , w() );
+        return dest;
+    }
+    
     public Vector4 normalize() 
     {
         final float len = length();
@@ -171,6 +247,23 @@ public final class Vector4
         return new Vector4( x() / len , y() / len , z() / len  , w() );
     }
     
+    /**
+     * Normalize this vector , storing the result in a destination vector.
+     * 
+     * @param dest destination vector , may be <code>this</code>
+     * @return destination vector
+     */
+    public Vector4 normalize(Vector4 dest) 
+    {
+        final float len = length();
+        if ( len  == 0 ) {
+            dest.set( 0 , 0 , 0 , 1 );
+        } else {
+            dest.set( x() / len , y() / len , z() / len  , w() );
+        }
+        return dest;
+    }
+    
     public void normalizeInPlace() 
     {
         final float len = length();
@@ -190,6 +283,23 @@ public final class Vector4
             return new Vector4( x() / w, y() / w , z() / w , w );
         }
         return this;
+    }
+    
+    /**
+     * Divide X,Y and Z by W , storing the result in a destination vector.
+     * 
+     * @param dest destination vector , may be <code>this</code>
+     * @return destination vector
+     */
+    public Vector4 normalizeW(Vector4 dest) 
+    {
+        final float w = w();
+        if ( w != 1.0 ) {
+            dest.set( x() / w, y() / w , z() / w , w );
+        } else {
+            dest.set( x() , y() , z() , w );
+        }
+        return dest;
     }    
     
     public void normalizeWInPlace() 
@@ -243,6 +353,27 @@ public final class Vector4
         return new Vector4( newX ,newY,newZ );
     }
     
+    /**
+     * Calculate the cross product , storing the result in a destination vector.
+     * 
+     * @param other
+     * @param dest destination vector , may be <code>this</code> or <code>other</code>
+     * @return destination vector
+     */
+    public Vector4 crossProduct(Vector4 other,Vector4 dest) 
+    {
+        final float x1 = x();
+        final float y1 = y();
+        final float z1 = z();
+        
+        final float x2 = other.x();
+        final float y2 = other.y();
+        final float z2 = other.z();
+        
+        dest.set( y1 * z2 - y2 * z1 , z1 * x2 - z2 * x1 , x1 * y2 - x2 * y1 , 1 );
+        return dest;
+    }
+    
     @Override
     public String toString()
     {
@@ -3,8 +3,6 @@ package de.codesourcery.engine.render;
 import static java.lang.Math.abs;
 import static java.lang.Math.sqrt;
 
-import java.util.Iterator;
-
 import de.codesourcery.engine.geom.Quad;
 import de.codesourcery.engine.linalg.BoundingBox;
 import de.codesourcery.engine.linalg.LinAlgUtils;
@@ -13,6 +11,8 @@ import de.codesourcery.engine.linalg.Vector4;
 
 public class BoundingBoxGenerator 
 {
+	private static final boolean DEBUG = false;
+	
 	private static final Vector4 X_AXIS = new Vector4(1,0,0,0);
 	private static final Vector4 Y_AXIS = new Vector4(0,1,0,0);
 	private static final Vector4 Z_AXIS = new Vector4(0,0,1,0);
@@ -34,7 +34,7 @@ public class BoundingBoxGenerator
 
 	public static BoundingBox calculateAxisAlignedBoundingBox(Object3D object) 
 	{
-		final Matrix matrix = new Matrix( object.getModelMatrix() );
+		final Matrix matrix = object.getModelMatrix().toMatrix();
 		matrix.set( 3 , 0 , 0 ); // discard any translation that might be present
 		matrix.set( 3 , 1 , 0 );
 		matrix.set( 3 , 2 , 0 );
@@ -44,7 +44,8 @@ public class BoundingBoxGenerator
 		if ( object.getOrientedBoundingBox() == null ) 
 		{
 			System.err.println("ERROR: Object "+object+" has no oriented BB , using all vertices for AABB calculation");
-			transformed = matrix.multiply( object.getVertices() );
+			final int count = object.getPointCount();
+			transformed = matrix.multiply( object.getXs() , object.getYs() , object.getZs() , object.getWs() , new float[ count * 4 ] , 0 , count );
 		} else {
 			transformed = matrix.multiply( object.getOrientedBoundingBox().getVertices() );
 		}
@@ -99,13 +100,14 @@ public class BoundingBoxGenerator
 		float avgY = 0;
 		float avgZ = 0;
 
-		final float[] vertices = object.getVertices();
-		final int N = (int) (vertices.length / 4);
-		for ( int i = 0 ; i < vertices.length ; ) {
-			avgX += vertices[i++];
-			avgY += vertices[i++];
-			avgZ += vertices[i++];
-			i++; // ignore W
+		final float[] xs = object.getXs();
+		final float[] ys = object.getYs();
+		final float[] zs = object.getZs();
+		final int N = xs.length;
+		for ( int i = 0 ; i < N ; i++ ) {
+			avgX += xs[i];
+			avgY += ys[i];
+			avgZ += zs[i];
 		}
 
 		avgX /= N;
@@ -119,11 +121,11 @@ public class BoundingBoxGenerator
 		float c13 = 0;
 		float c33 = 0;
 		float c23 = 0;
-		for ( int i = 0 ; i < vertices.length ; i+=4 ) 
+		for ( int i = 0 ; i < N ; i++ ) 
 		{
-			final float x = vertices[i];
-			final float y = vertices[i+1];
-			final float z = vertices[i+2];
+			final float x = xs[i];
+			final float y = ys[i];
+			final float z = zs[i];
 
 			c11 += ( x - avgX ) * ( x - avgX );
 			c12 += ( x - avgX ) * ( y - avgY );
@@ -174,17 +176,22 @@ public class BoundingBoxGenerator
 		float minPT = 0;
 		float maxPT = 0;
 
-		for ( Iterator<Vector4> iterator = object.getVertexIterator(); iterator.hasNext() ; ) {
+		final float rx = r.x() , ry = r.y() , rz = r.z();
+		final float sx = s.x() , sy = s.y() , sz = s.z();
+		final float tx = t.x() , ty = t.y() , tz = t.z();
+		for ( int i = 0 ; i < N ; i++ ) {
 
-			final Vector4 v = iterator.next();
+			final float x = xs[i];
+			final float y = ys[i];
+			final float z = zs[i];
 
 			/*
 			 * If b is a unit vector, then the dot product a*b gives |a| * cos(theta), i.e., 
 			 * the magnitude of the projection of a in the direction of b, with a minus sign if the direction is opposite
 			 */
-			float dot1 = v.dotProduct( r );
-			float dot2 = v.dotProduct( s );
-			float dot3 = v.dotProduct( t );
+			final float dot1 = x * rx + y * ry + z * rz;
+			final float dot2 = x * sx + y * sy + z * sz;
+			final float dot3 = x * tx + y * ty + z * tz;
 
 			if ( dot1 < minPR ) {
 				minPR = dot1;
@@ -214,19 +221,22 @@ public class BoundingBoxGenerator
 
 		final Vector4 center = r.multiply( extendR ).plus( s.multiply( extendS ) ).plus( t.multiply( extendT ) );
 
-		System.out.println("Center: "+center);
-
-		System.out.println("R = "+r);
-		System.out.println("S = "+s);
-		System.out.println("T = "+t);
+		if ( DEBUG ) {
+			System.out.println("Center: "+center);
+			System.out.println("R = "+r);
+			System.out.println("S = "+s);
+			System.out.println("T = "+t);
+		}
 
 		final float width = maxPR - minPR;
 		final float height = maxPS - minPS;
 		final float depth = maxPT - minPT;
 
-		System.out.println("Extent R: "+minPR+" , "+maxPR+" (width "+width+")");
-		System.out.println("Extent S: "+minPS+" , "+maxPS+" (height "+height+")");
-		System.out.println("Extent T: "+minPT+" , "+maxPT+" (depth "+depth+")");
+		if ( DEBUG ) {
+			System.out.println("Extent R: "+minPR+" , "+maxPR+" (width "+width+")");
+			System.out.println("Extent S: "+minPS+" , "+maxPS+" (height "+height+")");
+			System.out.println("Extent T: "+minPT+" , "+maxPT+" (depth "+depth+")");
+		}
 
 		return new BoundingBox( center , r , s , t , width , height , depth , false );
 	}
@@ -343,9 +353,11 @@ public class BoundingBoxGenerator
 		lambda[1] = m22;
 		lambda[2] = m33;
 
-		System.out.println("Lambda #1 = "+lambda[0]);
-		System.out.println("Lambda #2 = "+lambda[1]);
-		System.out.println("Lambda #3 = "+lambda[2]);
+		if ( DEBUG ) {
+			System.out.println("Lambda #1 = "+lambda[0]);
+			System.out.println("Lambda #2 = "+lambda[1]);
+			System.out.println("Lambda #3 = "+lambda[2]);
+		}
 		return lambda;
 	}
 }
@@ -0,0 +1,308 @@
+package de.codesourcery.engine.render;
+
+import java.util.List;
+
+import de.codesourcery.engine.linalg.Frustum;
+
+/**
+ * Bounding volume hierarchy over the world-space {@link TransformHierarchy#getSubtreeBounds() subtree bounds} of a fixed set of objects.
+ *
+ * <p>The tree is built once (top-down , splitting at the median of the longest axis) and
+ * {@link #refit() refitted} whenever objects move. Nodes are stored in flat arrays , the two
+ * children of an inner node are stored next to each other and always after their parent. Each node
+ * covers a contiguous range of the (reordered) object array , so subtrees that are completely inside
+ * the view frustum can be accepted without visiting them.</p>
+ *
+ * <p>Only the objects passed to the constructor are part of the hierarchy , their children
+ * are not but are covered by their parent's bounds.</p>
+ *
+ * <p>This class is not thread-safe , like the transform hierarchy it must only be used by the rendering thread of the renderer owning it.</p>
+ */
+public final class BoundingVolumeHierarchy
+{
+	private static final int MAX_OBJECTS_PER_LEAF = 4;
+
+	private final TransformHierarchy transformHierarchy;
+	private final Object3D[] objects;
+	// node id of each object in the transform hierarchy
+	private final int[] nodeIds;
+
+	private int nodeCount;
+	// min x,y,z and max x,y,z of each node
+	private float[] bounds;
+	// index of the left child , -1 for leaf nodes (the right child is stored at left+1)
+	private int[] leftChild;
+	// range of objects covered by each node
+	private int[] firstObject;
+	private int[] objectCount;
+
+	// traversal stack , node index and plane mask
+	private int[] stack = new int[ 64 ];
+
+	/**
+	 * Create a hierarchy.
+	 *
+	 * @param objects objects , all of them must be part of the snapshot the transform hierarchy has been updated with last
+	 * @param nodeIds node id of each object in that snapshot
+	 * @param transformHierarchy
+	 */
+	public BoundingVolumeHierarchy(List<Object3D> objects,int[] nodeIds,TransformHierarchy transformHierarchy)
+	{
+		if ( objects.size() != nodeIds.length ) {
+			throw new IllegalArgumentException("Expected "+objects.size()+" node IDs but got "+nodeIds.length);
+		}
+		this.transformHierarchy = transformHierarchy;
+		this.objects = objects.toArray( new Object3D[ objects.size() ] );
+		this.nodeIds = nodeIds.clone();
+
+		final int maxNodes = Math.max( 1 , 2 * this.objects.length );
+		bounds = new float[ maxNodes * 6 ];
+		leftChild = new int[ maxNodes ];
+		firstObject = new int[ maxNodes ];
+		objectCount = new int[ maxNodes ];
+
+		final float[] objectBounds = transformHierarchy.getSubtreeBounds();
+		final float[] centers = new float[ this.objects.length * 3 ];
+		for ( int i = 0 ; i < this.objects.length ; i++ )
+		{
+			final int offset = nodeIds[i] * 6;
+			for ( int axis = 0 ; axis < 3 ; axis++ ) {
+				centers[ i * 3 + axis ] = center( objectBounds[ offset + axis ] , objectBounds[ offset + 3 + axis ] );
+			}
+		}
+
+		nodeCount = 1;
+		build( 0 , 0 , this.objects.length , centers );
+		refit();
+	}
+
+	private static float center(float min,float max)
+	{
+		final float result = ( min + max ) * 0.5f;
+		return Float.isNaN( result ) || Float.isInfinite( result ) ? 0 : result;
+	}
+
+	public int getObjectCount() {
+		return objects.length;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	private void build(int node,int first,int count,float[] centers)
+	{
+		firstObject[ node ] = first;
+		objectCount[ node ] = count;
+		if ( count <= MAX_OBJECTS_PER_LEAF )
+		{
+			leftChild[ node ] = -1;
+			return;
+		}
+
+		// split along the axis where object centers are spread out the most
+		float minX = Float.POSITIVE_INFINITY , minY = Float.POSITIVE_INFINITY , minZ = Float.POSITIVE_INFINITY;
+		float maxX = Float.NEGATIVE_INFINITY , maxY = Float.NEGATIVE_INFINITY , maxZ = Float.NEGATIVE_INFINITY;
+		for ( int i = first ; i < first + count ; i++ )
+		{
+			minX = Math.min( minX , centers[ i * 3 ] );
+			minY = Math.min( minY , centers[ i * 3 + 1 ] );
+			minZ = Math.min( minZ , centers[ i * 3 + 2 ] );
+			maxX = Math.max( maxX , centers[ i * 3 ] );
+			maxY = Math.max( maxY , centers[ i * 3 + 1 ] );
+			maxZ = Math.max( maxZ , centers[ i * 3 + 2 ] );
+		}
+		final float sizeX = maxX - minX;
+		final float sizeY = maxY - minY;
+		final float sizeZ = maxZ - minZ;
+		final int axis = sizeX >= sizeY && sizeX >= sizeZ ? 0 : ( sizeY >= sizeZ ? 1 : 2 );
+
+		final int half = count / 2;
+		select( first , first + count - 1 , first + half , axis , centers );
+
+		final int left = nodeCount;
+		nodeCount += 2;
+		leftChild[ node ] = left;
+		build( left , first , half , centers );
+		build( left + 1 , first + half , count - half , centers );
+	}
+
+	/**
+	 * Quickselect , partially sorts objects[from..to] so that the object at index <code>n</code>
+	 * has the n-th smallest center along the given axis.
+	 */
+	private void select(int from,int to,int n,int axis,float[] centers)
+	{
+		while ( from < to )
+		{
+			final float pivot = centers[ ( ( from + to ) >>> 1 ) * 3 + axis ];
+			int i = from;
+			int j = to;
+			while ( i <= j )
+			{
+				while ( centers[ i * 3 + axis ] < pivot ) {
+					i++;
+				}
+				while ( centers[ j * 3 + axis ] > pivot ) {
+					j--;
+				}
+				if ( i <= j ) {
+					swap( i++ , j-- , centers );
+				}
+			}
+			if ( n <= j ) {
+				to = j;
+			} else if ( n >= i ) {
+				from = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i,int j,float[] centers)
+	{
+		final Object3D tmp = objects[i];
+		objects[i] = objects[j];
+		objects[j] = tmp;
+		final int tmpId = nodeIds[i];
+		nodeIds[i] = nodeIds[j];
+		nodeIds[j] = tmpId;
+		for ( int axis = 0 ; axis < 3 ; axis++ )
+		{
+			final float c = centers[ i * 3 + axis ];
+			centers[ i * 3 + axis ] = centers[ j * 3 + axis ];
+			centers[ j * 3 + axis ] = c;
+		}
+	}
+
+	/**
+	 * Update node bounds after objects moved.
+	 *
+	 * <p>Must be called after the {@link TransformHierarchy#update(WorldSnapshot) transform hierarchy reported} changed bounds.
+	 * The tree's topology is not changed , so it gradually becomes less efficient if objects
+	 * move far away from their initial position.</p>
+	 */
+	public void refit()
+	{
+		final float[] objectBounds = transformHierarchy.getSubtreeBounds();
+		// children are always stored after their parent
+		for ( int node = nodeCount - 1 ; node >= 0 ; node-- )
+		{
+			final int offset = node * 6;
+			final int left = leftChild[ node ];
+			if ( left == -1 )
+			{
+				bounds[ offset ] = bounds[ offset + 1 ] = bounds[ offset + 2 ] = Float.POSITIVE_INFINITY;
+				bounds[ offset + 3 ] = bounds[ offset + 4 ] = bounds[ offset + 5 ] = Float.NEGATIVE_INFINITY;
+				final int end = firstObject[ node ] + objectCount[ node ];
+				for ( int i = firstObject[ node ] ; i < end ; i++ ) {
+					union( offset , objectBounds , nodeIds[i] * 6 );
+				}
+			}
+			else
+			{
+				System.arraycopy( bounds , left * 6 , bounds , offset , 6 );
+				union( offset , bounds , ( left + 1 ) * 6 );
+			}
+		}
+	}
+
+	private void union(int offset,float[] other,int otherOffset)
+	{
+		for ( int i = 0 ; i < 3 ; i++ ) {
+			bounds[ offset + i ] = Math.min( bounds[ offset + i ] , other[ otherOffset + i ] );
+			bounds[ offset + 3 + i ] = Math.max( bounds[ offset + 3 + i ] , other[ otherOffset + 3 + i ] );
+		}
+	}
+
+	/**
+	 * Find all objects whose bounds intersect the view frustum.
+	 *
+	 * @param frustum
+	 * @param result list visible objects get added to
+	 */
+	public void findVisibleObjects(Frustum frustum,List<Object3D> result)
+	{
+		final int[] visible = new int[ objects.length ];
+		final int count = findVisible( frustum , visible );
+		for ( int i = 0 ; i < count ; i++ ) {
+			result.add( objects[ visible[i] ] );
+		}
+	}
+
+	/**
+	 * Find the node ids of all objects whose bounds intersect the view frustum.
+	 *
+	 * @param frustum
+	 * @param result array to store node ids in , must be able to hold {@link #getObjectCount()} elements
+	 * @return number of visible objects
+	 */
+	public int findVisibleNodes(Frustum frustum,int[] result)
+	{
+		final int count = findVisible( frustum , result );
+		for ( int i = 0 ; i < count ; i++ ) {
+			result[i] = nodeIds[ result[i] ];
+		}
+		return count;
+	}
+
+	/*
+	 * Stores the indices of all visible objects (in the reordered object array) and returns their number.
+	 */
+	private int findVisible(Frustum frustum,int[] result)
+	{
+		int count = 0;
+		if ( objects.length == 0 ) {
+			return count;
+		}
+
+		final float[] objectBounds = transformHierarchy.getSubtreeBounds();
+		int stackPtr = 0;
+		stack[ stackPtr++ ] = 0;
+		stack[ stackPtr++ ] = Frustum.ALL_PLANES;
+		while ( stackPtr > 0 )
+		{
+			final int planeMask = stack[ --stackPtr ];
+			final int node = stack[ --stackPtr ];
+
+			final int intersectedPlanes = frustum.testContains( bounds , node * 6 , planeMask );
+			if ( intersectedPlanes == Frustum.OUTSIDE ) {
+				continue;
+			}
+
+			final int left = leftChild[ node ];
+			if ( left == -1 || intersectedPlanes == 0 )
+			{
+				// leaf or completely inside
+				final int end = firstObject[ node ] + objectCount[ node ];
+				if ( left == -1 && intersectedPlanes != 0 )
+				{
+					for ( int i = firstObject[ node ] ; i < end ; i++ ) {
+						if ( frustum.testContains( objectBounds , nodeIds[i] * 6 , intersectedPlanes ) != Frustum.OUTSIDE ) {
+							result[ count++ ] = i;
+						}
+					}
+				}
+				else
+				{
+					for ( int i = firstObject[ node ] ; i < end ; i++ ) {
+						result[ count++ ] = i;
+					}
+				}
+				continue;
+			}
+
+			if ( stackPtr + 4 > stack.length ) {
+				final int[] tmp = new int[ stack.length * 2 ];
+				System.arraycopy( stack , 0 , tmp , 0 , stackPtr );
+				stack = tmp;
+			}
+			stack[ stackPtr++ ] = left + 1;
+			stack[ stackPtr++ ] = intersectedPlanes;
+			stack[ stackPtr++ ] = left;
+			stack[ stackPtr++ ] = intersectedPlanes;
+		}
+		return count;
+	}
+}
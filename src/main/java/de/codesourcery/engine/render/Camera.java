@@ -1,10 +1,19 @@
 package de.codesourcery.engine.render;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
 import de.codesourcery.engine.linalg.Matrix;
 import de.codesourcery.engine.linalg.Vector4;
 
 public class Camera {
 
+    // versions are unique across all cameras , so replacing a camera also changes the version
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    
+    private long version = VERSIONS.incrementAndGet();
+
     private Vector4 defaultViewOrientation = new Vector4(0,0,-50);
     private Vector4 defaultEyePosition = new Vector4( 0 , 0, 100 );
     
@@ -14,11 +23,47 @@ public class Camera {
     private Vector4 up = new Vector4(0,1,0);
     private Vector4 eyeTarget = defaultEyePosition.plus( viewOrientation );
     
+    private AffineMatrix affineViewMatrix = AffineMatrix.identity();
     private Matrix viewMatrix = Matrix.identity();
     
     public Camera() {
     }
     
+    /**
+     * Copy constructor.
+     * 
+     * @param other
+     */
+    public Camera(Camera other) 
+    {
+        this.defaultViewOrientation = new Vector4( other.defaultViewOrientation );
+        this.defaultEyePosition = new Vector4( other.defaultEyePosition );
+        this.eyePosition = new Vector4( other.eyePosition );
+        this.viewOrientation = new Vector4( other.viewOrientation );
+        this.up = new Vector4( other.up );
+        this.eyeTarget = new Vector4( other.eyeTarget );
+        // view matrices are replaced , never modified
+        this.affineViewMatrix = other.affineViewMatrix;
+        this.viewMatrix = other.viewMatrix;
+        this.version = other.version;
+    }
+    
+    /**
+     * Returns a counter that changes whenever the eye position , view orientation or view matrix change.
+     * 
+     * <p>Versions increase monotonically and are never shared by different cameras , 
+     * except for {@link #Camera(Camera) copies} that have not been modified.</p>
+     * 
+     * @return
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    private void changed() {
+        version = VERSIONS.incrementAndGet();
+    }
+    
     public Vector4 getUpVector() {
     	return up;
     }
@@ -31,11 +76,13 @@ public class Camera {
     }
     
     public void moveUp(float increment) {
-    	eyePosition.y( eyePosition.y() + increment );
+    	eyePosition = new Vector4( eyePosition.x() , eyePosition.y() + increment , eyePosition.z() );
+    	changed();
     }
     
     public void moveDown(float increment) {
-      	eyePosition.y( eyePosition.y() - increment );
+    	eyePosition = new Vector4( eyePosition.x() , eyePosition.y() - increment , eyePosition.z() );
+    	changed();
     }
     
     public void strafeLeft(float increment) 
@@ -45,6 +92,7 @@ public class Camera {
         
     	Vector4 xDirection = xAxis.normalize();
 		eyePosition = eyePosition.minus( xDirection.multiply( increment ) );        
+		changed();
     }
     
     public void strafeRight(float increment) 
@@ -54,15 +102,18 @@ public class Camera {
         
     	Vector4 xDirection = xAxis.normalize();
 		eyePosition = eyePosition.plus( xDirection.multiply( increment ) );       	
+		changed();
     }      
     
     public void moveForward(float increment) 
     {
     	eyePosition = eyePosition.plus( viewOrientation.normalize().multiply( increment ) );
+    	changed();
     }
     
     public void moveBackward(float increment) {
     	eyePosition = eyePosition.minus( viewOrientation.normalize().multiply( increment ) );
+    	changed();
     }    
     
     public Vector4 getEyePosition()
@@ -74,6 +125,7 @@ public class Camera {
     {
     	this.viewOrientation = new Vector4( viewOrientation ).normalize();
     	updateEyeTarget();
+    	changed();
     }
     
     public void setEyePosition(Vector4 eyePosition,Vector4 viewOrientation)
@@ -85,6 +137,7 @@ public class Camera {
         this.eyePosition = new Vector4( eyePosition );
         
         updateEyeTarget();
+        changed();
     }
     
     protected void updateEyeTarget()
@@ -105,33 +158,50 @@ public class Camera {
 		return viewMatrix;
 	}
     
+    /**
+     * Returns the view matrix as an affine transformation.
+     * 
+     * <p>The view matrix is a rotation followed by a translation , so inverting 
+     * it only requires transposing the rotation.</p>
+     * 
+     * @return
+     */
+    public AffineMatrix getAffineViewMatrix() {
+        return affineViewMatrix;
+    }
+    
     public void updateViewMatrix()
     {
     	updateEyeTarget();
     	
-        Matrix result = new Matrix();
-        
         Vector4 zAxis = eyeTarget.minus( eyePosition ).normalize();
         Vector4 xAxis = zAxis.crossProduct( up ).normalize();
         Vector4 yAxis = xAxis.crossProduct( zAxis ).normalize();
 
-        result.set( 0 , 0 , xAxis.x() );
-        result.set( 1 , 0 , xAxis.y() );
-        result.set( 2 , 0 , xAxis.z() );
-
-        result.set( 0 , 1 , yAxis.x() );
-        result.set( 1 , 1 , yAxis.y() );
-        result.set( 2 , 1 , yAxis.z() );
+        final float[] result = new float[12];
         
-        result.set( 0 , 2 , -zAxis.x() );
-        result.set( 1 , 2 , -zAxis.y() );
-        result.set( 2 , 2 , -zAxis.z() );
+        result[0] = xAxis.x();
+        result[1] = yAxis.x();
+        result[2] = -zAxis.x();
         
-        result.set( 3 , 0 , -1 * xAxis.dotProduct( eyePosition ) );
-        result.set( 3 , 1 , -1 * yAxis.dotProduct( eyePosition ) );
-        result.set( 3 , 2 , zAxis.dotProduct( eyePosition ) );
-        result.set( 3 , 3 , 1 );  
-
-        this.viewMatrix =  result;
+        result[3] = xAxis.y();
+        result[4] = yAxis.y();
+        result[5] = -zAxis.y();
+        
+        result[6] = xAxis.z();
+        result[7] = yAxis.z();
+        result[8] = -zAxis.z();
+        
+        result[9] = -1 * xAxis.dotProduct( eyePosition );
+        result[10] = -1 * yAxis.dotProduct( eyePosition );
+        result[11] = zAxis.dotProduct( eyePosition );
+        
+        // keep the version if nothing changed , so the renderer can skip the frame
+        if ( ! Arrays.equals( result , affineViewMatrix.getData() ) ) 
+        {
+            this.affineViewMatrix = new AffineMatrix( result );
+            this.viewMatrix = affineViewMatrix.toMatrix();
+            changed();
+        }
     }       
 }
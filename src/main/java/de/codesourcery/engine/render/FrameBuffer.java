@@ -0,0 +1,87 @@
+package de.codesourcery.engine.render;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Renderer-owned frame buffer.
+ *
+ * <p>Pixels are stored row by row (top row first) as packed ARGB values in a plain
+ * <code>int[]</code> array. The same array backs a {@link BufferedImage} so a finished frame
+ * can be pushed to the screen with a single <code>Graphics#drawImage()</code> call.</p>
+ *
+ * <p>Each frame buffer also carries a depth buffer of the same size that stores the
+ * <b>reciprocal</b> of each pixel's view-space depth (1/w). Larger values are closer to
+ * the viewer, a cleared depth buffer (all zeros) is infinitely far away.</p>
+ */
+public final class FrameBuffer
+{
+	private final int width;
+	private final int height;
+
+	private final BufferedImage image;
+	private final int[] pixels;
+	private final float[] depthBuffer;
+
+	public FrameBuffer(int width,int height)
+	{
+		if ( width < 1 || height < 1 ) {
+			throw new IllegalArgumentException("Invalid frame buffer size: "+width+" x "+height);
+		}
+		this.width = width;
+		this.height = height;
+		this.image = new BufferedImage( width , height , BufferedImage.TYPE_INT_RGB );
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		this.depthBuffer = new float[ width * height ];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean hasSize(int width,int height) {
+		return this.width == width && this.height == height;
+	}
+
+	/**
+	 * Returns the pixel array.
+	 *
+	 * <p>The pixel at (x,y) is stored at index <code>y*width+x</code>.</p>
+	 * @return
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the depth buffer.
+	 *
+	 * <p>The depth (1/w) of pixel (x,y) is stored at index <code>y*width+x</code>.</p>
+	 * @return
+	 */
+	public float[] getDepthBuffer() {
+		return depthBuffer;
+	}
+
+	/**
+	 * Returns an image that is backed by this frame buffer's pixel array.
+	 *
+	 * @return
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	public void clear(int color) {
+		Arrays.fill( pixels , color );
+	}
+
+	public void clearDepth() {
+		Arrays.fill( depthBuffer , 0f );
+	}
+}
@@ -1,17 +1,15 @@
 package de.codesourcery.engine.render;
 
-import static de.codesourcery.engine.linalg.LinAlgUtils.identity;
-
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.lang.ArrayUtils;
-
 import de.codesourcery.engine.geom.IConvexPolygon;
+import de.codesourcery.engine.linalg.AffineMatrix;
 import de.codesourcery.engine.linalg.BoundingBox;
 import de.codesourcery.engine.linalg.Matrix;
 import de.codesourcery.engine.linalg.Vector4;
@@ -20,16 +18,31 @@ public final class Object3D implements Iterable<IConvexPolygon> {
     
     private boolean recalculateModelMatrix = false;
     
-    private Matrix thisModelMatrix = identity();
-    private Matrix cachedModelMatrix = identity();
+    private AffineMatrix thisModelMatrix = AffineMatrix.identity();
+    // world transform calculated on demand , owned by this object and updated in-place
+    private AffineMatrix cachedModelMatrix = AffineMatrix.identity();
+    
+    /* incremented whenever the model matrix changes , see #getTransformVersion() */
+    private long transformVersion;
+    /* incremented whenever primitives , colors or rendering flags change , see #getGeometryVersion() */
+    private long geometryVersion;
     
     public static final String METADATA_IDENTIFIER = "_identifier";
     public static final String METADATA_TRANSLATION_MATRIX = "translation_matrix";
     
-    /* Vertices of all primitives , vector components are stored in x,y,z,w order. */
-    private float[] vertices; //
+    /* Vertices of all primitives , one array per vector component. 
+     * W components are only stored if at least one vertex has W != 1 , 
+     * ws is null otherwise. 
+     */
+    private float[] xs;
+    private float[] ys;
+    private float[] zs;
+    private float[] ws;
+    
+    /* vertices in x,y,z,w order , created on demand by #getVertices() */
+    private volatile float[] interleavedVertices;
     
-    /* Edges - pointers into the vertices array , each element pair
+    /* Edges - pointers into the (interleaved) vertices array , each element pair
      * edge[i]/edge[i+1] describes one edge.
      * 
      * Since all polygons need to have a closed shape, the edge from the 
@@ -38,9 +51,12 @@ public final class Object3D implements Iterable<IConvexPolygon> {
      */
     private int[] edges;
     
-    /* colors of each primitive */
+    /* colors of each primitive , shared between copies and thus never modified in-place */
     private int[] colors;  
     
+    /* model-space normal of each primitive (x,y,z , not normalized) */
+    private float[] faceNormals;
+    
     /* number of vertices each primitive uses  */ 
     private byte[] vertexCounts; 
     
@@ -48,6 +64,9 @@ public final class Object3D implements Iterable<IConvexPolygon> {
     
     private BoundingBox boundingBox;
     
+    /* optional , see #buildClusters(int) */
+    private PrimitiveClusters clusters;
+    
     private final Map<String,Object> metadata = new HashMap<>();
     
     private Object3D parent;
@@ -106,13 +125,19 @@ public final class Object3D implements Iterable<IConvexPolygon> {
         
         result.recalculateModelMatrix = this.recalculateModelMatrix;
         
-        result.thisModelMatrix = new Matrix( this.thisModelMatrix );
-        result.cachedModelMatrix = this.cachedModelMatrix != null ? new Matrix( this.cachedModelMatrix ) : null;
+        result.thisModelMatrix = new AffineMatrix( this.thisModelMatrix );
+        result.cachedModelMatrix = new AffineMatrix( this.cachedModelMatrix );
 
-        result.vertices = vertices;
+        result.xs = xs;
+        result.ys = ys;
+        result.zs = zs;
+        result.ws = ws;
+        result.interleavedVertices = interleavedVertices;
         result.edges = edges;
         
         result.colors = colors;
+        result.faceNormals = faceNormals;
+        result.clusters = clusters;
         
         result.vertexCounts = vertexCounts;
         result.flags = flags;
@@ -131,15 +156,17 @@ public final class Object3D implements Iterable<IConvexPolygon> {
     /**
      * Set foreground color (must be called <b>after</b> {@link #setPrimitives(List)}).
      * 
+     * <p>Only this object changes color , {@link #createCopy(String) copies} keep theirs.</p>
      */
     public void setForegroundColor(Color c) 
     {
     	int value = c.getRGB();
     	if ( this.colors != null ) {
-    		final int len = this.colors.length;
-    		for ( int i = 0 ; i < len ; i++ ) {
-    			colors[i] = value;
-    		}
+    		// copies share the colors array
+    		final int[] newColors = new int[ this.colors.length ];
+    		Arrays.fill( newColors , value );
+    		this.colors = newColors;
+    		geometryVersion++;
     	} else {
     		System.err.println("setColor() invoked on "+this+" without calling setTriangles() first ?");
     	}
@@ -155,6 +182,7 @@ public final class Object3D implements Iterable<IConvexPolygon> {
     
     public void setRenderOutline(boolean isRenderOutline) {
 		this.flags = RenderingFlag.RENDER_OUTLINE.setFlag( isRenderOutline , flags );
+		geometryVersion++;
 	}
     
     public boolean isRenderOutline() {
@@ -163,47 +191,53 @@ public final class Object3D implements Iterable<IConvexPolygon> {
     
     public void setRenderWireframe(boolean isRenderWireframe) {
 		this.flags = RenderingFlag.RENDER_WIREFRAME.setFlag( isRenderWireframe, flags );
+		geometryVersion++;
 	}
     
     public boolean isRenderWireframe() {
 		return RenderingFlag.RENDER_WIREFRAME.isFlagSet( this.flags );
 	}
     
+    /**
+     * Returns all {@link RenderingFlag rendering flags} of this object.
+     * 
+     * @return
+     */
+    byte getRenderingFlags() {
+        return flags;
+    }
+    
     public void setPrimitives(List<? extends IConvexPolygon> primitives) 
+    {
+        setPrimitives( primitives , new VertexWelder() );
+    }
+    
+    /**
+     * Set primitives.
+     * 
+     * @param primitives
+     * @param welder used to merge the primitives' corners into shared vertices
+     */
+    public void setPrimitives(List<? extends IConvexPolygon> primitives,VertexWelder welder) 
     {
         System.out.println("Adding "+primitives.size()+" primitives...");
         int totalVertexCount = 0;
         for ( IConvexPolygon p : primitives ) {
         	totalVertexCount += p.getVertexCount();
         }
-        final float[] tmpVertices = new float[ totalVertexCount * 4 ]; // 3 vertices per triangle with 4 components each
-        final int[] tmpEdges = new int[ totalVertexCount ]; // 3 edges per triangle with 2 vertices each
+        final float[] corners = new float[ totalVertexCount * 4 ]; // 4 components per vertex
         final int[] tmpColors = new int[ primitives.size() ];
         final byte[] tmpVertexCounts = new byte[ primitives.size() ];
         
         int currentVertex = 0;
-        int currentEdge = 0;
-        int duplicateVertices = 0;
         int currentPrimitive = 0;
         
         for ( IConvexPolygon t : primitives ) 
         {
         	for ( Vector4 p : t.getAllPoints() ) 
         	{
-        		// TODO: PERFORMANCE - findVertex() uses a linear / O(n) search 
-        		int vertex1 = findVertex( p , tmpVertices , currentVertex );
-        		if ( vertex1 == -1 ) { // store new vertex
-        			vertex1 = currentVertex;
-        			tmpVertices[ currentVertex++ ] = p.x();
-        			tmpVertices[ currentVertex++ ] = p.y();
-        			tmpVertices[ currentVertex++ ] = p.z();
-        			tmpVertices[ currentVertex++ ] = p.w();
-        		} else {
-        			duplicateVertices++;
-        		}
-            
-        		// store edge
-        		tmpEdges[ currentEdge++ ] = vertex1;
+        		p.copyInto( corners , currentVertex );
+        		currentVertex += 4;
         	}
         	
         	tmpVertexCounts[ currentPrimitive ] = t.getVertexCount();
@@ -211,23 +245,238 @@ public final class Object3D implements Iterable<IConvexPolygon> {
             currentPrimitive++;
         }
         
-        this.vertices = ArrayUtils.subarray( tmpVertices , 0 , currentVertex );
-        this.edges = tmpEdges;
+        final VertexWelder.Result welded = welder.weld( corners );
+        
+        setVertices( welded.getVertices() );
+        this.edges = welded.getEdges();
         this.colors = tmpColors;
         this.vertexCounts = tmpVertexCounts;
+        this.faceNormals = calculateFaceNormals( welded.getVertices() , welded.getEdges() , tmpVertexCounts );
+        this.clusters = null;
         System.out.println("Primitives: "+primitives.size());
-        System.out.println("Vertices: "+totalVertexCount+" (removed duplicates: "+duplicateVertices+")");
+        System.out.println("Vertices: "+totalVertexCount+" (removed duplicates: "+welded.getDuplicateCount()+")");
         
        	this.boundingBox = BoundingBoxGenerator.calculateOrientedBoundingBox( this );
+       	geometryVersion++;
+    }
+    
+    /**
+     * Partition primitives into clusters of up to {@link PrimitiveClusters#DEFAULT_MAX_PRIMITIVES} neighboring primitives.
+     * 
+     * @see #buildClusters(int)
+     */
+    public void buildClusters() 
+    {
+        buildClusters( PrimitiveClusters.DEFAULT_MAX_PRIMITIVES );
+    }
+    
+    /**
+     * Partition primitives into clusters of neighboring primitives , so that the renderer can
+     * cull whole clusters before transforming their vertices.
+     * 
+     * <p>Primitives and vertices are re-ordered so that the primitives of each cluster are stored consecutively.
+     * Needs to be called after {@link #setPrimitives(List)} and before {@link #createCopy(String) copies} are created ,
+     * copies share the clusters.</p>
+     * 
+     * @param maxPrimitivesPerCluster
+     */
+    public void buildClusters(int maxPrimitivesPerCluster) 
+    {
+        final int primitiveCount = vertexCounts.length;
+        final int vertexCount = getPointCount();
+        
+        final int[] order = new int[ primitiveCount ];
+        final int[] firstPrimitives = new int[ primitiveCount + 1 ];
+        final int clusterCount = PrimitiveClusters.partition( edges , vertexCounts , vertexCount , maxPrimitivesPerCluster , order , firstPrimitives );
+        
+        final int[] firstIndices = new int[ primitiveCount ];
+        for ( int primitive = 1 ; primitive < primitiveCount ; primitive++ ) {
+            firstIndices[ primitive ] = firstIndices[ primitive - 1 ] + vertexCounts[ primitive - 1 ];
+        }
+        
+        final int[] newEdges = new int[ edges.length ];
+        final int[] newColors = new int[ primitiveCount ];
+        final byte[] newVertexCounts = new byte[ primitiveCount ];
+        final float[] newFaceNormals = new float[ primitiveCount * 3 ];
+        
+        // re-number vertices in order of first use , so vertices of the same cluster are mostly stored next to each other
+        final int[] newVertexIndices = new int[ vertexCount ];
+        Arrays.fill( newVertexIndices , -1 );
+        final float[] newXs = new float[ vertexCount ];
+        final float[] newYs = new float[ vertexCount ];
+        final float[] newZs = new float[ vertexCount ];
+        final float[] newWs = ws != null ? new float[ vertexCount ] : null;
+        
+        int newVertexCount = 0;
+        int index = 0;
+        for ( int i = 0 ; i < primitiveCount ; i++ ) 
+        {
+            final int primitive = order[i];
+            newColors[i] = colors[ primitive ];
+            newVertexCounts[i] = vertexCounts[ primitive ];
+            System.arraycopy( faceNormals , primitive * 3 , newFaceNormals , i * 3 , 3 );
+            
+            for ( int j = 0 ; j < vertexCounts[ primitive ] ; j++ ) 
+            {
+                final int vertex = edges[ firstIndices[ primitive ] + j ] / 4;
+                if ( newVertexIndices[ vertex ] == -1 ) 
+                {
+                    newXs[ newVertexCount ] = xs[ vertex ];
+                    newYs[ newVertexCount ] = ys[ vertex ];
+                    newZs[ newVertexCount ] = zs[ vertex ];
+                    if ( newWs != null ) {
+                        newWs[ newVertexCount ] = ws[ vertex ];
+                    }
+                    newVertexIndices[ vertex ] = newVertexCount++;
+                }
+                newEdges[ index++ ] = newVertexIndices[ vertex ] * 4;
+            }
+        }
+        
+        // unused vertices are dropped
+        this.xs = Arrays.copyOf( newXs , newVertexCount );
+        this.ys = Arrays.copyOf( newYs , newVertexCount );
+        this.zs = Arrays.copyOf( newZs , newVertexCount );
+        this.ws = newWs != null ? Arrays.copyOf( newWs , newVertexCount ) : null;
+        this.interleavedVertices = null;
+        
+        this.edges = newEdges;
+        this.colors = newColors;
+        this.vertexCounts = newVertexCounts;
+        this.faceNormals = newFaceNormals;
+        
+        this.clusters = new PrimitiveClusters( this , firstPrimitives , clusterCount );
+        geometryVersion++;
+    }
+    
+    /**
+     * Returns this object's clusters.
+     * 
+     * @return clusters or <code>null</code> if {@link #buildClusters(int)} has not been called
+     */
+    public PrimitiveClusters getClusters() {
+        return clusters;
+    }
+    
+    /*
+     * For this to work, the vertices p1,p2,p3 need to be in COUNTER clock-wise orientation, 
+     * otherwise the normal vector will point inside the object.
+     */
+    private static float[] calculateFaceNormals(float[] vertices,int[] edges,byte[] vertexCounts) 
+    {
+        final float[] result = new float[ vertexCounts.length * 3 ];
+        int firstIndex = 0;
+        for ( int primitive = 0 , offset = 0 ; primitive < vertexCounts.length ; firstIndex += vertexCounts[ primitive++ ] , offset += 3 ) 
+        {
+            final int p1 = edges[ firstIndex ];
+            final int p2 = edges[ firstIndex + 1 ];
+            final int p3 = edges[ firstIndex + 2 ];
+            
+            final float vec1X = vertices[ p2 ] - vertices[ p1 ];
+            final float vec1Y = vertices[ p2 + 1 ] - vertices[ p1 + 1 ];
+            final float vec1Z = vertices[ p2 + 2 ] - vertices[ p1 + 2 ];
+            
+            final float vec2X = vertices[ p3 ] - vertices[ p1 ];
+            final float vec2Y = vertices[ p3 + 1 ] - vertices[ p1 + 1 ];
+            final float vec2Z = vertices[ p3 + 2 ] - vertices[ p1 + 2 ];
+            
+            result[ offset ] = vec1Y * vec2Z - vec2Y * vec1Z;
+            result[ offset + 1 ] = vec1Z * vec2X - vec2Z * vec1X;
+            result[ offset + 2 ] = vec1X * vec2Y - vec2X * vec1Y;
+        }
+        return result;
+    }
+    
+    private void setVertices(float[] vertices) 
+    {
+        final int count = vertices.length / 4;
+        final float[] newXs = new float[ count ];
+        final float[] newYs = new float[ count ];
+        final float[] newZs = new float[ count ];
+        final float[] newWs = new float[ count ];
+        
+        boolean needsW = false;
+        for ( int i = 0 , offset = 0 ; i < count ; i++ , offset += 4 ) 
+        {
+            newXs[i] = vertices[ offset ];
+            newYs[i] = vertices[ offset + 1 ];
+            newZs[i] = vertices[ offset + 2 ];
+            newWs[i] = vertices[ offset + 3 ];
+            needsW |= newWs[i] != 1.0f;
+        }
+        this.xs = newXs;
+        this.ys = newYs;
+        this.zs = newZs;
+        this.ws = needsW ? newWs : null;
+        this.interleavedVertices = null;
     }
     
     public int getPointCount() {
-        return vertices != null ? vertices.length / 4 : 0;
+        return xs != null ? xs.length : 0;
     }
 
+    /**
+     * Returns the X components of all vertices.
+     * 
+     * @return
+     */
+    public float[] getXs() {
+        return xs;
+    }
+    
+    /**
+     * Returns the Y components of all vertices.
+     * 
+     * @return
+     */
+    public float[] getYs() {
+        return ys;
+    }
+    
+    /**
+     * Returns the Z components of all vertices.
+     * 
+     * @return
+     */
+    public float[] getZs() {
+        return zs;
+    }
+    
+    /**
+     * Returns the W components of all vertices.
+     * 
+     * @return W components or <code>null</code> if W is 1 for all vertices
+     */
+    public float[] getWs() {
+        return ws;
+    }
+    
+    /**
+     * Returns all vertices in x,y,z,w order.
+     * 
+     * <p>Vertices are stored as separate component arrays (see {@link #getXs()}) , 
+     * the interleaved array is created on first use and must not be modified.
+     * Prefer the component arrays in performance-critical code.</p>
+     *  
+     * @return
+     */
     public float[] getVertices()
     {
-        return vertices;
+        float[] result = interleavedVertices;
+        if ( result == null && xs != null ) 
+        {
+            final int count = xs.length;
+            result = new float[ count * 4 ];
+            for ( int i = 0 , offset = 0 ; i < count ; i++ , offset += 4 ) 
+            {
+                result[ offset ] = xs[i];
+                result[ offset + 1 ] = ys[i];
+                result[ offset + 2 ] = zs[i];
+                result[ offset + 3 ] = ws != null ? ws[i] : 1.0f;
+            }
+            interleavedVertices = result;
+        }
+        return result;
     }
     
     public Iterator<Vector4> getVertexIterator() {
@@ -246,77 +495,207 @@ public final class Object3D implements Iterable<IConvexPolygon> {
 			@Override
 			public Vector4 next() 
 			{
-				result.setData( vertices , currentIndex );
-				currentIndex+=4;
+				setVertex( result , currentIndex );
+				currentIndex++;
 				return result;
 			}
 			
 			@Override
 			public boolean hasNext() {
-				return currentIndex < vertices.length;
+				return currentIndex < xs.length;
 			}
 		};
     }
     
+    private void setVertex(Vector4 v,int index) {
+        v.set( xs[index] , ys[index] , zs[index] , ws != null ? ws[index] : 1.0f );
+    }
+    
     public int[] getEdges()
     {
         return edges;
     }
     
-    private int findVertex(Vector4 p,float[] array,int maxIndex) 
+    /**
+     * Returns the number of vertices of each primitive.
+     * 
+     * @return
+     */
+    public byte[] getVertexCounts() 
     {
-        final float x = p.x();
-        final float y = p.y();
-        final float z = p.z();
-        final float w = p.w();
-        
-        for ( int i = 0 ; i < maxIndex ; i +=4 ) 
-        {
-            if ( array[i] == x &&
-                 array[i+1] == y &&
-                 array[i+2] == z &&
-                 array[i+3] == w ) 
-            {
-                return i;
-            }
-        }
-        return -1;
+        return vertexCounts;
+    }
+    
+    /**
+     * Returns the model-space surface normal of each primitive.
+     * 
+     * <p>Normals are stored in x,y,z order (3 floats per primitive) and are not normalized.</p>
+     * 
+     * @return
+     */
+    public float[] getFaceNormals() 
+    {
+        return faceNormals;
+    }
+    
+    /**
+     * Returns the color of each primitive.
+     * 
+     * <p>The returned array may be shared with copies of this object and must not be modified.</p>
+     * 
+     * @return
+     */
+    public int[] getColors() 
+    {
+        return colors;
+    }
+    
+    /**
+     * Sets the model matrix.
+     * 
+     * @param m model matrix , must be an {@link Matrix#isAffine() affine transformation}
+     * @see #setModelMatrix(AffineMatrix)
+     */
+    public void setModelMatrix(Matrix m) {
+        setModelMatrix( new AffineMatrix( m ) );
     }
     
-    public void setModelMatrix(Matrix m) 
+    /**
+     * Sets the model matrix.
+     * 
+     * <p>If this object is part of a {@link World} , the renderer only sees the new model matrix 
+     * after the world has been {@link World#publish() published}. The matrix must not be modified 
+     * afterwards , the renderer only picks up changes when a new model matrix is set.</p>
+     * 
+     * @param m
+     */
+    public void setModelMatrix(AffineMatrix m) 
     {
         this.thisModelMatrix = m;
-        this.cachedModelMatrix = m;
-        
-        if ( hasParent() ) 
-        {
-        	this.cachedModelMatrix = m.multiply( getParent().getModelMatrix() );
-        }
-        
+        transformVersion++;
+        markModelMatrixForRecalculation();
+    }      
+    
+    /**
+     * Returns a counter that is incremented whenever the model matrix of this object is set.
+     * 
+     * <p>Changes to the model matrices of ancestors are not reflected.</p>
+     * 
+     * @return
+     */
+    public long getTransformVersion() {
+        return transformVersion;
+    }
+    
+    /**
+     * Returns a counter that is incremented whenever primitives , colors or rendering flags 
+     * of this object change.
+     * 
+     * @return
+     */
+    public long getGeometryVersion() {
+        return geometryVersion;
+    }
+    
+    public void markModelMatrixForRecalculation() 
+    {
+        recalculateModelMatrix = true;
+        // descendants move along
         for ( Object3D child : children ) {
         	child.markModelMatrixForRecalculation();
         }
-    }      
+    }
     
-    public void markModelMatrixForRecalculation() {
-        recalculateModelMatrix = true;
+    /**
+     * Returns the model matrix relative to the parent object.
+     * 
+     * @return
+     * @see #getModelMatrix()
+     */
+    AffineMatrix getLocalModelMatrix() {
+        return thisModelMatrix;
+    }
+    
+    /**
+     * Calculates the world-space axis-aligned bounds of this object.
+     * 
+     * <p>Bounds are derived from the oriented bounding box , objects without one are
+     * considered to be infinitely large.</p>
+     * 
+     * @param matrix world transform , using the layout of {@link AffineMatrix#getData()}
+     * @param matrixOffset offset of the world transform in the <code>matrix</code> array
+     * @param result array to store min x,y,z followed by max x,y,z in
+     * @param resultOffset offset of min x in the <code>result</code> array
+     * @see TransformHierarchy#getWorldTransforms()
+     */
+    void calculateWorldBounds(float[] matrix,int matrixOffset,float[] result,int resultOffset) 
+    {
+        if ( boundingBox == null ) 
+        {
+            result[ resultOffset ] = result[ resultOffset + 1 ] = result[ resultOffset + 2 ] = Float.NEGATIVE_INFINITY;
+            result[ resultOffset + 3 ] = result[ resultOffset + 4 ] = result[ resultOffset + 5 ] = Float.POSITIVE_INFINITY;
+            return;
+        }
+        
+        final float[] m = matrix;
+        final int o = matrixOffset;
+        final float[] points = boundingBox.getVertices();
+        
+        float minX = Float.POSITIVE_INFINITY , minY = Float.POSITIVE_INFINITY , minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY , maxY = Float.NEGATIVE_INFINITY , maxZ = Float.NEGATIVE_INFINITY;
+        for ( int i = 0 ; i < points.length ; i += 4 ) 
+        {
+            final float px = points[i];
+            final float py = points[i+1];
+            final float pz = points[i+2];
+            
+            // bounding box corners are points (w=1)
+            final float x = m[o] * px + m[o+3] * py + m[o+6] * pz + m[o+9];
+            final float y = m[o+1] * px + m[o+4] * py + m[o+7] * pz + m[o+10];
+            final float z = m[o+2] * px + m[o+5] * py + m[o+8] * pz + m[o+11];
+            
+            minX = Math.min( minX , x );
+            minY = Math.min( minY , y );
+            minZ = Math.min( minZ , z );
+            maxX = Math.max( maxX , x );
+            maxY = Math.max( maxY , y );
+            maxZ = Math.max( maxZ , z );
+        }
+        result[ resultOffset ] = minX;
+        result[ resultOffset + 1 ] = minY;
+        result[ resultOffset + 2 ] = minZ;
+        result[ resultOffset + 3 ] = maxX;
+        result[ resultOffset + 4 ] = maxY;
+        result[ resultOffset + 5 ] = maxZ;
     }
     
     public boolean hasParent() {
     	return parent != null;
     }
     
-    public Matrix getModelMatrix() 
+    /**
+     * Returns the world transform of this object , its model matrix combined with the model matrices of all its ancestors.
+     * 
+     * <p>Always reflects the model matrices set last. The world transform is calculated on demand and 
+     * the returned matrix is updated in-place. Objects that are part of a double-buffered {@link World} 
+     * must only call this from the thread that modifies the world , renderers use the world transforms
+     * of the snapshot they render (see {@link TransformHierarchy}).</p>
+     * 
+     * @return
+     */
+    public AffineMatrix getModelMatrix() 
     {
-        if ( recalculateModelMatrix || this.cachedModelMatrix == null ) 
+        if ( recalculateModelMatrix ) 
         {
-            if ( thisModelMatrix == null && ! hasParent( ) ) {
-                throw new IllegalStateException("Object "+getIdentifier()+" has no model matrix set and no parent ?");
+            if ( thisModelMatrix == null ) {
+                throw new IllegalStateException("Object "+getIdentifier()+" has no model matrix set ?");
             }
-            this.cachedModelMatrix = thisModelMatrix;
             if ( hasParent() ) {
-                this.cachedModelMatrix = this.cachedModelMatrix.multiply( getParent().getModelMatrix() );
+                thisModelMatrix.multiply( getParent().getModelMatrix() , cachedModelMatrix );
+            } else {
+                System.arraycopy( thisModelMatrix.getData() , 0 , cachedModelMatrix.getData() , 0 , 12 );
             }
+            recalculateModelMatrix = false;
         }
         return this.cachedModelMatrix;
     }
@@ -359,16 +738,16 @@ public final class Object3D implements Iterable<IConvexPolygon> {
         	switch( vertexCount ) {
         		case 3:
         			points = threePoints;
-                    points[0].setData( vertices , edges[ firstVerticeIndex ] );
-                    points[1].setData( vertices , edges[ firstVerticeIndex + 1 ]);
-                    points[2].setData( vertices , edges[ firstVerticeIndex + 2 ] );
+                    setVertex( points[0] , edges[ firstVerticeIndex ] / 4 );
+                    setVertex( points[1] , edges[ firstVerticeIndex + 1 ] / 4 );
+                    setVertex( points[2] , edges[ firstVerticeIndex + 2 ] / 4 );
                     break;
         		case 4:
         			points = fourPoints;
-                    points[0].setData( vertices , edges[ firstVerticeIndex ] );
-                    points[1].setData( vertices , edges[ firstVerticeIndex + 1 ]);
-                    points[2].setData( vertices , edges[ firstVerticeIndex + 2 ] );
-                    points[3].setData( vertices , edges[ firstVerticeIndex + 3 ] );
+                    setVertex( points[0] , edges[ firstVerticeIndex ] / 4 );
+                    setVertex( points[1] , edges[ firstVerticeIndex + 1 ] / 4 );
+                    setVertex( points[2] , edges[ firstVerticeIndex + 2 ] / 4 );
+                    setVertex( points[3] , edges[ firstVerticeIndex + 3 ] / 4 );
                     break;
         		default:
         			throw new IllegalArgumentException("Unsupported vertex count "+vertexCount);
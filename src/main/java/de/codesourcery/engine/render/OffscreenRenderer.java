@@ -0,0 +1,147 @@
+package de.codesourcery.engine.render;
+
+import java.awt.image.BufferedImage;
+
+import de.codesourcery.engine.linalg.Vector4;
+import de.codesourcery.engine.render.SoftwareRenderer.DepthMode;
+
+/**
+ * Renders worlds into memory , without a display or Swing component.
+ *
+ * <p>The frame buffer and all per-frame data are kept between frames , so rendering
+ * many frames of the same size back-to-back does not allocate new buffers.</p>
+ *
+ * <p>The world's projection is used as-is , callers should {@link World#setupPerspectiveProjection(float, float, float, float) set it up}
+ * with an aspect ratio matching the output size.</p>
+ *
+ * <p>This class is not thread-safe , use one instance per thread. All per-frame state is owned by the instance , so
+ * several instances may render the same world at the same time.</p>
+ */
+public final class OffscreenRenderer implements AutoCloseable
+{
+	private final SoftwareRenderer renderer = new SoftwareRenderer();
+
+	public OffscreenRenderer(int width,int height)
+	{
+		setSize( width , height );
+	}
+
+	public void setSize(int width,int height)
+	{
+		if ( width < 1 || height < 1 ) {
+			throw new IllegalArgumentException("Invalid size: "+width+" x "+height);
+		}
+		renderer.setWidth( width );
+		renderer.setHeight( height );
+	}
+
+	public int getWidth() {
+		return renderer.getWidth();
+	}
+
+	public int getHeight() {
+		return renderer.getHeight();
+	}
+
+	public void setAmbientLightFactor(float ambientLightFactor) {
+		renderer.setAmbientLightFactor( ambientLightFactor );
+	}
+
+	public void setLightPosition(Vector4 lightPosition) {
+		renderer.setLightPosition( lightPosition );
+	}
+
+	public void setDepthMode(DepthMode depthMode) {
+		renderer.setDepthMode( depthMode );
+	}
+
+	public void setCpuCount(int cpuCount) {
+		renderer.setCpuCount( cpuCount );
+	}
+
+	/**
+	 * @param skipUnchangedFrames
+	 * @see SoftwareRenderer#setSkipUnchangedFrames(boolean)
+	 */
+	public void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+		renderer.setSkipUnchangedFrames( skipUnchangedFrames );
+	}
+
+	/**
+	 * Render a world.
+	 *
+	 * <p>Neither the objects nor the camera of the world are modified , its own camera is ignored. Double-buffered worlds are rendered
+	 * from the snapshot published last , so they may be rendered while another thread updates them. Other worlds are
+	 * {@link World#publish() published} first and must not be modified while they are rendered.</p>
+	 *
+	 * @param world
+	 * @param camera camera to render from , its view matrix must be {@link Camera#updateViewMatrix() up-to-date}
+	 * @return frame buffer holding the rendered frame , only valid until the next frame is rendered
+	 */
+	public FrameBuffer render(World world,Camera camera)
+	{
+		renderer.setWorld( world );
+		try
+		{
+			return renderer.render( camera );
+		}
+		finally
+		{
+			renderer.setWorld( null );
+		}
+	}
+
+	/**
+	 * Render a world into an array of packed RGB pixels.
+	 *
+	 * @param world
+	 * @param camera
+	 * @param pixels array to store pixels in , row by row (top row first) , must hold at least <code>width*height</code> elements
+	 * @see #render(World, Camera)
+	 */
+	public void render(World world,Camera camera,int[] pixels)
+	{
+		final int size = getWidth() * getHeight();
+		if ( pixels.length < size ) {
+			throw new IllegalArgumentException("Pixel array too small , need "+size+" elements but got "+pixels.length);
+		}
+		final FrameBuffer frameBuffer = render( world , camera );
+		System.arraycopy( frameBuffer.getPixels() , 0 , pixels , 0 , size );
+	}
+
+	/**
+	 * Render a world into an image.
+	 *
+	 * @param world
+	 * @param camera
+	 * @param image image to render into , must have the same size as this renderer
+	 * @see #render(World, Camera)
+	 */
+	public void render(World world,Camera camera,BufferedImage image)
+	{
+		if ( image.getWidth() != getWidth() || image.getHeight() != getHeight() ) {
+			throw new IllegalArgumentException("Image size "+image.getWidth()+" x "+image.getHeight()+" does not match renderer size "+getWidth()+" x "+getHeight());
+		}
+
+		final FrameBuffer frameBuffer = render( world , camera );
+		switch( image.getType() )
+		{
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				// same pixel layout , copy the whole array at once
+				image.getRaster().setDataElements( 0 , 0 , getWidth() , getHeight() , frameBuffer.getPixels() );
+				break;
+			default:
+				image.setRGB( 0 , 0 , getWidth() , getHeight() , frameBuffer.getPixels() , 0 , getWidth() );
+		}
+	}
+
+	/**
+	 * Stops the renderer's calculation threads.
+	 */
+	@Override
+	public void close()
+	{
+		renderer.dispose();
+	}
+}
@@ -0,0 +1,356 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
+import de.codesourcery.engine.linalg.Frustum;
+import de.codesourcery.engine.linalg.Vector4;
+
+/**
+ * An object's primitives , partitioned into clusters of neighboring primitives so that
+ * whole clusters can be culled before any of their vertices are transformed.
+ *
+ * <p>Each cluster has a bounding sphere for frustum culling and a normal cone (the average direction of
+ * its primitives' normals and the largest angle between any of them and the average) for backface culling.
+ * A cluster is culled if all of its primitives face away from the viewer.</p>
+ *
+ * <p>Cluster data is in model space and shared between {@link Object3D#createCopy(String) copies} of an object ,
+ * see {@link Object3D#buildClusters(int)}.</p>
+ */
+public final class PrimitiveClusters
+{
+	/**
+	 * Default maximum number of primitives per cluster.
+	 */
+	public static final int DEFAULT_MAX_PRIMITIVES = 128;
+
+	// widens normal cones a little so rounding errors never cause visible primitives to be culled
+	private static final float CONE_EPSILON = 1e-3f;
+
+	private final int clusterCount;
+
+	// index of each cluster's first primitive , followed by the total primitive count
+	private final int[] firstPrimitives;
+
+	// offset of each cluster's first vertex within the edges array , followed by the length of the edges array
+	private final int[] firstIndices;
+
+	// indices of the vertices used by each cluster , cluster N uses vertices[ vertexOffsets[N] ] to vertices[ vertexOffsets[N+1]-1 ]
+	private final int[] vertexOffsets;
+	private final int[] vertices;
+
+	// center x,y,z and radius of each cluster's bounding sphere
+	private final float[] spheres;
+
+	// unit-length cone axis x,y,z and the sine of the cone's half angle for each cluster ,
+	// the sine is infinite if the cone is too wide for backface culling
+	private final float[] cones;
+
+	/**
+	 * Calculate cluster bounds.
+	 *
+	 * @param object object whose primitives are already ordered by cluster
+	 * @param firstPrimitives index of each cluster's first primitive , followed by the total primitive count
+	 * @param clusterCount
+	 */
+	PrimitiveClusters(Object3D object,int[] firstPrimitives,int clusterCount)
+	{
+		final float[] xs = object.getXs();
+		final float[] ys = object.getYs();
+		final float[] zs = object.getZs();
+		final int[] edges = object.getEdges();
+		final byte[] vertexCounts = object.getVertexCounts();
+		final float[] normals = object.getFaceNormals();
+
+		this.clusterCount = clusterCount;
+		this.firstPrimitives = Arrays.copyOf( firstPrimitives , clusterCount + 1 );
+		this.firstIndices = new int[ clusterCount + 1 ];
+		this.vertexOffsets = new int[ clusterCount + 1 ];
+		this.spheres = new float[ clusterCount * 4 ];
+		this.cones = new float[ clusterCount * 4 ];
+
+		final int[] tmpVertices = new int[ edges.length ];
+		final int[] lastCluster = new int[ xs.length ];
+		Arrays.fill( lastCluster , -1 );
+
+		int vertexCount = 0;
+		int index = 0;
+		for ( int cluster = 0 ; cluster < clusterCount ; cluster++ )
+		{
+			firstIndices[ cluster ] = index;
+			vertexOffsets[ cluster ] = vertexCount;
+
+			final int firstPrimitive = firstPrimitives[ cluster ];
+			final int endPrimitive = firstPrimitives[ cluster + 1 ];
+
+			// collect vertices
+			float minX = Float.POSITIVE_INFINITY , minY = Float.POSITIVE_INFINITY , minZ = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY , maxY = Float.NEGATIVE_INFINITY , maxZ = Float.NEGATIVE_INFINITY;
+			for ( int primitive = firstPrimitive ; primitive < endPrimitive ; primitive++ )
+			{
+				for ( int i = 0 ; i < vertexCounts[ primitive ] ; i++ )
+				{
+					final int vertex = edges[ index++ ] >> 2;
+					if ( lastCluster[ vertex ] != cluster )
+					{
+						lastCluster[ vertex ] = cluster;
+						tmpVertices[ vertexCount++ ] = vertex;
+						minX = Math.min( minX , xs[ vertex ] );
+						minY = Math.min( minY , ys[ vertex ] );
+						minZ = Math.min( minZ , zs[ vertex ] );
+						maxX = Math.max( maxX , xs[ vertex ] );
+						maxY = Math.max( maxY , ys[ vertex ] );
+						maxZ = Math.max( maxZ , zs[ vertex ] );
+					}
+				}
+			}
+
+			// bounding sphere
+			final float centerX = ( minX + maxX ) / 2;
+			final float centerY = ( minY + maxY ) / 2;
+			final float centerZ = ( minZ + maxZ ) / 2;
+			double maxDistance = 0;
+			for ( int i = vertexOffsets[ cluster ] ; i < vertexCount ; i++ )
+			{
+				final int vertex = tmpVertices[ i ];
+				final double dx = xs[ vertex ] - centerX;
+				final double dy = ys[ vertex ] - centerY;
+				final double dz = zs[ vertex ] - centerZ;
+				maxDistance = Math.max( maxDistance , dx*dx + dy*dy + dz*dz );
+			}
+			final int sphere = cluster * 4;
+			spheres[ sphere ] = centerX;
+			spheres[ sphere + 1 ] = centerY;
+			spheres[ sphere + 2 ] = centerZ;
+			spheres[ sphere + 3 ] = Math.nextUp( (float) Math.sqrt( maxDistance ) );
+
+			calculateNormalCone( normals , firstPrimitive , endPrimitive , cones , cluster * 4 );
+		}
+		firstIndices[ clusterCount ] = index;
+		vertexOffsets[ clusterCount ] = vertexCount;
+		this.vertices = Arrays.copyOf( tmpVertices , vertexCount );
+	}
+
+	private static void calculateNormalCone(float[] normals,int firstPrimitive,int endPrimitive,float[] cones,int cone)
+	{
+		// average direction
+		float axisX = 0 , axisY = 0 , axisZ = 0;
+		for ( int offset = firstPrimitive * 3 , end = endPrimitive * 3 ; offset < end ; offset += 3 )
+		{
+			final float length = length( normals , offset );
+			if ( length == 0 )
+			{
+				// degenerate primitive , never culled by backface culling
+				cones[ cone + 3 ] = Float.POSITIVE_INFINITY;
+				return;
+			}
+			axisX += normals[ offset ] / length;
+			axisY += normals[ offset + 1 ] / length;
+			axisZ += normals[ offset + 2 ] / length;
+		}
+
+		final float axisLength = (float) Math.sqrt( axisX*axisX + axisY*axisY + axisZ*axisZ );
+		if ( axisLength == 0 ) {
+			cones[ cone + 3 ] = Float.POSITIVE_INFINITY;
+			return;
+		}
+		axisX /= axisLength;
+		axisY /= axisLength;
+		axisZ /= axisLength;
+
+		// cosine of the largest angle between any normal and the axis
+		float minDot = 1;
+		for ( int offset = firstPrimitive * 3 , end = endPrimitive * 3 ; offset < end ; offset += 3 )
+		{
+			final float dot = ( normals[ offset ] * axisX + normals[ offset + 1 ] * axisY + normals[ offset + 2 ] * axisZ ) / length( normals , offset );
+			minDot = Math.min( minDot , dot );
+		}
+
+		cones[ cone ] = axisX;
+		cones[ cone + 1 ] = axisY;
+		cones[ cone + 2 ] = axisZ;
+		if ( minDot <= CONE_EPSILON ) {
+			// cone spans 90 degrees or more
+			cones[ cone + 3 ] = Float.POSITIVE_INFINITY;
+		} else {
+			cones[ cone + 3 ] = (float) Math.sqrt( 1 - minDot * minDot ) + CONE_EPSILON;
+		}
+	}
+
+	private static float length(float[] v,int offset) {
+		return (float) Math.sqrt( v[ offset ] * v[ offset ] + v[ offset + 1 ] * v[ offset + 1 ] + v[ offset + 2 ] * v[ offset + 2 ] );
+	}
+
+	/**
+	 * Partition primitives into clusters of neighboring primitives.
+	 *
+	 * <p>Clusters are grown breadth-first from a seed primitive , adding primitives that share a vertex with
+	 * primitives already in the cluster until the cluster is full or no neighbors are left.</p>
+	 *
+	 * @param edges
+	 * @param vertexCounts
+	 * @param vertexCount
+	 * @param maxPrimitives maximum number of primitives per cluster
+	 * @param order array to store primitive indices in , ordered by cluster
+	 * @param firstPrimitives array to store the index (into <code>order</code>) of each cluster's first primitive in ,
+	 * followed by the total primitive count. Must have room for one element more than there are primitives.
+	 * @return number of clusters
+	 */
+	static int partition(int[] edges,byte[] vertexCounts,int vertexCount,int maxPrimitives,int[] order,int[] firstPrimitives)
+	{
+		if ( maxPrimitives < 1 ) {
+			throw new IllegalArgumentException("Max. primitives per cluster must be >= 1");
+		}
+
+		final int primitiveCount = vertexCounts.length;
+		final int[] firstIndices = new int[ primitiveCount + 1 ];
+		for ( int primitive = 0 ; primitive < primitiveCount ; primitive++ ) {
+			firstIndices[ primitive + 1 ] = firstIndices[ primitive ] + vertexCounts[ primitive ];
+		}
+
+		// primitives using each vertex
+		final int[] userOffsets = new int[ vertexCount + 1 ];
+		for ( int i = 0 ; i < edges.length ; i++ ) {
+			userOffsets[ ( edges[i] >> 2 ) + 1 ]++;
+		}
+		for ( int vertex = 0 ; vertex < vertexCount ; vertex++ ) {
+			userOffsets[ vertex + 1 ] += userOffsets[ vertex ];
+		}
+		final int[] users = new int[ edges.length ];
+		final int[] nextUser = Arrays.copyOf( userOffsets , vertexCount );
+		for ( int primitive = 0 ; primitive < primitiveCount ; primitive++ )
+		{
+			for ( int i = firstIndices[ primitive ] ; i < firstIndices[ primitive + 1 ] ; i++ ) {
+				users[ nextUser[ edges[i] >> 2 ]++ ] = primitive;
+			}
+		}
+
+		final boolean[] assigned = new boolean[ primitiveCount ];
+		int clusterCount = 0;
+		int end = 0;
+		for ( int seed = 0 ; seed < primitiveCount ; seed++ )
+		{
+			if ( assigned[ seed ] ) {
+				continue;
+			}
+			final int start = end;
+			firstPrimitives[ clusterCount++ ] = start;
+			assigned[ seed ] = true;
+			order[ end++ ] = seed;
+
+			// order[] doubles as the queue of primitives whose neighbors still need to be visited
+			for ( int head = start ; head < end && end - start < maxPrimitives ; head++ )
+			{
+				final int primitive = order[ head ];
+				for ( int i = firstIndices[ primitive ] ; i < firstIndices[ primitive + 1 ] && end - start < maxPrimitives ; i++ )
+				{
+					final int vertex = edges[i] >> 2;
+					for ( int j = userOffsets[ vertex ] ; j < userOffsets[ vertex + 1 ] && end - start < maxPrimitives ; j++ )
+					{
+						final int neighbor = users[ j ];
+						if ( ! assigned[ neighbor ] )
+						{
+							assigned[ neighbor ] = true;
+							order[ end++ ] = neighbor;
+						}
+					}
+				}
+			}
+		}
+		firstPrimitives[ clusterCount ] = primitiveCount;
+		return clusterCount;
+	}
+
+	public int getClusterCount() {
+		return clusterCount;
+	}
+
+	/**
+	 * Determine which clusters are visible.
+	 *
+	 * <p>The primitive ranges of all visible clusters and the vertices they use are stored
+	 * in <code>target</code> , see {@link TransformedVertices#getPrimitiveRanges()}.</p>
+	 *
+	 * @param modelMatrix
+	 * @param frustum
+	 * @param planeMask frustum planes clusters need to be tested against , see {@link Frustum#testContains(float[], int, int)}
+	 * @param eyePosition world-space position of the viewer
+	 * @param cullBackfaces whether clusters facing away from the viewer should be culled
+	 * @param target buffer of the object being rendered , its {@link TransformedVertices#setVertexCount(int) vertex count} must already be set
+	 * @return number of primitives in visible clusters
+	 */
+	public int cull(AffineMatrix modelMatrix,Frustum frustum,int planeMask,Vector4 eyePosition,boolean cullBackfaces,TransformedVertices target)
+	{
+		final float[] m = modelMatrix.getData();
+
+		// negative if the model matrix mirrors the object
+		final float det = modelMatrix.determinant();
+
+		/*
+		 * Backface culling happens in model space , a primitive faces away from the viewer if
+		 * det * dot( eye - p , n ) < 0 for any point p on the primitive (with normal n).
+		 */
+		final boolean testCones = cullBackfaces && det != 0;
+		float eyeX = 0 , eyeY = 0 , eyeZ = 0;
+		if ( testCones )
+		{
+			final Vector4 eye = modelMatrix.invert().multiply( new Vector4( eyePosition.x() , eyePosition.y() , eyePosition.z() ) );
+			eyeX = eye.x();
+			eyeY = eye.y();
+			eyeZ = eye.z();
+		}
+		final float sign = det < 0 ? -1 : 1;
+
+		// bounding spheres are scaled by the largest scale factor of the model matrix
+		final float scale = (float) Math.sqrt( Math.max( m[0]*m[0] + m[1]*m[1] + m[2]*m[2] ,
+				Math.max( m[3]*m[3] + m[4]*m[4] + m[5]*m[5] , m[6]*m[6] + m[7]*m[7] + m[8]*m[8] ) ) );
+
+		final boolean[] marks = target.getVertexMarks();
+		target.clearPrimitiveRanges();
+
+		int primitiveCount = 0;
+		for ( int cluster = 0 , offset = 0 ; cluster < clusterCount ; cluster++ , offset += 4 )
+		{
+			final float x = spheres[ offset ];
+			final float y = spheres[ offset + 1 ];
+			final float z = spheres[ offset + 2 ];
+			final float radius = spheres[ offset + 3 ];
+
+			if ( testCones )
+			{
+				final float dx = x - eyeX;
+				final float dy = y - eyeY;
+				final float dz = z - eyeZ;
+				final float distance = (float) Math.sqrt( dx*dx + dy*dy + dz*dz );
+				final float sine = cones[ offset + 3 ];
+
+				// the angle between the view vector to any point in the sphere and the cone axis is less than 90 degrees minus the cone's half angle
+				final float dot = sign * ( dx * cones[ offset ] + dy * cones[ offset + 1 ] + dz * cones[ offset + 2 ] );
+				if ( dot > distance * sine + radius * ( 1 + sine ) ) {
+					continue;
+				}
+			}
+
+			if ( planeMask != 0 )
+			{
+				final float worldX = m[0] * x + m[3] * y + m[6] * z + m[9];
+				final float worldY = m[1] * x + m[4] * y + m[7] * z + m[10];
+				final float worldZ = m[2] * x + m[5] * y + m[8] * z + m[11];
+				if ( frustum.testContains( worldX , worldY , worldZ , radius * scale , planeMask ) == Frustum.OUTSIDE ) {
+					continue;
+				}
+			}
+
+			final int firstPrimitive = firstPrimitives[ cluster ];
+			final int endPrimitive = firstPrimitives[ cluster + 1 ];
+			target.addPrimitiveRange( firstPrimitive , endPrimitive , firstIndices[ cluster ] );
+			primitiveCount += endPrimitive - firstPrimitive;
+
+			for ( int i = vertexOffsets[ cluster ] , end = vertexOffsets[ cluster + 1 ] ; i < end ; i++ ) {
+				marks[ vertices[ i ] ] = true;
+			}
+		}
+		target.collectVertexRanges();
+		return primitiveCount;
+	}
+}
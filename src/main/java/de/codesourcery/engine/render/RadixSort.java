@@ -0,0 +1,250 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable LSD radix sort of <code>int</code> keys with <code>int</code> values attached.
+ *
+ * <p>Keys are compared as <b>unsigned</b> integers , use {@link #sortableKey(float)} to
+ * sort by floating-point values. Sorting takes four passes over the data (one per key byte) , passes
+ * where all keys have the same byte are skipped.</p>
+ *
+ * <p>Arrays with at least {@link #DEFAULT_PARALLEL_THRESHOLD} elements are sorted on multiple threads ,
+ * each thread handles a contiguous chunk of the input so the result is the same as when sorting on a single thread.</p>
+ *
+ * <p>Scratch buffers are retained between calls , so instances are not thread-safe.</p>
+ */
+public final class RadixSort
+{
+	/**
+	 * Minimum number of elements before sorting is done on multiple threads.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024;
+
+	private static final int BITS_PER_PASS = 8;
+	private static final int BUCKETS = 1 << BITS_PER_PASS;
+	private static final int PASSES = 32 / BITS_PER_PASS;
+
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	private int[] keyBuffer = new int[0];
+	private int[] valueBuffer = new int[0];
+
+	// bucket counts (later: bucket offsets) , one histogram per pass and chunk
+	private int[][] histograms = new int[0][];
+
+	/**
+	 * Maps a float to an int so that comparing the ints as unsigned values
+	 * gives the same order as comparing the floats.
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static int sortableKey(float value)
+	{
+		final int bits = Float.floatToIntBits( value );
+		// flip all bits of negative numbers , only the sign bit of positive ones
+		return bits ^ ( ( bits >> 31 ) | 0x80000000 );
+	}
+
+	public void setParallelThreshold(int parallelThreshold)
+	{
+		if ( parallelThreshold < 0 ) {
+			throw new IllegalArgumentException("Parallel threshold must be >= 0");
+		}
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Sort keys in ascending (unsigned) order , moving values along with their keys.
+	 *
+	 * @param keys
+	 * @param values
+	 * @param count number of elements to sort , starting at index 0
+	 * @param pool pool to run on when sorting on multiple threads
+	 */
+	public void sort(int[] keys,int[] values,int count,ForkJoinPool pool)
+	{
+		if ( count < 2 ) {
+			return;
+		}
+		if ( keyBuffer.length < count )
+		{
+			keyBuffer = new int[ count ];
+			valueBuffer = new int[ count ];
+		}
+
+		final int chunks = count >= parallelThreshold ? Math.max( 1 , pool.getParallelism() ) : 1;
+		if ( histograms.length < chunks * PASSES )
+		{
+			histograms = new int[ chunks * PASSES ][];
+			for ( int i = 0 ; i < histograms.length ; i++ ) {
+				histograms[i] = new int[ BUCKETS ];
+			}
+		}
+
+		if ( chunks == 1 ) {
+			// count bucket sizes for all passes at once , the bytes of a key do not change
+			// between passes , only its position does
+			countBuckets( keys , 0 , count );
+		}
+
+		int[] srcKeys = keys;
+		int[] srcValues = values;
+		int[] dstKeys = keyBuffer;
+		int[] dstValues = valueBuffer;
+		for ( int pass = 0 ; pass < PASSES ; pass++ )
+		{
+			final int shift = pass * BITS_PER_PASS;
+			if ( chunks > 1 ) {
+				// chunks hold different keys after each pass
+				countBucketsInParallel( srcKeys , count , pass , chunks , pool );
+			}
+			if ( isSingleBucket( pass , chunks , ( srcKeys[0] >>> shift ) & ( BUCKETS - 1 ) , count ) ) {
+				continue;
+			}
+			calculateOffsets( pass , chunks );
+			if ( chunks == 1 ) {
+				scatter( srcKeys , srcValues , dstKeys , dstValues , 0 , count , pass , 0 );
+			} else {
+				scatterInParallel( srcKeys , srcValues , dstKeys , dstValues , count , pass , chunks , pool );
+			}
+			int[] tmp = srcKeys;
+			srcKeys = dstKeys;
+			dstKeys = tmp;
+			tmp = srcValues;
+			srcValues = dstValues;
+			dstValues = tmp;
+		}
+
+		if ( srcKeys != keys )
+		{
+			System.arraycopy( srcKeys , 0 , keys , 0 , count );
+			System.arraycopy( srcValues , 0 , values , 0 , count );
+		}
+	}
+
+	private static int chunkStart(int chunk,int chunks,int count) {
+		return (int) ( (long) count * chunk / chunks );
+	}
+
+	private void countBuckets(int[] keys,int start,int end)
+	{
+		final int[] h0 = histograms[ 0 ];
+		final int[] h1 = histograms[ 1 ];
+		final int[] h2 = histograms[ 2 ];
+		final int[] h3 = histograms[ 3 ];
+		Arrays.fill( h0 , 0 );
+		Arrays.fill( h1 , 0 );
+		Arrays.fill( h2 , 0 );
+		Arrays.fill( h3 , 0 );
+		for ( int i = start ; i < end ; i++ )
+		{
+			final int key = keys[i];
+			h0[ key & 0xff ]++;
+			h1[ ( key >>> 8 ) & 0xff ]++;
+			h2[ ( key >>> 16 ) & 0xff ]++;
+			h3[ key >>> 24 ]++;
+		}
+	}
+
+	private void countBuckets(int[] keys,int start,int end,int pass,int chunk)
+	{
+		final int[] histogram = histograms[ chunk * PASSES + pass ];
+		final int shift = pass * BITS_PER_PASS;
+		Arrays.fill( histogram , 0 );
+		for ( int i = start ; i < end ; i++ ) {
+			histogram[ ( keys[i] >>> shift ) & ( BUCKETS - 1 ) ]++;
+		}
+	}
+
+	private boolean isSingleBucket(int pass,int chunks,int bucket,int count)
+	{
+		int total = 0;
+		for ( int chunk = 0 ; chunk < chunks ; chunk++ ) {
+			total += histograms[ chunk * PASSES + pass ][ bucket ];
+		}
+		return total == count;
+	}
+
+	/**
+	 * Turn bucket counts into write offsets.
+	 *
+	 * <p>Within each bucket , elements from lower chunks are written first so sorting stays stable.</p>
+	 */
+	private void calculateOffsets(int pass,int chunks)
+	{
+		int offset = 0;
+		for ( int bucket = 0 ; bucket < BUCKETS ; bucket++ )
+		{
+			for ( int chunk = 0 ; chunk < chunks ; chunk++ )
+			{
+				final int[] histogram = histograms[ chunk * PASSES + pass ];
+				final int size = histogram[ bucket ];
+				histogram[ bucket ] = offset;
+				offset += size;
+			}
+		}
+	}
+
+	private void scatter(int[] srcKeys,int[] srcValues,int[] dstKeys,int[] dstValues,int start,int end,int pass,int chunk)
+	{
+		final int[] offsets = histograms[ chunk * PASSES + pass ];
+		final int shift = pass * BITS_PER_PASS;
+		for ( int i = start ; i < end ; i++ )
+		{
+			final int key = srcKeys[i];
+			final int index = offsets[ ( key >>> shift ) & ( BUCKETS - 1 ) ]++;
+			dstKeys[ index ] = key;
+			dstValues[ index ] = srcValues[i];
+		}
+	}
+
+	private void countBucketsInParallel(final int[] keys,final int count,final int pass,final int chunks,ForkJoinPool pool)
+	{
+		final RecursiveAction[] tasks = new RecursiveAction[ chunks ];
+		for ( int i = 0 ; i < chunks ; i++ )
+		{
+			final int chunk = i;
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute() {
+					countBuckets( keys , chunkStart( chunk , chunks , count ) , chunkStart( chunk + 1 , chunks , count ) , pass , chunk );
+				}
+			};
+		}
+		invokeAll( tasks , pool );
+	}
+
+	private void scatterInParallel(final int[] srcKeys,final int[] srcValues,final int[] dstKeys,final int[] dstValues,final int count,final int pass,final int chunks,ForkJoinPool pool)
+	{
+		final RecursiveAction[] tasks = new RecursiveAction[ chunks ];
+		for ( int i = 0 ; i < chunks ; i++ )
+		{
+			final int chunk = i;
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute() {
+					scatter( srcKeys , srcValues , dstKeys , dstValues , chunkStart( chunk , chunks , count ) , chunkStart( chunk + 1 , chunks , count ) , pass , chunk );
+				}
+			};
+		}
+		invokeAll( tasks , pool );
+	}
+
+	private static void invokeAll(final RecursiveAction[] tasks,ForkJoinPool pool)
+	{
+		pool.invoke( new RecursiveAction() {
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll( tasks );
+			}
+		});
+	}
+}
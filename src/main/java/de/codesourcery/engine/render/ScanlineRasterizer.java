@@ -0,0 +1,512 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+
+/**
+ * Draws convex polygons and lines into a {@link FrameBuffer}.
+ *
+ * <p>Polygons are filled scanline by scanline, a pixel is set if its center lies inside
+ * the polygon (top-left fill convention), so adjacent polygons that share an edge never
+ * touch the same pixel twice.</p>
+ *
+ * <p>Scanlines are processed in bands , the edges a scanline crosses only change at the Y coordinates
+ * of the polygon's vertices. A triangle consists of at most two bands (upper and lower half) , a quad of at most three.
+ * The crossed edges are selected once per band , so each scanline only evaluates the (usually two) edges it crosses.</p>
+ *
+ * <p>All drawing is restricted to a clipping rectangle (the whole frame buffer by default) , 
+ * so multiple instances may draw into disjoint regions of the same frame buffer concurrently.
+ * Instances keep per-polygon scratch data and thus must not be shared between threads.</p>
+ */
+public final class ScanlineRasterizer
+{
+	/*
+	 * Lines are mostly drawn on top of filled polygons sharing the same
+	 * edge , allow for some rounding error when testing against the depth buffer.
+	 */
+	private static final float LINE_DEPTH_TOLERANCE = 1.001f;
+
+	private final int[] pixels;
+	private final float[] depthBuffer;
+	private final int width;
+	private final int height;
+
+	// clipping rectangle , max. values are exclusive
+	private int clipMinX;
+	private int clipMinY;
+	private int clipMaxX;
+	private int clipMaxY;
+
+	// edge table , one entry per non-horizontal polygon edge
+	private float[] edgeTopY = new float[4];
+	private float[] edgeBottomY = new float[4];
+	private float[] edgeTopX = new float[4];
+	private float[] edgeSlope = new float[4];
+
+	// edges crossed by all scanlines of the current band
+	private int[] bandEdges = new int[4];
+	private int bandEdgeCount;
+
+	// vertical extent of the current polygon
+	private int yStart;
+	private int yEnd;
+
+	// horizontal extent of the current scanline
+	private int spanStart;
+	private int spanEnd;
+
+	// line clipping parameters
+	private float clipT0;
+	private float clipT1;
+
+	public ScanlineRasterizer(FrameBuffer frameBuffer)
+	{
+		this.pixels = frameBuffer.getPixels();
+		this.depthBuffer = frameBuffer.getDepthBuffer();
+		this.width = frameBuffer.getWidth();
+		this.height = frameBuffer.getHeight();
+		resetClipRect();
+	}
+
+	/**
+	 * Restrict drawing to a rectangular region of the frame buffer.
+	 *
+	 * @param minX left edge (inclusive)
+	 * @param minY top edge (inclusive)
+	 * @param maxX right edge (exclusive)
+	 * @param maxY bottom edge (exclusive)
+	 */
+	public void setClipRect(int minX,int minY,int maxX,int maxY)
+	{
+		this.clipMinX = Math.max( 0 , minX );
+		this.clipMinY = Math.max( 0 , minY );
+		this.clipMaxX = Math.min( width , maxX );
+		this.clipMaxY = Math.min( height , maxY );
+	}
+
+	public void resetClipRect() {
+		setClipRect( 0 , 0 , width , height );
+	}
+
+	/**
+	 * Fill a convex polygon.
+	 *
+	 * @param xs screen X coordinates of the polygon's vertices
+	 * @param ys screen Y coordinates of the polygon's vertices
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void fillPolygon(float[] xs,float[] ys,int vertexCount,int color)
+	{
+		fillPolygon( xs , ys , 0 , vertexCount , color );
+	}
+
+	/**
+	 * Fill a convex polygon.
+	 *
+	 * @param xs screen X coordinates
+	 * @param ys screen Y coordinates
+	 * @param offset index of the polygon's first vertex in the coordinate arrays
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void fillPolygon(float[] xs,float[] ys,int offset,int vertexCount,int color)
+	{
+		final int edgeCount = setupEdges( xs , ys , offset , vertexCount );
+		if ( edgeCount == 0 ) {
+			return;
+		}
+
+		for ( int y = yStart ; y < yEnd ; )
+		{
+			final int bandEnd = setupBand( y , edgeCount );
+			for ( ; y < bandEnd ; y++ ) 
+			{
+				if ( findSpan( y + 0.5f ) )
+				{
+					final int rowOffset = y * width;
+					Arrays.fill( pixels , rowOffset + spanStart , rowOffset + spanEnd , color );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fill a convex polygon , testing and updating the depth buffer.
+	 *
+	 * <p>Depth values are the reciprocal of the view-space depth (1/w) , these are affine in screen space
+	 * and thus can be linearly interpolated across the polygon.</p>
+	 *
+	 * @param xs screen X coordinates of the polygon's vertices
+	 * @param ys screen Y coordinates of the polygon's vertices
+	 * @param depths depth (1/w) of the polygon's vertices
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void fillPolygon(float[] xs,float[] ys,float[] depths,int vertexCount,int color)
+	{
+		fillPolygon( xs , ys , depths , 0 , vertexCount , color );
+	}
+
+	/**
+	 * Fill a convex polygon , testing and updating the depth buffer.
+	 *
+	 * @param xs screen X coordinates
+	 * @param ys screen Y coordinates
+	 * @param depths depth (1/w) values
+	 * @param offset index of the polygon's first vertex in the coordinate/depth arrays
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void fillPolygon(float[] xs,float[] ys,float[] depths,int offset,int vertexCount,int color)
+	{
+		/*
+		 * Calculate depth gradients from the polygon's plane in (x,y,depth) space,
+		 * using Newell's method so that nearly-degenerate quads still produce a usable normal.
+		 */
+		float nx = 0;
+		float ny = 0;
+		float nz = 0;
+		final int end = offset + vertexCount;
+		for ( int i = offset ; i < end ; i++ )
+		{
+			final int j = ( i+1 == end ) ? offset : i+1;
+			nx += ( ys[i] - ys[j] ) * ( depths[i] + depths[j] );
+			ny += ( depths[i] - depths[j] ) * ( xs[i] + xs[j] );
+			nz += ( xs[i] - xs[j] ) * ( ys[i] + ys[j] );
+		}
+		if ( nz == 0 ) { // polygon is seen edge-on
+			return;
+		}
+
+		final int edgeCount = setupEdges( xs , ys , offset , vertexCount );
+		if ( edgeCount == 0 ) {
+			return;
+		}
+
+		final float depthDx = -nx / nz;
+		final float depthDy = -ny / nz;
+		final float depthOrigin = depths[offset] - depthDx * xs[offset] - depthDy * ys[offset];
+
+		for ( int y = yStart ; y < yEnd ; )
+		{
+			final int bandEnd = setupBand( y , edgeCount );
+			for ( ; y < bandEnd ; y++ ) 
+			{
+				final float centerY = y + 0.5f;
+				if ( findSpan( centerY ) )
+				{
+					// depth is evaluated per pixel (instead of stepping) so results do not depend on the clipping rectangle 
+					final float rowDepth = depthOrigin + depthDy * centerY + depthDx * 0.5f;
+					final int rowOffset = y * width;
+					for ( int x = spanStart ; x < spanEnd ; x++ )
+					{
+						final int ptr = rowOffset + x;
+						final float depth = rowDepth + depthDx * x;
+						if ( depth > depthBuffer[ ptr ] )
+						{
+							depthBuffer[ ptr ] = depth;
+							pixels[ ptr ] = color;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Populates the edge table and the vertical extent (clamped to the frame buffer) of a polygon.
+	 *
+	 * @return number of edges or 0 if the polygon does not cover any scanline
+	 */
+	private int setupEdges(float[] xs,float[] ys,int offset,int vertexCount)
+	{
+		final int end = offset + vertexCount;
+
+		float minY = ys[offset];
+		float maxY = minY;
+		for ( int i = offset+1 ; i < end ; i++ )
+		{
+			final float y = ys[i];
+			if ( y < minY ) {
+				minY = y;
+			}
+			if ( y > maxY ) {
+				maxY = y;
+			}
+		}
+
+		yStart = Math.max( clipMinY , (int) Math.ceil( minY - 0.5f ) );
+		yEnd = Math.min( clipMaxY , (int) Math.ceil( maxY - 0.5f ) ); // exclusive
+		if ( yStart >= yEnd ) {
+			return 0;
+		}
+
+		if ( vertexCount > edgeTopY.length ) {
+			growEdgeTable( vertexCount );
+		}
+
+		int edgeCount = 0;
+		for ( int i = offset ; i < end ; i++ )
+		{
+			final int j = ( i+1 == end ) ? offset : i+1;
+			final float y0 = ys[i];
+			final float y1 = ys[j];
+			if ( y0 == y1 ) { // horizontal edges never intersect a scanline center
+				continue;
+			}
+			final float slope = ( xs[j] - xs[i] ) / ( y1 - y0 );
+			if ( y0 < y1 ) {
+				edgeTopY[ edgeCount ] = y0;
+				edgeBottomY[ edgeCount ] = y1;
+				edgeTopX[ edgeCount ] = xs[i];
+			} else {
+				edgeTopY[ edgeCount ] = y1;
+				edgeBottomY[ edgeCount ] = y0;
+				edgeTopX[ edgeCount ] = xs[j];
+			}
+			edgeSlope[ edgeCount++ ] = slope;
+		}
+		return edgeCount;
+	}
+
+	/**
+	 * Selects the edges crossed by a scanline and all following scanlines up to the next vertex.
+	 *
+	 * <p>Edges span the Y range between two vertices , so the set of crossed edges only changes
+	 * when a scanline center passes the top or bottom Y coordinate of an edge.</p>
+	 *
+	 * @param y first scanline of the band
+	 * @param edgeCount
+	 * @return scanline following the band (exclusive) , clamped to the polygon's vertical extent
+	 */
+	private int setupBand(int y,int edgeCount)
+	{
+		final float centerY = y + 0.5f;
+		float next = Float.POSITIVE_INFINITY;
+		bandEdgeCount = 0;
+		for ( int e = 0 ; e < edgeCount ; e++ )
+		{
+			if ( centerY < edgeTopY[e] ) {
+				next = Math.min( next , edgeTopY[e] );
+			} 
+			else if ( centerY < edgeBottomY[e] ) 
+			{
+				bandEdges[ bandEdgeCount++ ] = e;
+				next = Math.min( next , edgeBottomY[e] );
+			}
+		}
+		// first scanline whose center is at or below the next edge endpoint
+		return (int) Math.min( yEnd , Math.ceil( next - 0.5f ) );
+	}
+
+	/**
+	 * Determines the horizontal span (clamped to the frame buffer) a convex polygon covers on a scanline of the current band.
+	 *
+	 * @return <code>true</code> if at least one pixel is covered , the span is
+	 * then available as <code>spanStart</code> (inclusive) and <code>spanEnd</code> (exclusive)
+	 */
+	private boolean findSpan(float centerY)
+	{
+		float left = Float.MAX_VALUE;
+		float right = -Float.MAX_VALUE;
+		for ( int i = 0 ; i < bandEdgeCount ; i++ )
+		{
+			final int e = bandEdges[i];
+			final float x = edgeTopX[e] + ( centerY - edgeTopY[e] ) * edgeSlope[e];
+			if ( x < left ) {
+				left = x;
+			}
+			if ( x > right ) {
+				right = x;
+			}
+		}
+
+		if ( left > right ) {
+			return false;
+		}
+		spanStart = Math.max( clipMinX , (int) Math.ceil( left - 0.5f ) );
+		spanEnd = Math.min( clipMaxX , (int) Math.ceil( right - 0.5f ) );
+		return spanStart < spanEnd;
+	}
+
+	/**
+	 * Draw the outline of a closed polygon.
+	 *
+	 * @param xs screen X coordinates of the polygon's vertices
+	 * @param ys screen Y coordinates of the polygon's vertices
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void drawPolygon(float[] xs,float[] ys,int vertexCount,int color)
+	{
+		drawPolygon( xs , ys , 0 , vertexCount , color );
+	}
+
+	/**
+	 * Draw the outline of a closed polygon.
+	 *
+	 * @param xs screen X coordinates
+	 * @param ys screen Y coordinates
+	 * @param offset index of the polygon's first vertex in the coordinate arrays
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void drawPolygon(float[] xs,float[] ys,int offset,int vertexCount,int color)
+	{
+		final int end = offset + vertexCount;
+		for ( int i = offset ; i < end ; i++ )
+		{
+			final int j = ( i+1 == end ) ? offset : i+1;
+			drawLine( xs[i] , ys[i] , xs[j] , ys[j] , color );
+		}
+	}
+
+	/**
+	 * Draw the outline of a closed polygon , skipping pixels that are
+	 * hidden according to the depth buffer.
+	 *
+	 * <p>The depth buffer itself is not updated.</p>
+	 *
+	 * @param xs screen X coordinates of the polygon's vertices
+	 * @param ys screen Y coordinates of the polygon's vertices
+	 * @param depths depth (1/w) of the polygon's vertices
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void drawPolygon(float[] xs,float[] ys,float[] depths,int vertexCount,int color)
+	{
+		drawPolygon( xs , ys , depths , 0 , vertexCount , color );
+	}
+
+	/**
+	 * Draw the outline of a closed polygon , skipping pixels that are
+	 * hidden according to the depth buffer.
+	 *
+	 * @param xs screen X coordinates
+	 * @param ys screen Y coordinates
+	 * @param depths depth (1/w) values
+	 * @param offset index of the polygon's first vertex in the coordinate/depth arrays
+	 * @param vertexCount number of vertices
+	 * @param color ARGB color
+	 */
+	public void drawPolygon(float[] xs,float[] ys,float[] depths,int offset,int vertexCount,int color)
+	{
+		final int end = offset + vertexCount;
+		for ( int i = offset ; i < end ; i++ )
+		{
+			final int j = ( i+1 == end ) ? offset : i+1;
+			drawLine( xs[i] , ys[i] , depths[i] , xs[j] , ys[j] , depths[j] , color );
+		}
+	}
+
+	public void drawLine(float x0,float y0,float x1,float y1,int color)
+	{
+		drawLine( x0 , y0 , 0 , x1 , y1 , 0 , color , false );
+	}
+
+	public void drawLine(float x0,float y0,float depth0,float x1,float y1,float depth1,int color)
+	{
+		drawLine( x0 , y0 , depth0 , x1 , y1 , depth1 , color , true );
+	}
+
+	/**
+	 * Draw a line (Bresenham).
+	 *
+	 * <p>The line is clipped against the frame buffer bounds before drawing, so
+	 * arbitrary coordinates may be passed in. Pixels outside the clipping rectangle are
+	 * skipped while stepping so a line yields the same pixels no matter how the
+	 * frame buffer is partitioned.</p>
+	 */
+	private void drawLine(float x0,float y0,float depth0,float x1,float y1,float depth1,int color,boolean depthTest)
+	{
+		// clip line (Liang-Barsky)
+		final float dx = x1 - x0;
+		final float dy = y1 - y0;
+
+		clipT0 = 0;
+		clipT1 = 1;
+		if ( ! clip( -dx , x0 ) || ! clip( dx , ( width - 1 ) - x0 ) ||
+			 ! clip( -dy , y0 ) || ! clip( dy , ( height - 1 ) - y0 ) )
+		{
+			return;
+		}
+		final float t0 = clipT0;
+		final float t1 = clipT1;
+
+		int x = Math.round( x0 + t0 * dx );
+		int y = Math.round( y0 + t0 * dy );
+		final int xEnd = Math.round( x0 + t1 * dx );
+		final int yEnd = Math.round( y0 + t1 * dy );
+
+		final int deltaX = Math.abs( xEnd - x );
+		final int deltaY = -Math.abs( yEnd - y );
+		final int stepX = x < xEnd ? 1 : -1;
+		final int stepY = y < yEnd ? 1 : -1;
+
+		// depth is interpolated along the major axis
+		final int steps = Math.max( deltaX , -deltaY );
+		float depth = depth0 + t0 * ( depth1 - depth0 );
+		final float depthStep = steps == 0 ? 0 : ( ( t1 - t0 ) * ( depth1 - depth0 ) ) / steps;
+
+		int error = deltaX + deltaY;
+		while ( true )
+		{
+			if ( x >= clipMinX && y >= clipMinY && x < clipMaxX && y < clipMaxY ) 
+			{
+				final int ptr = y * width + x;
+				if ( ! depthTest || depth * LINE_DEPTH_TOLERANCE >= depthBuffer[ ptr ] ) {
+					pixels[ ptr ] = color;
+				}
+			}
+			depth += depthStep;
+			if ( x == xEnd && y == yEnd ) {
+				break;
+			}
+			final int e2 = 2 * error;
+			if ( e2 >= deltaY ) {
+				error += deltaY;
+				x += stepX;
+			}
+			if ( e2 <= deltaX ) {
+				error += deltaX;
+				y += stepY;
+			}
+		}
+	}
+
+	private boolean clip(float p,float q)
+	{
+		if ( p == 0 ) {
+			return q >= 0; // parallel to this boundary
+		}
+		final float t = q / p;
+		if ( p < 0 )
+		{
+			if ( t > clipT1 ) {
+				return false;
+			}
+			if ( t > clipT0 ) {
+				clipT0 = t;
+			}
+		}
+		else
+		{
+			if ( t < clipT0 ) {
+				return false;
+			}
+			if ( t < clipT1 ) {
+				clipT1 = t;
+			}
+		}
+		return true;
+	}
+
+	private void growEdgeTable(int size)
+	{
+		edgeTopY = new float[ size ];
+		edgeBottomY = new float[ size ];
+		edgeTopX = new float[ size ];
+		edgeSlope = new float[ size ];
+		bandEdges = new int[ size ];
+	}
+}
@@ -5,24 +5,22 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
-
-import de.codesourcery.engine.geom.IConvexPolygon;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
+import de.codesourcery.engine.linalg.ClipSpaceClipper;
 import de.codesourcery.engine.linalg.Frustum;
 import de.codesourcery.engine.linalg.LinAlgUtils;
 import de.codesourcery.engine.linalg.Matrix;
 import de.codesourcery.engine.linalg.Vector4;
 import de.codesourcery.engine.math.Constants;
+import de.codesourcery.engine.render.Object3D.RenderingFlag;
 
 public final class SoftwareRenderer 
 {
@@ -33,12 +31,36 @@ public final class SoftwareRenderer
 	private static final boolean DISABLE_LIGHTING = false;
 	private static final boolean SKIP_RENDERING = false;
 	private static final boolean USE_FRUSTUM_CULLING = true;
+	
+	// objects with at least twice this many primitives are split into ranges that are processed in parallel
+	private static final int MIN_PRIMITIVES_PER_RANGE = 8 * 1024;
+	// number of ranges per calculation thread , more ranges balance load better
+	private static final int RANGES_PER_THREAD = 4;
+
+	private static final int BACKGROUND_COLOR = Color.LIGHT_GRAY.getRGB();
+	private static final int OUTLINE_COLOR = Color.BLACK.getRGB();
 
 	private World world;
+	
+	// per-frame state , owned by each renderer so several renderers may render the same world at the same time
+	private WorldSnapshot currentSnapshot;
+	// snapshot last rendered from another camera and the snapshot it was derived from , see #beginFrame(Camera)
+	private WorldSnapshot cameraSnapshot;
+	private WorldSnapshot cameraSnapshotSource;
+	private final TransformHierarchy transformHierarchy = new TransformHierarchy();
+	// built lazily , discarded when the root objects of the current snapshot change
+	private BoundingVolumeHierarchy boundingVolumeHierarchy;
+	private List<Object3D> boundingVolumeHierarchyRoots;
+	// set when the transform hierarchy reported changed bounds
+	private boolean boundsChanged;
+	// buffers to transform the vertices of each node into , indexed by node ID
+	private TransformedVertices[] transformedVertices = new TransformedVertices[0];
 
 	private long frameCounter = 0;
 	private long totalTime = 0;
 	private long totalRenderingTime = 0;
+	// time spent rasterizing the last frame
+	private long lastRenderingTime = 0;
 
 	private float scaleX = 100;
 	private float scaleY = 100;
@@ -49,12 +71,47 @@ public final class SoftwareRenderer
 	private int xOffset = 400;
 	private int yOffset = 300;  
 	
+	// lighting is only changed by the thread that renders frames , see #setLightPosition(Vector4)
 	private Vector4 lightPosition = new Vector4(0f,0.1f,0f);	
 	private float ambientLightFactor =0.1f;
+	// incremented whenever the light position or ambient light factor change
+	private long lightingVersion;
+	
+	// state the frame buffer was last rendered from , used to skip frames if nothing changed
+	private boolean skipUnchangedFrames = true;
+	private WorldSnapshot renderedSnapshot;
+	private long renderedLightingVersion;
+	private DepthMode renderedDepthMode;
 
+	// batches queued by all threads , merged after the geometry phase
 	private final List<PrimitiveBatch> batches = new ArrayList<PrimitiveBatch>();
 	
-	private ExecutorService calculationThreadPool;
+	// node IDs of root objects that passed frustum culling
+	private int[] visibleNodes = new int[ 64 ];
+	
+	// painter's algorithm draw list , sort keys and the primitives they belong to
+	private final RadixSort radixSort = new RadixSort();
+	private int[] drawKeys = new int[ 1024 ];
+	private int[] drawEntries = new int[ 1024 ];
+	private int[] entryBatch = new int[ 1024 ];
+	private int[] entryPrimitive = new int[ 1024 ];
+	
+	// batches queued by each calculation thread , recreated together with the thread pool
+	private ThreadLocal<BatchQueue> batchQueue;
+	private ConcurrentLinkedQueue<BatchQueue> batchQueues;
+
+	private FrameBuffer frameBuffer;
+	private ScanlineRasterizer rasterizer;
+	private TiledRasterizer tiledRasterizer;
+
+	// screen coordinates and depth of the primitive currently being drawn
+	private float[] screenX = new float[4];
+	private float[] screenY = new float[4];
+	private float[] screenDepth = new float[4];
+
+	private volatile DepthMode depthMode = DepthMode.PAINTERS_ALGORITHM;
+	
+	private ForkJoinPool calculationThreadPool;
 
 	public static enum RenderingMode {
 		DEFAULT,
@@ -62,42 +119,140 @@ public final class SoftwareRenderer
 		RENDER_WIREFRAME;
 	}
 
+	/**
+	 * How hidden surfaces are removed.
+	 */
+	public static enum DepthMode {
+		/**
+		 * Sort primitives of all objects by distance to the viewer and draw them back to front.
+		 */
+		PAINTERS_ALGORITHM,
+		/**
+		 * Draw primitives in any order and resolve visibility per pixel using a depth buffer.
+		 */
+		DEPTH_BUFFER;
+	}
+
 	public SoftwareRenderer() 
 	{
-		// setup calculation thread-pool
-		int threadCount = Runtime.getRuntime().availableProcessors();
-		if ( threadCount > 1 ) {
-			threadCount--; // reserve one CPU core for the rendering thread
-		}
-		setupThreadPool( threadCount );
+		// setup calculation thread-pool , the rendering thread only waits for calculations to finish
+		setupThreadPool( Runtime.getRuntime().availableProcessors() );
 	}
 
 	protected void setupThreadPool(int threads) 
 	{
-		final ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<Runnable>(500);
-		final ThreadFactory threadFactory = new ThreadFactory() {
+		final ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
 
 			@Override
-			public Thread newThread(final Runnable r) 
+			public ForkJoinWorkerThread newThread(ForkJoinPool pool) 
 			{
-				final Thread result = new Thread(r , "calculation-thread");
+				final ForkJoinWorkerThread result = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+				result.setName( "calculation-thread-"+result.getPoolIndex() );
 				result.setDaemon( true );
 				return result;
 			}
 		};
-		System.out.println("Using one thread for rendering and "+threads+" threads for calculations");
-		calculationThreadPool = new ThreadPoolExecutor(threads, 
-				threads, 
-				24, 
-				TimeUnit.HOURS , queue, threadFactory, new ThreadPoolExecutor.CallerRunsPolicy() );
+		System.out.println("Using "+threads+" threads for calculations");
+		if ( calculationThreadPool != null ) {
+			calculationThreadPool.shutdown();
+		}
+		calculationThreadPool = new ForkJoinPool( threads , threadFactory , null , false );
+		
+		final ConcurrentLinkedQueue<BatchQueue> queues = new ConcurrentLinkedQueue<BatchQueue>();
+		batchQueues = queues;
+		batchQueue = new ThreadLocal<BatchQueue>() {
+			
+			@Override
+			protected BatchQueue initialValue() 
+			{
+				final BatchQueue result = new BatchQueue();
+				queues.add( result );
+				return result;
+			}
+		};
+	}
+	
+	/**
+	 * Batches queued by a single thread.
+	 * 
+	 * <p>During the geometry phase a queue is only accessed by the thread owning it , 
+	 * afterwards only by the rendering thread. So no locking is needed , the fork/join 
+	 * framework makes sure changes are visible to the other side.</p>
+	 */
+	private static final class BatchQueue 
+	{
+		public final List<PrimitiveBatch> queued = new ArrayList<PrimitiveBatch>();
+		// batches are reused across frames
+		public final List<PrimitiveBatch> free = new ArrayList<PrimitiveBatch>();
 	}
 	
+	/**
+	 * Stops the calculation threads , this renderer must not be used afterwards.
+	 */
+	public void dispose() {
+		calculationThreadPool.shutdown();
+	}
+	
+	/**
+	 * Sets the ambient light factor.
+	 * 
+	 * <p>Like all lighting setters , this method must be called by the thread that renders frames.</p>
+	 * 
+	 * @param ambientLightFactor
+	 */
 	public void setAmbientLightFactor(float ambientLightFactor) {
 		this.ambientLightFactor = ambientLightFactor;
+		lightingVersion++;
 	}
 
+	/**
+	 * Sets the light position.
+	 * 
+	 * <p>The position is copied , changing the vector afterwards has no effect. Must be called by the
+	 * thread that renders frames.</p>
+	 * 
+	 * @param lightPosition
+	 */
 	public void setLightPosition(Vector4 lightPosition) {
-		this.lightPosition = lightPosition;
+		this.lightPosition = new Vector4( lightPosition );
+		lightingVersion++;
+	}
+	
+	/**
+	 * Returns a counter that is incremented whenever the light position or the ambient light factor change.
+	 * 
+	 * @return
+	 */
+	public long getLightingVersion() {
+		return lightingVersion;
+	}
+	
+	/**
+	 * Enables or disables skipping unchanged frames.
+	 * 
+	 * <p>If enabled (the default) , {@link #render()} returns the previous frame without rendering 
+	 * if neither the world snapshot nor lighting , depth mode or size changed since.
+	 * Benchmarks that render the same scene over and over again need to disable this.</p>
+	 * 
+	 * @param skipUnchangedFrames
+	 */
+	public void setSkipUnchangedFrames(boolean skipUnchangedFrames) {
+		this.skipUnchangedFrames = skipUnchangedFrames;
+	}
+	
+	public boolean isSkipUnchangedFrames() {
+		return skipUnchangedFrames;
+	}
+
+	public void setDepthMode(DepthMode depthMode) {
+		if (depthMode == null) {
+			throw new IllegalArgumentException("depthMode must not be NULL");
+		}
+		this.depthMode = depthMode;
+	}
+
+	public DepthMode getDepthMode() {
+		return depthMode;
 	}
 	
 	public int getHeight() {
@@ -113,8 +268,7 @@ public final class SoftwareRenderer
 		if (cpuCount < 1 ) {
 			throw new IllegalArgumentException("cpuCount must be >= 1");
 		}
-		// reserves one CPU core for the rendering thread
-		setupThreadPool( cpuCount <= 1 ? 1 : cpuCount -1 );
+		setupThreadPool( cpuCount );
 	}
 
 	public void setHeight(int height) {
@@ -137,62 +291,38 @@ public final class SoftwareRenderer
 		this.width = width;
 	}
 
-	protected static final class PrimitiveWithDepth {
-
-		private final Vector4[] points;
-		private final int color;
-
-		public PrimitiveWithDepth(int color, Vector4[] points)
-		{
-			this.color = color;
-			this.points= points;
-		}        
-
-		public Vector4[] getPoints() {
-			return points;
-		}
-
-		public int getColor() {
-			return color;
-		}
-
-		public float getDepth()
-		{
-			float result = points[0].w();
-			final int len = points.length;
-			for ( int i = 1 ; i < len ; i++ ) 
-			{
-				if ( points[i].w() > result ) {
-					result = points[i].w();
-				}
-			}
-			return result;
-		}
-	}
-
+	/**
+	 * Primitives of a single object , queued for rendering.
+	 * 
+	 * <p>Primitives are stored in flat arrays that are retained when the batch 
+	 * is {@link #reset(RenderingMode) reset} , so a batch can be reused across frames without
+	 * allocating memory once its arrays have grown large enough.</p>
+	 */
 	protected final class PrimitiveBatch {
 
-		private float distanceToViewer;
-		private final Object3D object;
-		private List<PrimitiveWithDepth> primitives = new ArrayList<>();
-
-		private final RenderingMode renderingMode;
-
-		public PrimitiveBatch(RenderingMode renderingMode,Object3D object) {
+		private RenderingMode renderingMode;
+		
+		private int primitiveCount;
+		
+		// NDC X , Y and W (view-space depth) components of each primitive's vertices. Clipped primitives
+		// store their vertices consecutively in x,y,z,w order in xs , ys and ws are null in that case
+		private float[][] xs = new float[ 64 ][];
+		private float[][] ys = new float[ 64 ][];
+		private float[][] ws = new float[ 64 ][];
+		// vertex offsets of each primitive , null if vertices are stored consecutively
+		private int[][] indices = new int[ 64 ][];
+		private int[] firstIndex = new int[ 64 ];
+		private int[] vertexCounts = new int[ 64 ];
+		private int[] colors = new int[ 64 ];
+		private float[] depths = new float[ 64 ];
+
+		public void reset(RenderingMode renderingMode) {
 			this.renderingMode = renderingMode;
-			this.object = object;
+			clear();
 		}
 
-		public void setDistanceToViewer(float distanceToViewer) {
-			this.distanceToViewer = distanceToViewer;
-		}
-		
-		public float getDistanceToViewer() {
-			return distanceToViewer;
-		}
-		
 		public int getPrimitiveCount() {
-			return primitives.size();
+			return primitiveCount;
 		}
 		
 		public RenderingMode getRenderingMode() {
@@ -200,53 +330,127 @@ public final class SoftwareRenderer
 		}
 		
 		public boolean isEmpty() {
-			return primitives.isEmpty();
+			return primitiveCount == 0;
+		}
+		
+		/**
+		 * Queue a primitive whose vertices are stored in the object's {@link TransformedVertices}.
+		 * 
+		 * @param xs NDC X components , see {@link TransformedVertices#getNDCXs()}
+		 * @param ys NDC Y components
+		 * @param ws view-space depths , see {@link TransformedVertices#getClipWs()}
+		 * @param indices vertex offsets , the vertex at offset <code>n</code> is stored at index <code>n/4</code> of the component arrays
+		 */
+		public void add(int color, float[] xs,float[] ys,float[] ws,int[] indices,int firstIndex,int vertexCount) 
+		{
+			// painter's algorithm sorts primitives by their farthest vertex
+			float depth = ws[ indices[ firstIndex ] >> 2 ];
+			for ( int i = 1 ; i < vertexCount ; i++ ) 
+			{
+				final float w = ws[ indices[ firstIndex + i ] >> 2 ];
+				if ( w > depth ) {
+					depth = w;
+				}
+			}
+			add( color , xs , ys , ws , indices , firstIndex , vertexCount , depth );
+		}
+		
+		/**
+		 * Queue a primitive whose vertices are stored consecutively.
+		 */
+		public void add(int color, float[] vertices) 
+		{
+			float depth = vertices[ 3 ];
+			for ( int offset = 7 ; offset < vertices.length ; offset += 4 ) 
+			{
+				if ( vertices[ offset ] > depth ) {
+					depth = vertices[ offset ];
+				}
+			}
+			add( color , vertices , null , null , null , 0 , vertices.length / 4 , depth );
 		}
 		
-		public void add(int color, Vector4[] points) {
+		private void add(int color, float[] xs,float[] ys,float[] ws,int[] indices,int firstIndex,int vertexCount,float depth) 
+		{
+			if ( primitiveCount == colors.length ) {
+				grow();
+			}
+			
+			final int index = primitiveCount++;
+			this.xs[ index ] = xs;
+			this.ys[ index ] = ys;
+			this.ws[ index ] = ws;
+			this.indices[ index ] = indices;
+			this.firstIndex[ index ] = firstIndex;
+			this.vertexCounts[ index ] = vertexCount;
+			this.colors[ index ] = color;
+			this.depths[ index ] = depth;
+		}
 
-			if ( world.isInClipSpace( points ) ) {
-				primitives.add( new PrimitiveWithDepth( color, points) );
-			} 
-		}    	
+		/**
+		 * Append all primitives of another batch.
+		 */
+		public void addAll(PrimitiveBatch other) 
+		{
+			while ( primitiveCount + other.primitiveCount > colors.length ) {
+				grow();
+			}
+			final int count = other.primitiveCount;
+			System.arraycopy( other.xs , 0 , xs , primitiveCount , count );
+			System.arraycopy( other.ys , 0 , ys , primitiveCount , count );
+			System.arraycopy( other.ws , 0 , ws , primitiveCount , count );
+			System.arraycopy( other.indices , 0 , indices , primitiveCount , count );
+			System.arraycopy( other.firstIndex , 0 , firstIndex , primitiveCount , count );
+			System.arraycopy( other.vertexCounts , 0 , vertexCounts , primitiveCount , count );
+			System.arraycopy( other.colors , 0 , colors , primitiveCount , count );
+			System.arraycopy( other.depths , 0 , depths , primitiveCount , count );
+			primitiveCount += count;
+		}
+		
+		private void grow() 
+		{
+			final int newSize = colors.length * 2;
+			xs = Arrays.copyOf( xs , newSize );
+			ys = Arrays.copyOf( ys , newSize );
+			ws = Arrays.copyOf( ws , newSize );
+			indices = Arrays.copyOf( indices , newSize );
+			firstIndex = Arrays.copyOf( firstIndex , newSize );
+			vertexCounts = Arrays.copyOf( vertexCounts , newSize );
+			colors = Arrays.copyOf( colors , newSize );
+			depths = Arrays.copyOf( depths , newSize );
+		}
 
 		public void clear() {
-			primitives.clear();
+			// do not keep vertex arrays of clipped primitives alive
+			Arrays.fill( xs , 0 , primitiveCount , null );
+			Arrays.fill( ys , 0 , primitiveCount , null );
+			Arrays.fill( ws , 0 , primitiveCount , null );
+			Arrays.fill( indices , 0 , primitiveCount , null );
+			primitiveCount = 0;
 		}
 
-		public void renderBatch(Graphics2D graphics) {
-
-		    if ( ! SKIP_RENDERING ) 
-		    {
-    			for ( PrimitiveWithDepth t : getTriangles() ) 
-    			{
-    				graphics.setColor( new Color( t.getColor() ) );
-    				drawPolygon( t.getPoints() , graphics , renderingMode );
-    			}
-		    }
-		    // TODO: Performance - Maybe clearing is not helping GC that much and should better be omitted ?
-			primitives.clear();
+		/**
+		 * Returns the depth the painter's algorithm sorts a primitive by.
+		 * 
+		 * @param primitive
+		 * @return view-space depth of the primitive's farthest vertex
+		 */
+		public float getDepth(int primitive) {
+			return depths[ primitive ];
 		}
-
-		private List<PrimitiveWithDepth> getTriangles() 
+		
+		/**
+		 * Draw all primitives in the order they were queued.
+		 */
+		public void renderBatch(TiledRasterizer rasterizer) 
 		{
-			Collections.sort( primitives , new Comparator<PrimitiveWithDepth>() {
-
-				@Override
-				public int compare(PrimitiveWithDepth o1, PrimitiveWithDepth o2) 
-				{
-					float z1 = o1.getDepth();
-					float z2 = o2.getDepth();
-
-					if ( z1 > z2 ) {
-						return -1;
-					} else if ( z1 < z2 ) {
-						return 1;
-					}
-					return 0;
-				}
-			});
-			return primitives;
+			for ( int i = 0 ; i < primitiveCount ; i++ ) {
+				renderPrimitive( i , rasterizer );
+			}
+		}
+		
+		public void renderPrimitive(int p,TiledRasterizer rasterizer) {
+			drawPolygon( xs[p] , ys[p] , ws[p] , indices[p] , firstIndex[p] , vertexCounts[p] , colors[p] , rasterizer , renderingMode );
 		}
 	}
 
@@ -254,119 +458,260 @@ public final class SoftwareRenderer
 	{
 		this.world = world;
 	}
-
-	protected final class RenderThread implements Runnable {
-
-		private final Graphics2D graphics;
-		private final Object3D object;
-		private final Matrix viewProjectionMatrix;
-
-		public RenderThread(Object3D object,Matrix viewProjectionMatrix,Graphics2D graphics) {
-			this.graphics = graphics;
-			this.object = object;
-			this.viewProjectionMatrix = viewProjectionMatrix;
-		}
-
-		@Override
-		public void run() 
+	
+	/**
+	 * Starts rendering a frame.
+	 * 
+	 * <p>Swaps to the snapshot published last (or takes a new one if the world is not double-buffered)
+	 * and recalculates the world transforms and bounds of all objects whose model matrix changed. Package-private
+	 * so that benchmarks can set up a frame without rendering it.</p>
+	 * 
+	 * @return snapshot to render
+	 */
+	WorldSnapshot beginFrame() {
+		return beginFrame( null );
+	}
+	
+	/*
+	 * Starts rendering a frame as seen from the given camera or the world's own camera if it is null. 
+	 * Neither the world's camera nor the published snapshot are modified.
+	 */
+	private WorldSnapshot beginFrame(Camera camera) 
+	{
+		final WorldSnapshot source = world.getSnapshotToRender();
+		WorldSnapshot snapshot = source;
+		if ( camera != null ) 
 		{
-			final RenderingMode renderMode;
-			if ( object.isRenderOutline() ) {
-				renderMode = RenderingMode.RENDER_OUTLINE;
-			} else if ( object.isRenderWireframe() ) {
-				renderMode = RenderingMode.RENDER_WIREFRAME;
-			} else {
-				renderMode = RenderingMode.DEFAULT;
+			// reuse the previous snapshot if nothing changed , so the frame may be skipped
+			if ( source != cameraSnapshotSource || cameraSnapshot.getCamera().getVersion() != camera.getVersion() ) 
+			{
+				cameraSnapshot = source.withCamera( camera );
+				cameraSnapshotSource = source;
 			}
-
-			final PrimitiveBatch batch = new PrimitiveBatch(renderMode,object);
-
-			prepareRendering( object , viewProjectionMatrix , batch , graphics );
-			
-			if ( ! batch.isEmpty() ) {
-				batch.renderBatch( graphics );
-				
+			snapshot = cameraSnapshot;
+		}
+		
+		if ( transformHierarchy.update( snapshot ) ) {
+			boundsChanged = true;
+		}
+		
+		final int nodeCount = snapshot.getNodeCount();
+		if ( transformedVertices.length < nodeCount ) 
+		{
+			final int oldLength = transformedVertices.length;
+			transformedVertices = Arrays.copyOf( transformedVertices , nodeCount );
+			for ( int i = oldLength ; i < nodeCount ; i++ ) {
+				transformedVertices[i] = new TransformedVertices();
 			}
 		}
+		currentSnapshot = snapshot;
+		return snapshot;
 	}
-
-	public void paint(final Graphics g)
+	
+	/**
+	 * Returns the snapshot the current frame is rendered from.
+	 * 
+	 * @return snapshot or <code>null</code> if no frame has been started yet
+	 */
+	WorldSnapshot getCurrentSnapshot() {
+		return currentSnapshot;
+	}
+	
+	TransformHierarchy getTransformHierarchy() {
+		return transformHierarchy;
+	}
+	
+	/**
+	 * Returns a bounding volume hierarchy over all root objects of the current snapshot.
+	 * 
+	 * <p>The hierarchy is rebuilt if the root objects changed since the last call and 
+	 * {@link BoundingVolumeHierarchy#refit() refitted} if any objects moved.</p>
+	 * @return
+	 */
+	BoundingVolumeHierarchy getBoundingVolumeHierarchy() 
 	{
-		final Graphics2D graphics = (Graphics2D) g;
-
-		// clear canvas
-		graphics.setColor(Color.LIGHT_GRAY);
-		graphics.fillRect( 0 , 0, getWidth() , getHeight() );
-
-		final List<Object3D> objects = world.getObjects();
+		final List<Object3D> roots = currentSnapshot.getRoots();
+		if ( boundingVolumeHierarchy == null || boundingVolumeHierarchyRoots != roots ) 
+		{
+			boundingVolumeHierarchy = new BoundingVolumeHierarchy( roots , currentSnapshot.getRootNodes() , transformHierarchy );
+			boundingVolumeHierarchyRoots = roots;
+		}
+		else if ( boundsChanged ) {
+			boundingVolumeHierarchy.refit();
+		}
+		boundsChanged = false;
+		return boundingVolumeHierarchy;
+	}
 
-		final long start = -System.currentTimeMillis();
+	/**
+	 * Render the world into this renderer's frame buffer.
+	 * 
+	 * <p>Does not need a display. The frame buffer (along with all other per-frame data) 
+	 * is reused across frames as long as the renderer's width and height do not change.</p>
+	 * 
+	 * @return frame buffer holding the rendered frame , <code>null</code> if width or height are less than one
+	 */
+	public FrameBuffer render() {
+		return render( null );
+	}
 
-		// ** rendering start **
-		
-		final Matrix viewProjectionMatrix = world.getProjectionMatrix().multiply(  world.getViewMatrix() );
+	/*
+	 * Renders the world from the given camera or the world's own camera if it is null.
+	 */
+	FrameBuffer render(Camera camera)
+	{
+		if ( getWidth() < 1 || getHeight() < 1 ) { // not layouted yet
+			return null;
+		}
 
-		// latch used to wait until all objects have been calculated
-		final CountDownLatch latch = new CountDownLatch( objects.size() );
+		boolean newFrameBuffer = false;
+		if ( frameBuffer == null || ! frameBuffer.hasSize( getWidth() , getHeight() ) ) 
+		{
+			frameBuffer = new FrameBuffer( getWidth() , getHeight() );
+			rasterizer = new ScanlineRasterizer( frameBuffer );
+			tiledRasterizer = new TiledRasterizer( frameBuffer );
+			newFrameBuffer = true;
+		}
 
-		final AtomicLong renderingTime = new AtomicLong(0); // updated by rendering thread
+		// render workers only read the frozen snapshot , the world may already be modified for the next frame
+		final WorldSnapshot snapshot = beginFrame( camera );
 		
-		synchronized( batches ) {
-			batches.clear();
+		// unchanged snapshots are not re-published , so comparing by identity is sufficient
+		if ( skipUnchangedFrames && ! newFrameBuffer && snapshot == renderedSnapshot && 
+			 lightingVersion == renderedLightingVersion && depthMode == renderedDepthMode ) 
+		{
+			// frame buffer still holds the previous frame
+			lastRenderingTime = 0;
+			return frameBuffer;
 		}
+		renderedSnapshot = snapshot;
+		renderedLightingVersion = lightingVersion;
+		renderedDepthMode = depthMode;
 		
-		for( final Object3D obj : objects ) 
-		{
-			renderObject(graphics, viewProjectionMatrix, latch, renderingTime, obj , ! obj.hasChildren() );
+		// clear canvas
+		frameBuffer.clear( BACKGROUND_COLOR );
+
+		final boolean useDepthBuffer = depthMode == DepthMode.DEPTH_BUFFER;
+		if ( useDepthBuffer ) {
+			frameBuffer.clearDepth();
 		}
 
-		// wait until primitives for all visible objects have been queued
-		while( true ) 
+		final Matrix viewProjectionMatrix = snapshot.getViewProjectionMatrix();
+
+		// cull objects using the bounding volume hierarchy
+		final int[] nodes;
+		final int nodeCount;
+		if ( USE_FRUSTUM_CULLING ) 
 		{
-			try {
-				if ( latch.await(5,TimeUnit.SECONDS) ) 
-				{
-					break;
-				} else {
-					System.err.println("Rendering didn't return after 5 seconds?");
-				}
-			} catch(InterruptedException e) {
+			final BoundingVolumeHierarchy hierarchy = getBoundingVolumeHierarchy();
+			if ( visibleNodes.length < hierarchy.getObjectCount() ) {
+				visibleNodes = new int[ hierarchy.getObjectCount() * 2 ];
 			}
+			nodeCount = hierarchy.findVisibleNodes( snapshot.getFrustum() , visibleNodes );
+			nodes = visibleNodes;
+		} else {
+			nodes = snapshot.getRootNodes();
+			nodeCount = nodes.length;
 		}
 		
-		// render objects using painter's algorithm
+		// queue primitives of all visible objects , returns after all of them have been calculated
+		prepareRendering( snapshot , nodes , nodeCount , viewProjectionMatrix );
+		
+		// render objects using painter's algorithm or depth buffer
 		
 		final long renderStart = System.currentTimeMillis();
 		
-		synchronized( batches ) 
+		// bin primitives into screen tiles...
+		tiledRasterizer.clear();
+		if ( ! SKIP_RENDERING ) 
 		{
-			// sort objects ascending by distance to viewer...	
-			Collections.sort( batches , new Comparator<PrimitiveBatch>() {
-	
-				@Override
-				public int compare(PrimitiveBatch o1, PrimitiveBatch o2) 
-				{
-					final float d1 = o1.getDistanceToViewer();
-					final float d2 = o2.getDistanceToViewer();
-					if ( d1 > d2 ) {
-						return -1; // farther away , render first
-					} else if ( d1 < d2 ) {
-						return 1;
-					}
-					return 0;
+			if ( useDepthBuffer ) 
+			{
+				// no need to sort primitives when the depth buffer takes care of visibility
+				for ( int i = 0 ; i < batches.size() ; i++ ) {
+					batches.get(i).renderBatch( tiledRasterizer );
 				}
-			});
-			
-			for ( PrimitiveBatch batch : batches ) {
-				batch.renderBatch( graphics );
+			} else {
+				renderBackToFront( tiledRasterizer );
 			}
 		}
+		discardQueuedPrimitives();
+		
+		// ...and rasterize tiles in parallel , the calculation threads are idle by now
+		tiledRasterizer.render( calculationThreadPool , useDepthBuffer , OUTLINE_COLOR );
+		
+		lastRenderingTime = System.currentTimeMillis() - renderStart;
+		return frameBuffer;
+	}
+	
+	/**
+	 * Painter's algorithm , draws primitives of all batches sorted by depth (farthest first).
+	 * 
+	 * <p>Primitives are sorted as one list , so primitives of different objects are 
+	 * drawn in the correct order as well. Primitives with the same depth are drawn in the order they were queued.</p>
+	 */
+	private void renderBackToFront(TiledRasterizer rasterizer) 
+	{
+		int count = 0;
+		for ( int i = 0 ; i < batches.size() ; i++ ) {
+			count += batches.get(i).getPrimitiveCount();
+		}
+		if ( drawKeys.length < count ) 
+		{
+			final int newSize = Math.max( count , drawKeys.length * 2 );
+			drawKeys = new int[ newSize ];
+			drawEntries = new int[ newSize ];
+			entryBatch = new int[ newSize ];
+			entryPrimitive = new int[ newSize ];
+		}
+		
+		int entry = 0;
+		for ( int i = 0 ; i < batches.size() ; i++ ) 
+		{
+			final PrimitiveBatch batch = batches.get(i);
+			final int primitives = batch.getPrimitiveCount();
+			for ( int p = 0 ; p < primitives ; p++ , entry++ ) 
+			{
+				// invert key to sort descending by depth
+				drawKeys[ entry ] = ~RadixSort.sortableKey( batch.getDepth( p ) );
+				drawEntries[ entry ] = entry;
+				entryBatch[ entry ] = i;
+				entryPrimitive[ entry ] = p;
+			}
+		}
+		
+		radixSort.sort( drawKeys , drawEntries , count , calculationThreadPool );
+		
+		for ( int i = 0 ; i < count ; i++ ) 
+		{
+			final int e = drawEntries[i];
+			batches.get( entryBatch[ e ] ).renderPrimitive( entryPrimitive[ e ] , rasterizer );
+		}
+	}
+	
+	public void paint(final Graphics g)
+	{
+		final Graphics2D graphics = (Graphics2D) g;
+
+		final long start = -System.currentTimeMillis();
+
+		// ** rendering start **
+		
+		final FrameBuffer frameBuffer = render();
+		if ( frameBuffer == null ) { // not layouted yet
+			return;
+		}
+		
+		final long drawStart = System.currentTimeMillis();
+		
+		// push finished frame to the screen
+		graphics.drawImage( frameBuffer.getImage() , 0 , 0 , null );
 		
 		if ( RENDER_COORDINATE_SYSTEM ) {
 			renderCoordinateSystem(graphics);
 		}
 		
-		renderingTime.addAndGet( System.currentTimeMillis() - renderStart );
+		final long renderingTime = lastRenderingTime + System.currentTimeMillis() - drawStart;
 		
 		// ** rendering end **
 
@@ -374,7 +719,7 @@ public final class SoftwareRenderer
 
 		//  Render statistics
 		this.totalTime += totalTime;
-		this.totalRenderingTime += renderingTime.get();
+		this.totalRenderingTime += renderingTime;
 
 		frameCounter++;
 		
@@ -384,69 +729,178 @@ public final class SoftwareRenderer
 		final String fpsString = new DecimalFormat("###0.0#").format( fps );
 		final String drawingTimeString = new DecimalFormat("##0.0#").format( 100.0*(this.totalRenderingTime / (float) this.totalTime));
 
+		// show the state that was actually rendered
+		final WorldSnapshot snapshot = currentSnapshot;
 		g.setColor( Color.WHITE );
-		g.drawString( objects.size()+" objects in "+totalTime+" millis ( rendering time: "+drawingTimeString+"% , "+fpsString+" fps)" , 10 , 20 );
+		g.drawString( snapshot.getRoots().size()+" objects in "+totalTime+" millis ( rendering time: "+drawingTimeString+"% , "+fpsString+" fps)" , 10 , 20 );
 //		g.drawString( "Use A,D,W,S,Q,E to move , + and - minus to zoom , ESC to exit mouse look, ENTER to reset view position", 10 , 40 );
-		g.drawString( "Eye position: "+world.getCamera().getEyePosition() , 10 , 40 );
-		g.drawString( "Eye target: "+world.getCamera().getEyeTarget() , 10 , 60 );
-		g.drawString( "View vector: "+world.getCamera().getViewOrientation() , 10 , 80 );		
+		g.drawString( "Eye position: "+snapshot.getCamera().getEyePosition() , 10 , 40 );
+		g.drawString( "Eye target: "+snapshot.getCamera().getEyeTarget() , 10 , 60 );
+		g.drawString( "View vector: "+snapshot.getCamera().getViewOrientation() , 10 , 80 );		
 	}
 
-	private void renderObject(final Graphics2D graphics,
-			final Matrix viewProjectionMatrix, 
-			final CountDownLatch latch,
-			final AtomicLong renderingTime, 
-			final Object3D obj,final boolean isLastChild) 
+	/**
+	 * Queue primitives of objects and their children for rendering.
+	 * 
+	 * <p>Objects are processed on the calculation thread pool , this method only returns after
+	 * all objects have been processed. Each thread queues batches without any locking , they are
+	 * merged into {@link #batches} at the end. Package-private so that benchmarks can measure the
+	 * traversal on its own.</p>
+	 * 
+	 * <p>Children are looked up in the snapshot , never by following the (live) links between objects.</p>
+	 * 
+	 * @param snapshot snapshot of the current frame
+	 * @param nodes node IDs of the objects in the snapshot
+	 * @param nodeCount number of node IDs to process
+	 * @param viewProjectionMatrix
+	 */
+	void prepareRendering(WorldSnapshot snapshot,int[] nodes,int nodeCount,Matrix viewProjectionMatrix) 
 	{
-		calculationThreadPool.submit( new Runnable() {
+		discardQueuedPrimitives();
+		if ( nodeCount > 0 ) {
+			calculationThreadPool.invoke( new PrepareRenderingTask( snapshot , nodes , 0 , nodeCount , viewProjectionMatrix , Frustum.ALL_PLANES ) );
+		}
+		
+		for ( BatchQueue queue : batchQueues ) {
+			batches.addAll( queue.queued );
+		}
+	}
+	
+	/**
+	 * Discards all queued primitives , batches are kept for reuse.
+	 * 
+	 * <p>Package-private so that benchmarks can run {@link #prepareRendering(WorldSnapshot, int[], int, Matrix)} repeatedly.</p>
+	 */
+	void discardQueuedPrimitives() 
+	{
+		for ( BatchQueue queue : batchQueues ) 
+		{
+			for ( int i = 0 ; i < queue.queued.size() ; i++ ) {
+				queue.queued.get(i).clear();
+			}
+			queue.free.addAll( queue.queued );
+			queue.queued.clear();
+		}
+		batches.clear();
+	}
+	
+	/**
+	 * Queues primitives of a range of objects (and their children).
+	 * 
+	 * <p>Ranges are split in half until a single object remains , idle calculation threads
+	 * steal the other halves.</p>
+	 */
+	private final class PrepareRenderingTask extends RecursiveAction 
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final WorldSnapshot snapshot;
+		// node IDs of the objects to process
+		private final int[] nodes;
+		private final int from;
+		private final int to;
+		private final Matrix viewProjectionMatrix;
+		// frustum planes the objects need to be tested against
+		private final int planeMask;
+		
+		public PrepareRenderingTask(WorldSnapshot snapshot,int[] nodes, int from, int to, Matrix viewProjectionMatrix,int planeMask) 
+		{
+			this.snapshot = snapshot;
+			this.nodes = nodes;
+			this.from = from;
+			this.to = to;
+			this.viewProjectionMatrix = viewProjectionMatrix;
+			this.planeMask = planeMask;
+		}
 
-			@Override
-			public void run() 
+		@Override
+		protected void compute() 
+		{
+			if ( to - from > 1 ) 
 			{
-				try 
-				{
-					final RenderingMode renderMode;
-					if ( obj.isRenderOutline() ) {
-						renderMode = RenderingMode.RENDER_OUTLINE;
-					} else if ( obj.isRenderWireframe() ) {
-						renderMode = RenderingMode.RENDER_WIREFRAME;
-					} else {
-						renderMode = RenderingMode.DEFAULT;
-					}
-
-					final PrimitiveBatch batch = new PrimitiveBatch(renderMode,obj);
+				final int middle = ( from + to ) >>> 1;
+				invokeAll( new PrepareRenderingTask( snapshot , nodes , from , middle , viewProjectionMatrix , planeMask ) ,
+						   new PrepareRenderingTask( snapshot , nodes , middle , to , viewProjectionMatrix , planeMask ) );
+				return;
+			}
+			
+			final int node = nodes[ from ];
+			final int firstChild = snapshot.getChildOffsets()[ node ];
+			final int endChild = snapshot.getChildOffsets()[ node + 1 ];
+			if ( firstChild == endChild ) {
+				prepareObject( snapshot , node , viewProjectionMatrix , planeMask );
+				return;
+			}
+			
+			// accept or reject the whole subtree at once , descendants only need
+			// to be tested against the frustum planes the subtree intersects
+			int subtreePlaneMask = USE_FRUSTUM_CULLING ? planeMask : 0;
+			if ( subtreePlaneMask != 0 ) 
+			{
+				final float[] subtreeBounds = transformHierarchy.getSubtreeBounds();
+				subtreePlaneMask = snapshot.getFrustum().testContains( subtreeBounds , node * 6 , subtreePlaneMask );
+				if ( subtreePlaneMask == Frustum.OUTSIDE ) {
+					return;
+				}
+			}
+			prepareObject( snapshot , node , viewProjectionMatrix , subtreePlaneMask );
+			
+			new PrepareRenderingTask( snapshot , snapshot.getChildNodes() , firstChild , endChild , viewProjectionMatrix , subtreePlaneMask ).compute();
+		}
+	}
+	
+	/**
+	 * Returns an empty batch , taken from the current thread's free batches if possible.
+	 * 
+	 * @param renderingMode
+	 * @return
+	 */
+	private PrimitiveBatch obtainBatch(RenderingMode renderingMode) 
+	{
+		final List<PrimitiveBatch> free = batchQueue.get().free;
+		final PrimitiveBatch batch = free.isEmpty() ? new PrimitiveBatch() : free.remove( free.size() - 1 );
+		batch.reset( renderingMode );
+		return batch;
+	}
+	
+	/**
+	 * Queue primitives of a single object for rendering.
+	 * 
+	 * @param snapshot
+	 * @param node node ID of the object in the snapshot
+	 * @param viewProjectionMatrix
+	 * @param planeMask frustum planes the object needs to be tested against
+	 */
+	private void prepareObject(WorldSnapshot snapshot,int node,Matrix viewProjectionMatrix,int planeMask) 
+	{
+		final Object3D obj = snapshot.getNodes()[ node ];
+		try 
+		{
+			final byte flags = snapshot.getRenderingFlags()[ node ];
+			final RenderingMode renderMode;
+			if ( RenderingFlag.RENDER_OUTLINE.isFlagSet( flags ) ) {
+				renderMode = RenderingMode.RENDER_OUTLINE;
+			} else if ( RenderingFlag.RENDER_WIREFRAME.isFlagSet( flags ) ) {
+				renderMode = RenderingMode.RENDER_WIREFRAME;
+			} else {
+				renderMode = RenderingMode.DEFAULT;
+			}
 
-					prepareRendering( obj , viewProjectionMatrix , batch , graphics );
+			final PrimitiveBatch batch = obtainBatch( renderMode );
+			prepareRendering( snapshot , node , viewProjectionMatrix , planeMask , batch );
 
-					if ( ! batch.isEmpty() ) 
-					{
-						synchronized( batches ) {
-							batches.add( batch );
-						}
-						
-						if ( isLastChild && ! obj.hasChildren() ) { // only count down after a root object has been queued for rendering
-							latch.countDown();
-						}						
-						
-						// recursively render children only if parent was rendered
-						for ( Iterator<Object3D> it = obj.getChildren().iterator() ; it.hasNext(); ) 
-						{
-							renderObject( graphics , viewProjectionMatrix , latch , renderingTime , it.next() , ! it.hasNext() );
-						}
-					} 
-					else 
-					{
-						latch.countDown();
-					}
-				}
-				catch(Exception e) 
-				{
-					e.printStackTrace();
-				    System.err.println("Failed to render "+obj);
-					latch.countDown();
-				}
+			final BatchQueue queue = batchQueue.get();
+			if ( batch.isEmpty() ) {
+				queue.free.add( batch );
+			} else {
+				queue.queued.add( batch );
 			}
-		} );
+		}
+		catch(Exception e) 
+		{
+			e.printStackTrace();
+			System.err.println("Failed to render "+obj);
+		}
 	}
 
 	private void renderCoordinateSystem(Graphics2D graphics)
@@ -455,8 +909,9 @@ public final class SoftwareRenderer
 		final float TICK_DISTANCE = 0.5f;
 		final float TICK_LENGTH = 0.1f;
 
-		final Matrix viewMatrix = world.getViewMatrix();
-		final Matrix projectionMatrix = world.getProjectionMatrix();
+		final WorldSnapshot snapshot = currentSnapshot;
+		final Matrix viewMatrix = snapshot.getViewMatrix();
+		final Matrix projectionMatrix = snapshot.getProjectionMatrix();
 
 		// draw x axis
 		graphics.setColor( Color.RED );
@@ -504,124 +959,408 @@ public final class SoftwareRenderer
 		drawString( label , project( p2 , projectionMatrix ) , graphics );
 	}
 
-	private void prepareRendering(Object3D obj , Matrix viewProjectionMatrix , PrimitiveBatch batch , Graphics2D graphics) {
+	/*
+	 * Package-private so that benchmarks can measure the geometry stage on its own.
+	 * 
+	 * The snapshot must be the one the current frame was started with , planeMask holds the frustum planes the object needs to be tested against.
+	 */
+	void prepareRendering(final WorldSnapshot snapshot , final int node , final Matrix viewProjectionMatrix , int planeMask , PrimitiveBatch batch) {
 
-		final Matrix modelMatrix = obj.getModelMatrix();
-		final Matrix viewMatrix = world.getViewMatrix();
-		final Matrix projectionMatrix = world.getProjectionMatrix();
+		final Object3D obj = snapshot.getNodes()[ node ];
+		final AffineMatrix modelMatrix = transformHierarchy.getWorldTransform( node );
+		final PrimitiveClusters clusters = obj.getClusters();
 		
-		final Matrix modelView = modelMatrix.multiply(viewMatrix);
+		/* Frustum culling , root objects have already been culled using the bounding volume hierarchy and objects
+		 * with children using the bounds of their subtree. Clustered root objects are tested anyway to find out which 
+		 * planes their clusters need to be tested against.
+		 */
+		if ( ! USE_FRUSTUM_CULLING ) {
+			planeMask = 0;
+		}
+		if ( planeMask != 0 && ( snapshot.getParents()[ node ] != -1 || snapshot.getSubtreeSizes()[ node ] > 1 || clusters != null ) ) 
+		{
+			planeMask = snapshot.getFrustum().testContains( obj , modelMatrix , planeMask );
+			if ( planeMask == Frustum.OUTSIDE ) {
+				return;
+			}
+		}		
+
+		// transform each vertex exactly once , primitives
+		// look up their vertices using the offsets stored in the edges array
+		final TransformedVertices transformed = transformedVertices[ node ];
+		final byte[] vertexCounts = obj.getVertexCounts();
 		
-		// Frustum culling
-		if ( USE_FRUSTUM_CULLING && world.getFrustum().testContains( modelView , obj ) == Frustum.TestResult.OUTSIDE ) 
+		// face normals are only rotated , not re-calculated from the transformed vertices
+		final Matrix normalMatrix = modelMatrix.normalMatrix();
+		transformed.setPrimitiveCount( vertexCounts.length );
+		
+		if ( clusters != null ) {
+			prepareClusters( snapshot , node , clusters , planeMask , viewProjectionMatrix , normalMatrix , batch );
+			return;
+		}
+		
+		final int ranges = rangeCount( vertexCounts.length );
+		if ( ranges == 1 ) 
 		{
+			transformed.transform( obj , modelMatrix , viewProjectionMatrix );
+			transformed.transformNormals( obj.getFaceNormals() , normalMatrix , 0 , vertexCounts.length );
+			preparePrimitives( snapshot , node , 0 , vertexCounts.length , 0 , batch );
 			return;
-		}		
+		}
+		
+		// large object , process ranges of vertices and primitives in parallel
+		final int vertexCount = obj.getPointCount();
+		transformed.setVertexCount( vertexCount );
+		
+		final RecursiveAction[] vertexTasks = new RecursiveAction[ ranges ];
+		for ( int i = 0 ; i < ranges ; i++ ) 
+		{
+			final int firstVertex = rangeStart( i , ranges , vertexCount );
+			final int endVertex = rangeStart( i + 1 , ranges , vertexCount );
+			vertexTasks[i] = new RecursiveAction() {
+				
+				@Override
+				protected void compute() {
+					transformed.transform( obj , modelMatrix , viewProjectionMatrix , firstVertex , endVertex );
+				}
+			};
+		}
+		invokeAll( vertexTasks );
+		
+		final int[] primitiveRanges = new int[ ranges * 3 ];
+		int firstIndex = 0;
+		int primitive = 0;
+		for ( int i = 0 ; i < ranges ; i++ ) 
+		{
+			final int endPrimitive = rangeStart( i + 1 , ranges , vertexCounts.length );
+			primitiveRanges[ i * 3 ] = primitive;
+			primitiveRanges[ i * 3 + 1 ] = endPrimitive;
+			primitiveRanges[ i * 3 + 2 ] = firstIndex;
+			for ( ; primitive < endPrimitive ; primitive++ ) {
+				firstIndex += vertexCounts[ primitive ];
+			}
+		}
+		
+		final PrimitiveRangeTask[] primitiveTasks = new PrimitiveRangeTask[ ranges ];
+		for ( int i = 0 ; i < ranges ; i++ ) {
+			primitiveTasks[i] = new PrimitiveRangeTask( snapshot , node , normalMatrix , primitiveRanges , i , i + 1 , batch.getRenderingMode() );
+		}
+		invokeAll( primitiveTasks );
+		mergeResults( primitiveTasks , batch );
+	}
+	
+	/**
+	 * Cull an object's clusters and prepare the primitives of all visible clusters.
+	 */
+	private void prepareClusters(WorldSnapshot snapshot , int node , PrimitiveClusters clusters , int planeMask , final Matrix viewProjectionMatrix , Matrix normalMatrix , PrimitiveBatch batch) 
+	{
+		final Object3D obj = snapshot.getNodes()[ node ];
+		final AffineMatrix modelMatrix = transformHierarchy.getWorldTransform( node );
+		final TransformedVertices transformed = transformedVertices[ node ];
+		transformed.setVertexCount( obj.getPointCount() );
+		
+		final boolean cullBackfaces = ! RENDER_WIREFRAME && batch.getRenderingMode() != RenderingMode.RENDER_WIREFRAME;
+		final int primitiveCount = clusters.cull( modelMatrix , snapshot.getFrustum() , planeMask , snapshot.getCamera().getEyePosition() , cullBackfaces , transformed );
+		if ( primitiveCount == 0 ) {
+			return;
+		}
+		
+		final int[] vertexRanges = transformed.getVertexRanges();
+		final int vertexRangeCount = transformed.getVertexRangeCount();
+		final int[] primitiveRanges = transformed.getPrimitiveRanges();
+		final int primitiveRangeCount = transformed.getPrimitiveRangeCount();
+		
+		final int ranges = rangeCount( primitiveCount );
+		if ( ranges == 1 ) 
+		{
+			for ( int i = 0 ; i < vertexRangeCount ; i++ ) {
+				transformed.transform( obj , modelMatrix , viewProjectionMatrix , vertexRanges[ i * 2 ] , vertexRanges[ i * 2 + 1 ] );
+			}
+			preparePrimitives( snapshot , node , normalMatrix , primitiveRanges , 0 , primitiveRangeCount , batch );
+			return;
+		}
+		
+		// split vertex ranges into parts of roughly the same size
+		int vertexCount = 0;
+		for ( int i = 0 ; i < vertexRangeCount ; i++ ) {
+			vertexCount += vertexRanges[ i * 2 + 1 ] - vertexRanges[ i * 2 ];
+		}
+		final RecursiveAction[] vertexTasks = new RecursiveAction[ ranges ];
+		for ( int i = 0 ; i < ranges ; i++ ) 
+		{
+			final int firstVertex = rangeStart( i , ranges , vertexCount );
+			final int endVertex = rangeStart( i + 1 , ranges , vertexCount );
+			vertexTasks[i] = new RecursiveAction() {
+				
+				@Override
+				protected void compute() 
+				{
+					// vertices firstVertex ... endVertex-1 counted across all ranges
+					int start = 0;
+					for ( int range = 0 ; range < vertexRangeCount && start < endVertex ; range++ ) 
+					{
+						final int first = vertexRanges[ range * 2 ];
+						final int end = vertexRanges[ range * 2 + 1 ];
+						final int from = Math.max( firstVertex , start );
+						final int to = Math.min( endVertex , start + end - first );
+						if ( from < to ) {
+							transformed.transform( obj , modelMatrix , viewProjectionMatrix , first + from - start , first + to - start );
+						}
+						start += end - first;
+					}
+				}
+			};
+		}
+		invokeAll( vertexTasks );
+		
+		// primitive ranges hold at most one cluster each , split at range boundaries
+		final PrimitiveRangeTask[] primitiveTasks = new PrimitiveRangeTask[ ranges ];
+		int firstRange = 0;
+		int primitives = 0;
+		for ( int i = 0 ; i < ranges ; i++ ) 
+		{
+			final int endPrimitive = rangeStart( i + 1 , ranges , primitiveCount );
+			int endRange = firstRange;
+			for ( ; endRange < primitiveRangeCount && primitives < endPrimitive ; endRange++ ) {
+				primitives += primitiveRanges[ endRange * 3 + 1 ] - primitiveRanges[ endRange * 3 ];
+			}
+			primitiveTasks[i] = new PrimitiveRangeTask( snapshot , node , normalMatrix , primitiveRanges , firstRange , endRange , batch.getRenderingMode() );
+			firstRange = endRange;
+		}
+		invokeAll( primitiveTasks );
+		mergeResults( primitiveTasks , batch );
+	}
+	
+	/**
+	 * Merge results of primitive range tasks in order , so primitives are queued in the same order as when processing sequentially.
+	 */
+	private void mergeResults(PrimitiveRangeTask[] tasks,PrimitiveBatch batch) 
+	{
+		final BatchQueue queue = batchQueue.get();
+		for ( PrimitiveRangeTask task : tasks ) 
+		{
+			batch.addAll( task.result );
+			task.result.clear();
+			queue.free.add( task.result );
+		}
+	}
+	
+	/**
+	 * Returns the number of ranges an object's primitives should be split into.
+	 * 
+	 * @param primitiveCount
+	 * @return
+	 */
+	private int rangeCount(int primitiveCount) 
+	{
+		final int ranges = Math.min( calculationThreadPool.getParallelism() * RANGES_PER_THREAD , primitiveCount / MIN_PRIMITIVES_PER_RANGE );
+		return Math.max( 1 , ranges );
+	}
+	
+	private static int rangeStart(int range,int ranges,int count) {
+		return (int) ( (long) count * range / ranges );
+	}
+	
+	private void invokeAll(final RecursiveAction[] tasks) 
+	{
+		if ( ForkJoinTask.inForkJoinPool() ) {
+			ForkJoinTask.invokeAll( tasks );
+			return;
+		}
+		calculationThreadPool.invoke( new RecursiveAction() {
+			
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll( tasks );
+			}
+		});
+	}
+	
+	/**
+	 * Queues some of an object's primitive ranges into a batch of its own.
+	 */
+	private final class PrimitiveRangeTask extends RecursiveAction 
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final WorldSnapshot snapshot;
+		private final int node;
+		private final Matrix normalMatrix;
+		private final int[] primitiveRanges;
+		private final int firstRange;
+		private final int endRange;
+		private final RenderingMode renderingMode;
+		
+		public PrimitiveBatch result;
+		
+		public PrimitiveRangeTask(WorldSnapshot snapshot, int node, Matrix normalMatrix, int[] primitiveRanges, int firstRange, int endRange, RenderingMode renderingMode) 
+		{
+			this.snapshot = snapshot;
+			this.node = node;
+			this.normalMatrix = normalMatrix;
+			this.primitiveRanges = primitiveRanges;
+			this.firstRange = firstRange;
+			this.endRange = endRange;
+			this.renderingMode = renderingMode;
+		}
 
+		@Override
+		protected void compute() 
+		{
+			result = obtainBatch( renderingMode );
+			preparePrimitives( snapshot , node , normalMatrix , primitiveRanges , firstRange , endRange , result );
+		}
+	}
+	
+	/**
+	 * Transform face normals of and prepare several ranges of primitives.
+	 * 
+	 * @param snapshot
+	 * @param node node ID of the object in the snapshot
+	 * @param normalMatrix
+	 * @param primitiveRanges first primitive , end primitive and first edge index of each range
+	 * @param firstRange
+	 * @param endRange
+	 * @param batch
+	 */
+	private void preparePrimitives(WorldSnapshot snapshot,int node,Matrix normalMatrix,int[] primitiveRanges,int firstRange,int endRange,PrimitiveBatch batch) 
+	{
+		final TransformedVertices transformed = transformedVertices[ node ];
+		final float[] faceNormals = snapshot.getNodes()[ node ].getFaceNormals();
+		for ( int range = firstRange ; range < endRange ; range++ ) 
+		{
+			final int firstPrimitive = primitiveRanges[ range * 3 ];
+			final int endPrimitive = primitiveRanges[ range * 3 + 1 ];
+			transformed.transformNormals( faceNormals , normalMatrix , firstPrimitive , endPrimitive );
+			preparePrimitives( snapshot , node , firstPrimitive , endPrimitive , primitiveRanges[ range * 3 + 2 ] , batch );
+		}
+	}
+	
+	/**
+	 * Backface culling , lighting and clipping of a range of primitives.
+	 * 
+	 * <p>The object's vertices need to be transformed already.</p>
+	 * 
+	 * @param snapshot
+	 * @param node node ID of the object in the snapshot
+	 * @param firstPrimitive index of first primitive to process
+	 * @param endPrimitive index of the primitive after the last one to process
+	 * @param firstIndex offset of the first primitive's first vertex in the object's edges array
+	 * @param batch batch to queue primitives in
+	 */
+	private void preparePrimitives(WorldSnapshot snapshot,int node,int firstPrimitive,int endPrimitive,int firstIndex,PrimitiveBatch batch) 
+	{
+		final Object3D obj = snapshot.getNodes()[ node ];
+		final Matrix viewMatrix = snapshot.getViewMatrix();
+		final Matrix projectionMatrix = snapshot.getProjectionMatrix();
+		
 		Matrix normalMatrix = null;
 		if ( SHOW_NORMALS ) {
+			final AffineMatrix modelView = transformHierarchy.getWorldTransform( node ).multiply( snapshot.getCamera().getAffineViewMatrix() );
 			// normal/directional vectors need to be multiplied with
 			// the inverted+transposed modelView matrix because we must not
 			// apply translation to them
-			normalMatrix = modelView.invert().transpose();
+			normalMatrix = modelView.invert().toMatrix().transpose();
 		}
 
 		final boolean renderWireframe = RENDER_WIREFRAME || batch.getRenderingMode() == RenderingMode.RENDER_WIREFRAME;
 		
-		final Vector4 eyePosition = world.getCamera().getEyePosition();
-
-		// calculate distance of object to viewer based on bounding box
-		final Vector4[] bbPoints = obj.getOrientedBoundingBox().getPoints();
-		modelMatrix.multiplyInPlace( bbPoints );
-		float maxDistance = 0;
-		for ( Vector4 vertex : bbPoints ) 
-		{
-			float distance = vertex.distanceTo( eyePosition );
-			if ( distance > maxDistance ) {
-				maxDistance = distance;
-			}
-		}
-		batch.setDistanceToViewer( maxDistance );
+		final Vector4 eyePosition = snapshot.getCamera().getEyePosition();
+
+		final TransformedVertices transformed = transformedVertices[ node ];
+		final float[] worldXs = transformed.getWorldXs();
+		final float[] worldYs = transformed.getWorldYs();
+		final float[] worldZs = transformed.getWorldZs();
+		final float[] worldNormals = transformed.getWorldNormals();
+		final float[] clipWs = transformed.getClipWs();
+		final float[] ndcXs = transformed.getNDCXs();
+		final float[] ndcYs = transformed.getNDCYs();
+		final int[] outCodes = transformed.getOutCodes();
+		
+		final int[] edges = obj.getEdges();
+		final byte[] vertexCounts = obj.getVertexCounts();
+		// colors may have been changed by the simulation already
+		final int[] colors = snapshot.getColors()[ node ];
+		
+		final float eyeX = eyePosition.x();
+		final float eyeY = eyePosition.y();
+		final float eyeZ = eyePosition.z();
+		
+		final float lightX = lightPosition.x();
+		final float lightY = lightPosition.y();
+		final float lightZ = lightPosition.z();
 		
 		int count = 0;
-		for ( IConvexPolygon t : obj )
+		for ( int primitive = firstPrimitive ; primitive < endPrimitive ; firstIndex += vertexCounts[ primitive++ ] )
 		{
-			final Vector4[] originalPoints = t.getAllPoints();
-			final Vector4[] points = new Vector4[ originalPoints.length ];
-
-            // apply model transformation			
-			for ( int i = 0 ; i < points.length ; i++ ) {
-				// multiply() returns NEW vector instances so it's safe to use multiplyInPlace() afterwards
-				points[i] = modelMatrix.multiply( originalPoints[i] );
-			}
-
-			Vector4 p1 = points[0];
-			Vector4 p2 = points[1];
-			Vector4 p3 = points[2];
+			final int vertexCount = vertexCounts[ primitive ];
 			
-			/* Calculate surface normal.
-			 * 
-			 * For this to work, the vertices p1,p2,p3 need to be in COUNTER clock-wise orientation, 
-			 * otherwise the normal vector will point inside the object.
-			 */
-			final Vector4 vec1 = p2.minus( p1 );
-			final Vector4 vec2 = p3.minus( p1 );
-
-			final Vector4 normal = vec1.crossProduct( vec2 );			
+			final int p1 = edges[ firstIndex ] >> 2;
+			
+			final float x1 = worldXs[ p1 ];
+			final float y1 = worldYs[ p1 ];
+			final float z1 = worldZs[ p1 ];
+			
+			final int normalOffset = primitive * 3;
+			final float normalX = worldNormals[ normalOffset ];
+			final float normalY = worldNormals[ normalOffset + 1 ];
+			final float normalZ = worldNormals[ normalOffset + 2 ];
 
 			// calculate angle between surface normal and view vector
-			final Vector4 viewVector = eyePosition.minus( p1 );			
-			final float viewDotProduct= viewVector.dotProduct( normal );
+			final float viewDotProduct = (eyeX - x1) * normalX + (eyeY - y1) * normalY + (eyeZ - z1) * normalZ;
 
 			if ( viewDotProduct < 0 && ! renderWireframe ) {
 				continue;
 			}
 			
-			final Vector4 lightVector = lightPosition.minus( p1 );			
+			// trivially reject / clip against near plane and guard band
+			int allOutCodes = ~0;
+			int anyOutCodes = 0;
+			for ( int i = 0 ; i < vertexCount ; i++ ) 
+			{
+				final int code = outCodes[ edges[ firstIndex + i ] >> 2 ];
+				allOutCodes &= code;
+				anyOutCodes |= code;
+			}
+			
+			if ( ClipSpaceClipper.isOutside( allOutCodes ) ) {
+				continue;
+			}
 			
 			if ( SHOW_NORMALS ) 
 			{
-				// transform points using view matrix
-				viewMatrix.multiplyInPlace( points );    
-
-				if ( ( count++ % 2 ) == 0 ) {
-					graphics.setColor( Color.GREEN );
-				} else {
-					graphics.setColor( Color.MAGENTA );
-				}
+				final Vector4 start = viewMatrix.multiply( new Vector4( x1 , y1 , z1 ) );
+				final Vector4 normal = new Vector4( normalX , normalY , normalZ );
 
-				final Vector4 end = p1.plus( normalMatrix.multiply( normal ).normalize().multiply(2f) );
-				drawLine( project( p1 , projectionMatrix ) , project( end , projectionMatrix ) , graphics );
+				final int normalColor = ( count++ % 2 ) == 0 ? Color.GREEN.getRGB() : Color.MAGENTA.getRGB();
 
-				// do perspective projection by multiplying with projectionMatrix and
-				// dividing coordinates by W
-				projectionMatrix.multiplyInPlaceAndNormalizeW( points );
+				final Vector4 end = start.plus( normalMatrix.multiply( normal ).normalize().multiply(2f) );
+				synchronized( rasterizer ) {
+					drawLine( project( start , projectionMatrix ) , project( end , projectionMatrix ) , normalColor , rasterizer );
+				}
 			} 
-			else 
-			{
-				// do perspective projection by multiplying with projectionMatrix and
-				// dividing coordinates by W            	
-				viewProjectionMatrix.multiplyInPlaceAndNormalizeW( points );
-			}
 			
-			// ============= all vertices are in NDC (normalized device coordinates ) from here on ============
-
-			// do flat shading using the already calculated angle between the surface
+			// do flat shading using the angle between the surface
 			// normal and the light vector
 			int color;
 			if ( renderWireframe || DISABLE_LIGHTING ) 
 			{
-				color = t.getColor();
+				color = colors[ primitive ];
 			} 
 			else 
 			{
-		        final float lightDotProduct= lightVector.dotProduct( normal ); 
+				final float lightVecX = lightX - x1;
+				final float lightVecY = lightY - y1;
+				final float lightVecZ = lightZ - z1;
+		        final float lightDotProduct= lightVecX * normalX + lightVecY * normalY + lightVecZ * normalZ; 
 				float factor;
 				if ( lightDotProduct < 0 ) { // surface does not point towards the light source
 					factor = ambientLightFactor;
 				} else 
 				{
-					float len = lightVector.length() * normal.length();
+					final float lightLength = (float) Math.sqrt( lightVecX*lightVecX + lightVecY*lightVecY + lightVecZ*lightVecZ );
+					final float normalLength = (float) Math.sqrt( normalX*normalX + normalY*normalY + normalZ*normalZ );
+					float len = lightLength * normalLength;
 					factor = (float) ( 1 - Math.acos( lightDotProduct / len ) / Constants.PI_HALF );
 					if ( len < 1 ) {
 						len = 1;
@@ -632,14 +1371,34 @@ public final class SoftwareRenderer
 				if ( factor < ambientLightFactor ) {
 					factor = ambientLightFactor;
 				} 
-				int r = (int) (factor * ((t.getColor() >> 16 ) & 0xff));
-				int g = (int) (factor * ((t.getColor() >> 8 )  & 0xff));
-				int b = (int) (factor * (t.getColor()          & 0xff));
+				final int primitiveColor = colors[ primitive ];
+				int r = (int) (factor * ((primitiveColor >> 16 ) & 0xff));
+				int g = (int) (factor * ((primitiveColor >> 8 )  & 0xff));
+				int b = (int) (factor * (primitiveColor          & 0xff));
 				color = (r << 16 | g << 8 | b); 					
 			}
 			
 			// queue primitives for rendering
-			batch.add( color , points );
+			if ( ! ClipSpaceClipper.needsClipping( anyOutCodes ) ) 
+			{
+				batch.add( color , ndcXs , ndcYs , clipWs , edges , firstIndex , vertexCount );
+				continue;
+			}
+			
+			// clipping needs to happen before dividing by W
+			final float[] clipped = ClipSpaceClipper.clip( transformed.getClipXs() , transformed.getClipYs() , transformed.getClipZs() , clipWs , edges , firstIndex , vertexCount , anyOutCodes );
+			if ( clipped != null ) 
+			{
+				// perspective division , W is kept for depth buffering
+				for ( int offset = 0 ; offset < clipped.length ; offset += 4 ) 
+				{
+					final float w = clipped[ offset + 3 ];
+					clipped[ offset ] /= w;
+					clipped[ offset + 1 ] /= w;
+					clipped[ offset + 2 ] /= w;
+				}
+				batch.add( color , clipped );
+			}
 		}
 	}
 
@@ -647,74 +1406,75 @@ public final class SoftwareRenderer
 		return projectionMatrix.multiply( in ).normalizeW();
 	}
 
-	protected void drawPolygon(Vector4[] points,Graphics2D graphics,RenderingMode mode) 
+	/**
+	 * Draw a polygon.
+	 * 
+	 * @param xs NDC X components or (if <code>indices</code> is <code>null</code>) NDC vertices stored consecutively in x,y,z,w order
+	 * @param ys NDC Y components , ignored if <code>indices</code> is <code>null</code>
+	 * @param ws view-space depths , ignored if <code>indices</code> is <code>null</code>
+	 * @param indices vertex offsets , the vertex at offset <code>n</code> is stored at index <code>n/4</code> of the component arrays
+	 */
+	protected void drawPolygon(float[] xs,float[] ys,float[] ws,int[] indices,int firstIndex,int len,int color,TiledRasterizer rasterizer,RenderingMode mode) 
 	{
-		if ( mode == RenderingMode.RENDER_WIREFRAME|| RENDER_WIREFRAME ) {
-			drawWirePolygon( points , graphics );    				
-		} else {
-			drawFilledPolygon( points , graphics );
-			if ( mode == RenderingMode.RENDER_OUTLINE|| RENDER_OUTLINES ) {
-				Color c = graphics.getColor();
-				graphics.setColor( Color.BLACK );
-				drawWirePolygon(points, graphics);
-				graphics.setColor( c );
-			}
-		}    	
-	}
-
-	protected void drawFilledPolygon(Vector4[] points,Graphics2D graphics) {
-
-		final int len = points.length;
-
-		final int x[] = new int[len];
-		final int y[] = new int[len];
+		if ( len > screenX.length ) {
+			screenX = new float[ len ];
+			screenY = new float[ len ];
+			screenDepth = new float[ len ];
+		}
 
-		for ( int i = 0 ; i < len ; i++ ) {
-			x[i] = screenX( points[i] );
-			y[i] = screenY( points[i] );
+		// W still holds the view-space depth after the perspective divide
+		if ( indices != null ) 
+		{
+			for ( int i = 0 ; i < len ; i++ ) {
+				final int vertex = indices[ firstIndex + i ] >> 2;
+				screenX[i] = xOffset + xs[ vertex ] * scaleX;
+				screenY[i] = yOffset - ys[ vertex ] * scaleY;
+				screenDepth[i] = 1.0f / ws[ vertex ];
+			}
+		} 
+		else 
+		{
+			for ( int i = 0 , offset = 0 ; i < len ; i++ , offset += 4 ) {
+				screenX[i] = xOffset + xs[ offset ] * scaleX;
+				screenY[i] = yOffset - xs[ offset + 1 ] * scaleY;
+				screenDepth[i] = 1.0f / xs[ offset + 3 ];
+			}
 		}
 
-		graphics.fillPolygon( x , y , points.length );
-		if ( RENDER_OUTLINES ) {
-			graphics.getColor();
+		RenderingMode effectiveMode = mode;
+		if ( RENDER_WIREFRAME ) {
+			effectiveMode = RenderingMode.RENDER_WIREFRAME;
+		} else if ( RENDER_OUTLINES && mode == RenderingMode.DEFAULT ) {
+			effectiveMode = RenderingMode.RENDER_OUTLINE;
 		}
-	}    
+		// frame buffer ignores the alpha channel but we don't want to pass on garbage
+		rasterizer.add( screenX , screenY , screenDepth , len , 0xff000000 | color , effectiveMode );
+	}
 
-	protected void drawWirePolygon(Vector4[] points,Graphics2D graphics) 
+	private void drawLine(Vector4 p1 , Vector4 p2,int color,ScanlineRasterizer rasterizer) 
 	{
-		final int len = points.length;
-
-		final int x[] = new int[len];
-		final int y[] = new int[len];
-
-		for ( int i = 0 ; i < len ; i++ ) {
-			x[i] = screenX( points[i] );
-			y[i] = screenY( points[i] );
-		}    	
-		graphics.drawPolygon( x , y , points.length );        
+		rasterizer.drawLine( screenX( p1 ) , screenY( p1 ) , screenX( p2 ) , screenY( p2 ) , color );
 	}
 
 	private void drawLine(Vector4 p1 , Vector4 p2,Graphics2D graphics) 
 	{
-		graphics.drawLine( screenX( p1 ), 
-				screenY( p1 ) , 
-				screenX( p2 ) , 
-				screenY( p2 ) );
+		graphics.drawLine( (int) screenX( p1 ), 
+				(int) screenY( p1 ) , 
+				(int) screenX( p2 ) , 
+				(int) screenY( p2 ) );
 	}
 
 	private void drawString(String s, Vector4 p1 , Graphics2D graphics) 
 	{
-		graphics.drawString( s , screenX( p1 ) , screenY( p1 ) );
+		graphics.drawString( s , (int) screenX( p1 ) , (int) screenY( p1 ) );
 	}  
 
-	private int screenX(Vector4 vector) {
-		final float val = xOffset + vector.x() * scaleX;
-		return (int) val;
+	private float screenX(Vector4 vector) {
+		return xOffset + vector.x() * scaleX;
 	}
 
-	private int screenY(Vector4 vector) {
-		final float val = yOffset - vector.y() * scaleY;
-		return (int) val;
+	private float screenY(Vector4 vector) {
+		return yOffset - vector.y() * scaleY;
 	}      
 
 }
\ No newline at end of file
@@ -0,0 +1,303 @@
+package de.codesourcery.engine.render;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.codesourcery.engine.render.SoftwareRenderer.RenderingMode;
+
+/**
+ * Sort-middle rasterization stage.
+ *
+ * <p>Screen-space primitives are queued in draw order and binned into square
+ * screen tiles ({@link #TILE_SIZE} pixels). {@link #render(ForkJoinPool, boolean, int)} then
+ * rasterizes whole tiles on multiple threads. Since every tile covers a disjoint
+ * region of the frame buffer, no locking is required and primitives within a
+ * tile are still drawn in the order they were queued (as required by the painter's algorithm).</p>
+ *
+ * <p>Queueing primitives is not thread-safe.</p>
+ */
+public final class TiledRasterizer
+{
+	public static final int TILE_SIZE = 64;
+
+	private final FrameBuffer frameBuffer;
+	private final int tilesX;
+	private final int tilesY;
+
+	// queued primitives , vertex data is stored in screen coordinates
+	private int primitiveCount;
+	private int vertexCount;
+
+	private float[] xs = new float[ 4 * 1024 ];
+	private float[] ys = new float[ 4 * 1024 ];
+	private float[] depths = new float[ 4 * 1024 ];
+
+	private int[] firstVertex = new int[ 1024 ];
+	private int[] vertexCounts = new int[ 1024 ];
+	private int[] colors = new int[ 1024 ];
+	private RenderingMode[] renderingModes = new RenderingMode[ 1024 ];
+
+	// indices of primitives overlapping each tile , in draw order
+	private final int[][] bins;
+	private final int[] binSizes;
+
+	// one rasterizer per rendering thread
+	private ScanlineRasterizer[] rasterizers = new ScanlineRasterizer[0];
+
+	public TiledRasterizer(FrameBuffer frameBuffer)
+	{
+		this.frameBuffer = frameBuffer;
+		this.tilesX = ( frameBuffer.getWidth() + TILE_SIZE - 1 ) / TILE_SIZE;
+		this.tilesY = ( frameBuffer.getHeight() + TILE_SIZE - 1 ) / TILE_SIZE;
+		this.bins = new int[ tilesX * tilesY ][];
+		this.binSizes = new int[ tilesX * tilesY ];
+		for ( int i = 0 ; i < bins.length ; i++ ) {
+			bins[i] = new int[ 64 ];
+		}
+	}
+
+	public FrameBuffer getFrameBuffer() {
+		return frameBuffer;
+	}
+
+	public int getPrimitiveCount() {
+		return primitiveCount;
+	}
+
+	/**
+	 * Discards all queued primitives.
+	 */
+	public void clear()
+	{
+		primitiveCount = 0;
+		vertexCount = 0;
+		for ( int i = 0 ; i < binSizes.length ; i++ ) {
+			binSizes[i] = 0;
+		}
+	}
+
+	/**
+	 * Queue a convex polygon for rendering.
+	 *
+	 * @param x screen X coordinates of the polygon's vertices
+	 * @param y screen Y coordinates of the polygon's vertices
+	 * @param depth depth (1/w) of the polygon's vertices
+	 * @param count number of vertices
+	 * @param color ARGB color
+	 * @param mode how to draw the polygon
+	 */
+	public void add(float[] x,float[] y,float[] depth,int count,int color,RenderingMode mode)
+	{
+		// determine screen-space bounding box
+		float minX = x[0];
+		float maxX = minX;
+		float minY = y[0];
+		float maxY = minY;
+		for ( int i = 1 ; i < count ; i++ )
+		{
+			if ( x[i] < minX ) {
+				minX = x[i];
+			}
+			if ( x[i] > maxX ) {
+				maxX = x[i];
+			}
+			if ( y[i] < minY ) {
+				minY = y[i];
+			}
+			if ( y[i] > maxY ) {
+				maxY = y[i];
+			}
+		}
+
+		// lines may touch the pixel that contains a vertex , so be generous
+		final int tileMinX = Math.max( 0 , (int) Math.floor( minX - 1 ) / TILE_SIZE );
+		final int tileMinY = Math.max( 0 , (int) Math.floor( minY - 1 ) / TILE_SIZE );
+		final int tileMaxX = Math.min( tilesX - 1 , (int) Math.floor( maxX + 1 ) / TILE_SIZE );
+		final int tileMaxY = Math.min( tilesY - 1 , (int) Math.floor( maxY + 1 ) / TILE_SIZE );
+		if ( tileMinX > tileMaxX || tileMinY > tileMaxY || ! ( minX <= maxX && minY <= maxY ) ) {
+			return; // off-screen (or NaN coordinates)
+		}
+
+		// store primitive
+		if ( primitiveCount == colors.length ) {
+			growPrimitives();
+		}
+		if ( vertexCount + count > xs.length ) {
+			growVertices( vertexCount + count );
+		}
+
+		final int index = primitiveCount++;
+		firstVertex[ index ] = vertexCount;
+		vertexCounts[ index ] = count;
+		colors[ index ] = color;
+		renderingModes[ index ] = mode;
+
+		System.arraycopy( x , 0 , xs , vertexCount , count );
+		System.arraycopy( y , 0 , ys , vertexCount , count );
+		System.arraycopy( depth , 0 , depths , vertexCount , count );
+		vertexCount += count;
+
+		// bin primitive
+		for ( int tileY = tileMinY ; tileY <= tileMaxY ; tileY++ )
+		{
+			for ( int tileX = tileMinX ; tileX <= tileMaxX ; tileX++ )
+			{
+				final int tile = tileY * tilesX + tileX;
+				int[] bin = bins[ tile ];
+				final int size = binSizes[ tile ];
+				if ( size == bin.length ) {
+					final int[] tmp = new int[ bin.length * 2 ];
+					System.arraycopy( bin , 0 , tmp , 0 , size );
+					bins[ tile ] = bin = tmp;
+				}
+				bin[ size ] = index;
+				binSizes[ tile ] = size + 1;
+			}
+		}
+	}
+
+	/**
+	 * Rasterize all queued primitives.
+	 *
+	 * <p>This method only returns after all tiles have been drawn. Exceptions thrown while drawing
+	 * a tile are rethrown to the caller , the frame buffer is incomplete in this case.</p>
+	 *
+	 * @param pool pool to run rendering threads on , one thread per unit of parallelism is used
+	 * @param useDepthBuffer whether to test against and update the frame buffer's depth buffer
+	 * @param outlineColor ARGB color used for {@link RenderingMode#RENDER_OUTLINE}
+	 */
+	public void render(ForkJoinPool pool,final boolean useDepthBuffer,final int outlineColor)
+	{
+		final int threads = Math.max( 1 , Math.min( pool.getParallelism() , bins.length ) );
+		if ( rasterizers.length < threads )
+		{
+			final ScanlineRasterizer[] tmp = new ScanlineRasterizer[ threads ];
+			for ( int i = 0 ; i < threads ; i++ ) {
+				tmp[i] = i < rasterizers.length ? rasterizers[i] : new ScanlineRasterizer( frameBuffer );
+			}
+			rasterizers = tmp;
+		}
+
+		// each task renders tiles until none are left , so tiles are distributed dynamically
+		final AtomicInteger nextTile = new AtomicInteger( 0 );
+		final RecursiveAction[] tasks = new RecursiveAction[ threads ];
+		for ( int i = 0 ; i < threads ; i++ )
+		{
+			final ScanlineRasterizer rasterizer = rasterizers[i];
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute() {
+					renderTiles( nextTile , rasterizer , useDepthBuffer , outlineColor );
+				}
+			};
+		}
+
+		pool.invoke( new RecursiveAction() {
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll( tasks );
+			}
+		});
+	}
+
+	private void renderTiles(AtomicInteger nextTile,ScanlineRasterizer rasterizer,boolean useDepthBuffer,int outlineColor)
+	{
+		try
+		{
+			int tile;
+			while ( ( tile = nextTile.getAndIncrement() ) < bins.length )
+			{
+				if ( binSizes[ tile ] == 0 ) {
+					continue;
+				}
+				final int minX = ( tile % tilesX ) * TILE_SIZE;
+				final int minY = ( tile / tilesX ) * TILE_SIZE;
+				rasterizer.setClipRect( minX , minY , minX + TILE_SIZE , minY + TILE_SIZE );
+				renderTile( tile , rasterizer , useDepthBuffer , outlineColor );
+			}
+		}
+		finally {
+			rasterizer.resetClipRect();
+		}
+	}
+
+	private void renderTile(int tile,ScanlineRasterizer rasterizer,boolean useDepthBuffer,int outlineColor)
+	{
+		final int[] bin = bins[ tile ];
+		final int size = binSizes[ tile ];
+		for ( int i = 0 ; i < size ; i++ )
+		{
+			final int primitive = bin[i];
+			final int first = firstVertex[ primitive ];
+			final int count = vertexCounts[ primitive ];
+			final int color = colors[ primitive ];
+
+			switch( renderingModes[ primitive ] )
+			{
+				case RENDER_WIREFRAME:
+					if ( useDepthBuffer ) {
+						rasterizer.drawPolygon( xs , ys , depths , first , count , color );
+					} else {
+						rasterizer.drawPolygon( xs , ys , first , count , color );
+					}
+					break;
+				case RENDER_OUTLINE:
+					if ( useDepthBuffer ) {
+						rasterizer.fillPolygon( xs , ys , depths , first , count , color );
+						rasterizer.drawPolygon( xs , ys , depths , first , count , outlineColor );
+					} else {
+						rasterizer.fillPolygon( xs , ys , first , count , color );
+						rasterizer.drawPolygon( xs , ys , first , count , outlineColor );
+					}
+					break;
+				default:
+					if ( useDepthBuffer ) {
+						rasterizer.fillPolygon( xs , ys , depths , first , count , color );
+					} else {
+						rasterizer.fillPolygon( xs , ys , first , count , color );
+					}
+			}
+		}
+	}
+
+	private void growPrimitives()
+	{
+		final int newSize = colors.length * 2;
+
+		final int[] tmpFirstVertex = new int[ newSize ];
+		final int[] tmpVertexCounts = new int[ newSize ];
+		final int[] tmpColors = new int[ newSize ];
+		final RenderingMode[] tmpModes = new RenderingMode[ newSize ];
+
+		System.arraycopy( firstVertex , 0 , tmpFirstVertex , 0 , primitiveCount );
+		System.arraycopy( vertexCounts , 0 , tmpVertexCounts , 0 , primitiveCount );
+		System.arraycopy( colors , 0 , tmpColors , 0 , primitiveCount );
+		System.arraycopy( renderingModes , 0 , tmpModes , 0 , primitiveCount );
+
+		firstVertex = tmpFirstVertex;
+		vertexCounts = tmpVertexCounts;
+		colors = tmpColors;
+		renderingModes = tmpModes;
+	}
+
+	private void growVertices(int minSize)
+	{
+		final int newSize = Math.max( minSize , xs.length * 2 );
+
+		final float[] tmpX = new float[ newSize ];
+		final float[] tmpY = new float[ newSize ];
+		final float[] tmpDepth = new float[ newSize ];
+
+		System.arraycopy( xs , 0 , tmpX , 0 , vertexCount );
+		System.arraycopy( ys , 0 , tmpY , 0 , vertexCount );
+		System.arraycopy( depths , 0 , tmpDepth , 0 , vertexCount );
+
+		xs = tmpX;
+		ys = tmpY;
+		depths = tmpDepth;
+	}
+}
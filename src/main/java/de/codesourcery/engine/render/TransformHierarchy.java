@@ -0,0 +1,285 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
+
+/**
+ * World transforms and world-space bounds of all objects of a {@link WorldSnapshot} , stored in flat arrays indexed by node id.
+ *
+ * <p>Nodes are numbered in depth-first order , so every node is stored after its parent and
+ * the descendants of a node occupy the contiguous range of ids following it. When a snapshot is applied , every node whose
+ * {@link Object3D#getTransformVersion() transform version} differs from the previous snapshot has its whole subtree marked dirty. {@link #update(WorldSnapshot)} then
+ * recalculates all dirty world transforms in a single pass from lower to higher ids (each parent is always up-to-date
+ * before its children are visited).</p>
+ *
+ * <p>Afterwards , the world bounds of all nodes that moved or whose {@link Object3D#getGeometryVersion() geometry} changed
+ * are recalculated. Subtree bounds (the union of the world bounds of a node and all its descendants) are then updated in a single pass
+ * from higher to lower ids , so all children of a node are up-to-date before the node itself is visited.</p>
+ *
+ * <p>Objects are not modified , each renderer owns a hierarchy of its own.</p>
+ *
+ * <p>This class is not thread-safe , it must only be used by the rendering thread. Render workers must only
+ * read world transforms after {@link #update(WorldSnapshot)} returned.</p>
+ */
+public final class TransformHierarchy
+{
+	private static final int MATRIX_SIZE = 12;
+	private static final int BOUNDS_SIZE = 6;
+
+	// snapshot the node arrays were taken from
+	private Object3D[] nodes = new Object3D[0];
+	private int[] parents = new int[0];
+	private int[] subtreeSizes = new int[0];
+
+	// local transforms and their versions of the snapshot applied last
+	private float[] localTransforms = new float[0];
+	private long[] transformVersions = new long[0];
+	private float[] worldTransforms = new float[0];
+	// copies of the world transforms as matrices , see #getWorldTransform(int)
+	private AffineMatrix[] worldTransformMatrices = new AffineMatrix[0];
+
+	// geometry versions of the snapshot applied last
+	private long[] geometryVersions = new long[0];
+	// min x,y,z followed by max x,y,z , 6 floats per node
+	private float[] worldBounds = new float[0];
+	private float[] subtreeBounds = new float[0];
+
+	private boolean[] dirty = new boolean[0];
+	// range of node ids that may contain dirty nodes
+	private int firstDirty;
+	private int endDirty;
+
+	private boolean[] worldBoundsDirty = new boolean[0];
+	private boolean[] subtreeBoundsDirty = new boolean[0];
+	// range of node ids that may contain nodes with dirty world bounds
+	private int firstBoundsDirty;
+	private int endBoundsDirty;
+
+	public TransformHierarchy() {
+	}
+
+	private void markDirty(int nodeId)
+	{
+		final int end = nodeId + subtreeSizes[ nodeId ];
+		Arrays.fill( dirty , nodeId , end , true );
+		firstDirty = Math.min( firstDirty , nodeId );
+		endDirty = Math.max( endDirty , end );
+	}
+
+	private void markBoundsDirty(int nodeId)
+	{
+		worldBoundsDirty[ nodeId ] = true;
+		firstBoundsDirty = Math.min( firstBoundsDirty , nodeId );
+		endBoundsDirty = Math.max( endBoundsDirty , nodeId + 1 );
+	}
+
+	/**
+	 * Applies the local transforms of a snapshot and recalculates the world transforms of all nodes whose
+	 * local transform (or the local transform of any ancestor) changed , followed by the bounds of
+	 * all nodes that moved or changed shape.
+	 *
+	 * @param snapshot
+	 * @return <code>true</code> if any world bounds changed
+	 */
+	public boolean update(WorldSnapshot snapshot)
+	{
+		final int nodeCount = snapshot.getNodeCount();
+		final long[] newVersions = snapshot.getTransformVersions();
+		if ( snapshot.getNodes() != nodes ) {
+			rebuild( snapshot );
+		}
+		else if ( snapshot.getLocalTransforms() != localTransforms ) // shared with the previous snapshot if nothing moved
+		{
+			// the whole subtree of a changed node is marked dirty , so its descendants need not be compared
+			for ( int i = 0 ; i < nodeCount ; )
+			{
+				if ( newVersions[i] != transformVersions[i] )
+				{
+					markDirty( i );
+					i += subtreeSizes[i];
+				} else {
+					i++;
+				}
+			}
+			localTransforms = snapshot.getLocalTransforms();
+			transformVersions = newVersions;
+		}
+		if ( snapshot.getGeometryVersions() != geometryVersions ) // shared with the previous snapshot if nothing changed shape
+		{
+			final long[] newGeometryVersions = snapshot.getGeometryVersions();
+			for ( int i = 0 ; i < nodeCount ; i++ ) 
+			{
+				if ( newGeometryVersions[i] != geometryVersions[i] ) {
+					markBoundsDirty( i );
+				}
+			}
+			geometryVersions = newGeometryVersions;
+		}
+
+		updateWorldTransforms();
+		return updateBounds();
+	}
+
+	private void updateWorldTransforms()
+	{
+		if ( firstDirty >= endDirty ) {
+			return;
+		}
+
+		final float[] local = localTransforms;
+		final float[] world = worldTransforms;
+		for ( int i = firstDirty ; i < endDirty ; i++ )
+		{
+			if ( ! dirty[i] ) {
+				continue;
+			}
+			dirty[i] = false;
+
+			final int offset = i * MATRIX_SIZE;
+			final int parent = parents[i];
+			if ( parent == -1 ) {
+				System.arraycopy( local , offset , world , offset , MATRIX_SIZE );
+			} else {
+				// parent has a lower id and thus has already been updated
+				AffineMatrix.multiply( local , offset , world , parent * MATRIX_SIZE , world , offset );
+			}
+			System.arraycopy( world , offset , worldTransformMatrices[i].getData() , 0 , MATRIX_SIZE );
+			markBoundsDirty( i );
+		}
+		firstDirty = nodes.length;
+		endDirty = 0;
+	}
+
+	private boolean updateBounds()
+	{
+		if ( firstBoundsDirty >= endBoundsDirty ) {
+			return false;
+		}
+
+		int first = firstBoundsDirty;
+		for ( int i = endBoundsDirty - 1 ; i >= first ; i-- )
+		{
+			final int offset = i * BOUNDS_SIZE;
+			if ( worldBoundsDirty[i] )
+			{
+				worldBoundsDirty[i] = false;
+				nodes[i].calculateWorldBounds( worldTransforms , i * MATRIX_SIZE , worldBounds , offset );
+				subtreeBoundsDirty[i] = true;
+			}
+			if ( ! subtreeBoundsDirty[i] ) {
+				continue;
+			}
+			subtreeBoundsDirty[i] = false;
+
+			// children have higher ids and thus have already been updated
+			System.arraycopy( worldBounds , offset , subtreeBounds , offset , BOUNDS_SIZE );
+			for ( int child = i + 1 , end = i + subtreeSizes[i] ; child < end ; child += subtreeSizes[ child ] )
+			{
+				final int childOffset = child * BOUNDS_SIZE;
+				for ( int axis = 0 ; axis < 3 ; axis++ )
+				{
+					subtreeBounds[ offset + axis ] = Math.min( subtreeBounds[ offset + axis ] , subtreeBounds[ childOffset + axis ] );
+					subtreeBounds[ offset + 3 + axis ] = Math.max( subtreeBounds[ offset + 3 + axis ] , subtreeBounds[ childOffset + 3 + axis ] );
+				}
+			}
+
+			final int parent = parents[i];
+			if ( parent != -1 )
+			{
+				subtreeBoundsDirty[ parent ] = true;
+				first = Math.min( first , parent );
+			}
+		}
+		firstBoundsDirty = nodes.length;
+		endBoundsDirty = 0;
+		return true;
+	}
+
+	private void rebuild(WorldSnapshot snapshot)
+	{
+		nodes = snapshot.getNodes();
+		parents = snapshot.getParents();
+		subtreeSizes = snapshot.getSubtreeSizes();
+		localTransforms = snapshot.getLocalTransforms();
+		transformVersions = snapshot.getTransformVersions();
+		geometryVersions = snapshot.getGeometryVersions();
+
+		final int nodeCount = nodes.length;
+		if ( worldTransforms.length < nodeCount * MATRIX_SIZE )
+		{
+			worldTransforms = new float[ nodeCount * MATRIX_SIZE ];
+			worldBounds = new float[ nodeCount * BOUNDS_SIZE ];
+			subtreeBounds = new float[ nodeCount * BOUNDS_SIZE ];
+			dirty = new boolean[ nodeCount ];
+			worldBoundsDirty = new boolean[ nodeCount ];
+			subtreeBoundsDirty = new boolean[ nodeCount ];
+		}
+		if ( worldTransformMatrices.length < nodeCount )
+		{
+			final int oldLength = worldTransformMatrices.length;
+			worldTransformMatrices = Arrays.copyOf( worldTransformMatrices , nodeCount );
+			for ( int i = oldLength ; i < nodeCount ; i++ ) {
+				worldTransformMatrices[i] = AffineMatrix.identity();
+			}
+		}
+
+		// all world transforms need to be recalculated , bounds follow
+		Arrays.fill( dirty , 0 , nodeCount , true );
+		firstDirty = 0;
+		endDirty = nodeCount;
+		firstBoundsDirty = nodeCount;
+		endBoundsDirty = 0;
+	}
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the world transforms of all nodes.
+	 *
+	 * <p>The world transform of node <code>n</code> is stored at offset <code>n*12</code>
+	 * , using the same layout as {@link AffineMatrix#getData()}.</p>
+	 *
+	 * @return
+	 */
+	public float[] getWorldTransforms() {
+		return worldTransforms;
+	}
+
+	/**
+	 * Returns the world transform of a node.
+	 *
+	 * <p>The returned matrix is updated in-place by {@link #update(WorldSnapshot)} and must not be modified.</p>
+	 *
+	 * @param nodeId
+	 * @return
+	 */
+	public AffineMatrix getWorldTransform(int nodeId) {
+		return worldTransformMatrices[ nodeId ];
+	}
+
+	/**
+	 * Returns the world-space axis-aligned bounds of all nodes.
+	 *
+	 * <p>The bounds of node <code>n</code> are stored at offset <code>n*6</code> , min x,y,z followed by max x,y,z. Objects without
+	 * an oriented bounding box are considered to be infinitely large.</p>
+	 *
+	 * @return
+	 */
+	public float[] getWorldBounds() {
+		return worldBounds;
+	}
+
+	/**
+	 * Returns the world-space axis-aligned bounds of all nodes , including the bounds of their descendants.
+	 *
+	 * <p>Uses the same layout as {@link #getWorldBounds()}.</p>
+	 *
+	 * @return
+	 */
+	public float[] getSubtreeBounds() {
+		return subtreeBounds;
+	}
+}
@@ -0,0 +1,321 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+
+import de.codesourcery.engine.linalg.AffineMatrix;
+import de.codesourcery.engine.linalg.ClipSpaceClipper;
+import de.codesourcery.engine.linalg.Matrix;
+
+/**
+ * Per-frame buffer holding an object's vertices after transformation.
+ *
+ * <p>Transformed vertices are stored as separate component arrays (like {@link Object3D#getXs()}) , the vertex at
+ * offset <code>n</code> in {@link Object3D#getEdges()} is stored at index <code>n/4</code>. Each unique vertex is
+ * transformed exactly once per frame.</p>
+ *
+ * <p>Face normals are transformed to world space separately , see {@link #transformNormals(float[], Matrix, int, int)}.</p>
+ *
+ * <p>For objects with {@link PrimitiveClusters clusters} , this buffer also holds the ranges of primitives and
+ * vertices that survived cluster culling , only these vertices are transformed.</p>
+ *
+ * <p>Instances are owned by a single {@link Object3D} , only disjoint ranges of vertices may be updated concurrently.</p>
+ */
+public final class TransformedVertices
+{
+	private int vertexCount;
+
+	private float[] worldXs = new float[0];
+	private float[] worldYs = new float[0];
+	private float[] worldZs = new float[0];
+
+	private float[] clipXs = new float[0];
+	private float[] clipYs = new float[0];
+	private float[] clipZs = new float[0];
+	private float[] clipWs = new float[0];
+
+	// W of NDC vertices is the clip-space W
+	private float[] ndcXs = new float[0];
+	private float[] ndcYs = new float[0];
+	private float[] ndcZs = new float[0];
+
+	private int[] outCodes = new int[0];
+
+	private float[] worldNormals = new float[0];
+
+	// first primitive , end primitive and first edge index of each visible primitive range
+	private int[] primitiveRanges = new int[ 3 * 16 ];
+	private int primitiveRangeCount;
+
+	// first vertex and end vertex of each range of vertices used by visible primitives
+	private int[] vertexRanges = new int[ 2 * 16 ];
+	private int vertexRangeCount;
+
+	// vertices used by visible primitives , cleared again by #collectVertexRanges()
+	private boolean[] vertexMarks = new boolean[0];
+
+	/**
+	 * Transform vertices to world space , clip space and normalized device coordinates.
+	 *
+	 * @param object object whose model-space vertices should be transformed
+	 * @param modelMatrix
+	 * @param viewProjectionMatrix
+	 */
+	public void transform(Object3D object,AffineMatrix modelMatrix,Matrix viewProjectionMatrix)
+	{
+		setVertexCount( object.getPointCount() );
+		transform( object , modelMatrix , viewProjectionMatrix , 0 , vertexCount );
+	}
+
+	/**
+	 * Resize buffers , needs to be called before {@link #transform(Object3D, AffineMatrix, Matrix, int, int) transforming}
+	 * ranges of vertices.
+	 *
+	 * @param vertexCount
+	 */
+	public void setVertexCount(int vertexCount)
+	{
+		if ( outCodes.length != vertexCount )
+		{
+			worldXs = new float[ vertexCount ];
+			worldYs = new float[ vertexCount ];
+			worldZs = new float[ vertexCount ];
+			clipXs = new float[ vertexCount ];
+			clipYs = new float[ vertexCount ];
+			clipZs = new float[ vertexCount ];
+			clipWs = new float[ vertexCount ];
+			ndcXs = new float[ vertexCount ];
+			ndcYs = new float[ vertexCount ];
+			ndcZs = new float[ vertexCount ];
+			outCodes = new int[ vertexCount ];
+			vertexMarks = new boolean[ vertexCount ];
+		}
+		this.vertexCount = vertexCount;
+	}
+
+	/**
+	 * Resize the normals buffer , needs to be called before {@link #transformNormals(float[], Matrix, int, int) transforming}
+	 * normals.
+	 *
+	 * @param primitiveCount
+	 */
+	public void setPrimitiveCount(int primitiveCount)
+	{
+		final int len = primitiveCount * 3;
+		if ( worldNormals.length != len ) {
+			worldNormals = new float[ len ];
+		}
+	}
+
+	/**
+	 * Transform a range of face normals to world space.
+	 *
+	 * <p>Ranges that do not overlap may be transformed concurrently.</p>
+	 *
+	 * @param normals model-space face normals , see {@link Object3D#getFaceNormals()}
+	 * @param normalMatrix the model matrix' {@link AffineMatrix#normalMatrix() normal matrix}
+	 * @param firstPrimitive index of the first primitive whose normal should be transformed
+	 * @param endPrimitive index of the primitive after the last one
+	 */
+	public void transformNormals(float[] normals,Matrix normalMatrix,int firstPrimitive,int endPrimitive)
+	{
+		final float[] m = normalMatrix.getData();
+		final float m0 = m[0] , m4 = m[4] , m8 = m[8];
+		final float m1 = m[1] , m5 = m[5] , m9 = m[9];
+		final float m2 = m[2] , m6 = m[6] , m10 = m[10];
+
+		final float[] result = worldNormals;
+		final int end = endPrimitive * 3;
+		for ( int offset = firstPrimitive * 3 ; offset < end ; offset += 3 )
+		{
+			final float x = normals[ offset ];
+			final float y = normals[ offset + 1 ];
+			final float z = normals[ offset + 2 ];
+			result[ offset ] = m0 * x + m4 * y + m8 * z;
+			result[ offset + 1 ] = m1 * x + m5 * y + m9 * z;
+			result[ offset + 2 ] = m2 * x + m6 * y + m10 * z;
+		}
+	}
+
+	/**
+	 * Transform a range of vertices.
+	 *
+	 * <p>Ranges that do not overlap may be transformed concurrently.</p>
+	 *
+	 * @param object object whose model-space vertices should be transformed
+	 * @param modelMatrix
+	 * @param viewProjectionMatrix
+	 * @param firstVertex index of first vertex to transform
+	 * @param endVertex index of the vertex after the last one to transform
+	 */
+	public void transform(Object3D object,AffineMatrix modelMatrix,Matrix viewProjectionMatrix,int firstVertex,int endVertex)
+	{
+		final int count = endVertex - firstVertex;
+
+		// affine transformations keep W , so world-space W is the model-space W
+		final float[] ws = object.getWs();
+		modelMatrix.multiply( object.getXs() , object.getYs() , object.getZs() , ws , worldXs , worldYs , worldZs , firstVertex , count );
+
+		viewProjectionMatrix.multiply( worldXs , worldYs , worldZs , ws , clipXs , clipYs , clipZs , clipWs , firstVertex , count );
+		// recalculates the (identical) clip-space W , W is kept for depth buffering
+		viewProjectionMatrix.multiplyAndNormalizeW( worldXs , worldYs , worldZs , ws , ndcXs , ndcYs , ndcZs , clipWs , firstVertex , count );
+
+		final float[] xs = clipXs;
+		final float[] ys = clipYs;
+		final float[] zs = clipZs;
+		final float[] w = clipWs;
+		for ( int vertex = firstVertex ; vertex < endVertex ; vertex++ ) {
+			outCodes[ vertex ] = ClipSpaceClipper.outCode( xs[ vertex ] , ys[ vertex ] , zs[ vertex ] , w[ vertex ] );
+		}
+	}
+
+	void clearPrimitiveRanges() {
+		primitiveRangeCount = 0;
+	}
+
+	void addPrimitiveRange(int firstPrimitive,int endPrimitive,int firstIndex)
+	{
+		final int offset = primitiveRangeCount * 3;
+		if ( offset == primitiveRanges.length ) {
+			primitiveRanges = Arrays.copyOf( primitiveRanges , primitiveRanges.length * 2 );
+		}
+		primitiveRanges[ offset ] = firstPrimitive;
+		primitiveRanges[ offset + 1 ] = endPrimitive;
+		primitiveRanges[ offset + 2 ] = firstIndex;
+		primitiveRangeCount++;
+	}
+
+	boolean[] getVertexMarks() {
+		return vertexMarks;
+	}
+
+	/**
+	 * Turns marked vertices into vertex ranges and clears all marks.
+	 */
+	void collectVertexRanges()
+	{
+		final boolean[] marks = vertexMarks;
+		vertexRangeCount = 0;
+		for ( int vertex = 0 ; vertex < vertexCount ; vertex++ )
+		{
+			if ( ! marks[ vertex ] ) {
+				continue;
+			}
+			final int firstVertex = vertex;
+			for ( ; vertex < vertexCount && marks[ vertex ] ; vertex++ ) {
+				marks[ vertex ] = false;
+			}
+			final int offset = vertexRangeCount * 2;
+			if ( offset == vertexRanges.length ) {
+				vertexRanges = Arrays.copyOf( vertexRanges , vertexRanges.length * 2 );
+			}
+			vertexRanges[ offset ] = firstVertex;
+			vertexRanges[ offset + 1 ] = vertex;
+			vertexRangeCount++;
+		}
+	}
+
+	/**
+	 * Returns the visible primitive ranges , each range is stored as three elements: index of first primitive ,
+	 * index of the primitive after the last one and the offset of the first primitive's first vertex in the object's edges array.
+	 *
+	 * @return
+	 * @see PrimitiveClusters
+	 */
+	public int[] getPrimitiveRanges() {
+		return primitiveRanges;
+	}
+
+	public int getPrimitiveRangeCount() {
+		return primitiveRangeCount;
+	}
+
+	/**
+	 * Returns the ranges of vertices used by visible primitives , each range is stored as
+	 * index of its first vertex followed by the index of the vertex after the last one.
+	 *
+	 * @return
+	 */
+	public int[] getVertexRanges() {
+		return vertexRanges;
+	}
+
+	public int getVertexRangeCount() {
+		return vertexRangeCount;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public float[] getWorldXs() {
+		return worldXs;
+	}
+
+	public float[] getWorldYs() {
+		return worldYs;
+	}
+
+	public float[] getWorldZs() {
+		return worldZs;
+	}
+
+	/**
+	 * Returns world-space face normals (x,y,z per primitive , not normalized).
+	 *
+	 * @return
+	 */
+	public float[] getWorldNormals() {
+		return worldNormals;
+	}
+
+	public float[] getClipXs() {
+		return clipXs;
+	}
+
+	public float[] getClipYs() {
+		return clipYs;
+	}
+
+	public float[] getClipZs() {
+		return clipZs;
+	}
+
+	/**
+	 * Returns clip-space W components , these are also the W components of the
+	 * {@link #getNDCXs() NDC vertices} and hold the view-space depth.
+	 *
+	 * @return
+	 */
+	public float[] getClipWs() {
+		return clipWs;
+	}
+
+	/**
+	 * Returns X components after perspective division.
+	 *
+	 * <p>Vertices that are behind the viewer have bogus coordinates , check
+	 * the out codes before using them.</p>
+	 * @return
+	 * @see #getClipWs()
+	 */
+	public float[] getNDCXs() {
+		return ndcXs;
+	}
+
+	public float[] getNDCYs() {
+		return ndcYs;
+	}
+
+	public float[] getNDCZs() {
+		return ndcZs;
+	}
+
+	/**
+	 * Returns each vertex' {@link ClipSpaceClipper#outCode(float, float, float, float) out code}.
+	 *
+	 * @return
+	 */
+	public int[] getOutCodes() {
+		return outCodes;
+	}
+}
@@ -0,0 +1,420 @@
+package de.codesourcery.engine.render;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Merges identical polygon corners into shared vertices.
+ *
+ * <p>Uses an open-addressing hash table keyed on the corners' coordinates , so welding
+ * runs in linear time. By default only corners with exactly the same coordinates are merged , if an
+ * epsilon is given all coordinates are quantized to a grid with that cell size first and corners falling
+ * into the same grid cell are merged (note that corners that are closer than epsilon but
+ * lie in neighbouring cells are <b>not</b> merged).</p>
+ *
+ * <p>Large inputs are split into shards by hash value and welded on multiple threads , one shard per thread
+ * of the pool used. The result does not depend on the number of threads , vertices are always stored in the
+ * order their first corner appears in the input.</p>
+ */
+public final class VertexWelder
+{
+	/**
+	 * Minimum number of corners before welding is done on multiple threads.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 256 * 1024;
+
+	// created on first use , see #weld(float[])
+	private static ForkJoinPool sharedPool;
+
+	private final float epsilon;
+
+	private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+	public static final class Result
+	{
+		private final float[] vertices;
+		private final int[] edges;
+
+		private Result(float[] vertices, int[] edges) {
+			this.vertices = vertices;
+			this.edges = edges;
+		}
+
+		/**
+		 * Returns the welded vertices (x,y,z,w order).
+		 *
+		 * @return
+		 */
+		public float[] getVertices() {
+			return vertices;
+		}
+
+		/**
+		 * Returns the offset of each input corner's vertex within {@link #getVertices()}.
+		 *
+		 * @return
+		 */
+		public int[] getEdges() {
+			return edges;
+		}
+
+		public int getVertexCount() {
+			return vertices.length / 4;
+		}
+
+		public int getDuplicateCount() {
+			return edges.length - getVertexCount();
+		}
+	}
+
+	/**
+	 * Create a welder that only merges corners with identical coordinates.
+	 */
+	public VertexWelder() {
+		this(0);
+	}
+
+	/**
+	 * Create a welder.
+	 *
+	 * @param epsilon grid cell size used to quantize coordinates before comparing them , 0 to only merge identical corners
+	 */
+	public VertexWelder(float epsilon)
+	{
+		if ( !( epsilon >= 0 ) || Float.isInfinite( epsilon ) ) {
+			throw new IllegalArgumentException("Invalid epsilon: "+epsilon);
+		}
+		this.epsilon = epsilon;
+	}
+
+	public float getEpsilon() {
+		return epsilon;
+	}
+
+	public void setParallelThreshold(int parallelThreshold) {
+		if ( parallelThreshold < 0 ) {
+			throw new IllegalArgumentException("Parallel threshold must be >= 0");
+		}
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Weld polygon corners.
+	 *
+	 * <p>Inputs with at least {@link #setParallelThreshold(int) parallel threshold} corners are welded
+	 * on a thread pool shared by all welders.</p>
+	 *
+	 * @param corners coordinates of all polygon corners (x,y,z,w order)
+	 * @return
+	 */
+	public Result weld(float[] corners)
+	{
+		return weld( corners , corners.length / 4 >= parallelThreshold ? sharedPool() : null );
+	}
+
+	/**
+	 * Weld polygon corners.
+	 *
+	 * @param corners coordinates of all polygon corners (x,y,z,w order)
+	 * @param pool pool to run on when welding on multiple threads , <code>null</code> to weld on the calling thread
+	 * @return
+	 */
+	public Result weld(float[] corners,ForkJoinPool pool)
+	{
+		final Shard shard = new Shard( corners );
+		final int shardCount = pool != null && shard.count >= parallelThreshold ? Math.max( 1 , pool.getParallelism() ) : 1;
+		if ( shardCount == 1 )
+		{
+			shard.hash( 0 , shard.count );
+			shard.weld( 0 , shard.count );
+		}
+		else
+		{
+			runInParallel( shard , shardCount , pool );
+		}
+		return shard.createResult();
+	}
+
+	private static synchronized ForkJoinPool sharedPool()
+	{
+		if ( sharedPool == null )
+		{
+			final ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+				{
+					final ForkJoinWorkerThread result = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+					result.setName( "vertex-welder" );
+					result.setDaemon( true );
+					return result;
+				}
+			};
+			sharedPool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() , threadFactory , null , false );
+		}
+		return sharedPool;
+	}
+
+	private void runInParallel(final Shard shard,final int shardCount,ForkJoinPool pool)
+	{
+		// input is split into one chunk per shard , shardSizes[ chunk * shardCount + shard ] holds the number of
+		// corners of a chunk that belong to a shard and becomes the chunk's offset within that shard's bucket later on
+		final int count = shard.count;
+		final int[] shardSizes = new int[ shardCount * shardCount ];
+		final int[] shardStarts = new int[ shardCount + 1 ];
+
+		// calculate hashes and count corners per shard...
+		final RecursiveAction[] tasks = new RecursiveAction[ shardCount ];
+		for ( int i = 0 ; i < shardCount ; i++ )
+		{
+			final int chunk = i;
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute()
+				{
+					final int chunkStart = chunkStart( chunk , shardCount , count );
+					final int chunkEnd = chunkStart( chunk + 1 , shardCount , count );
+					shard.hash( chunkStart , chunkEnd );
+					shard.countShards( chunkStart , chunkEnd , shardCount , shardSizes , chunk * shardCount );
+				}
+			};
+		}
+		invokeAll( tasks , pool );
+
+		// ... turn counts into offsets , chunks are stored in input order so
+		// each bucket holds its corners in ascending order ...
+		int offset = 0;
+		for ( int s = 0 ; s < shardCount ; s++ )
+		{
+			shardStarts[ s ] = offset;
+			for ( int chunk = 0 ; chunk < shardCount ; chunk++ )
+			{
+				final int size = shardSizes[ chunk * shardCount + s ];
+				shardSizes[ chunk * shardCount + s ] = offset;
+				offset += size;
+			}
+		}
+		shardStarts[ shardCount ] = offset;
+
+		// ... sort corners into buckets ...
+		shard.buckets = new int[ count ];
+		for ( int i = 0 ; i < shardCount ; i++ )
+		{
+			final int chunk = i;
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute() {
+					shard.scatter( chunkStart( chunk , shardCount , count ) , chunkStart( chunk + 1 , shardCount , count ) , shardCount , shardSizes , chunk * shardCount );
+				}
+			};
+		}
+		invokeAll( tasks , pool );
+
+		// ... and weld each shard
+		for ( int i = 0 ; i < shardCount ; i++ )
+		{
+			final int s = i;
+			tasks[i] = new RecursiveAction() {
+
+				@Override
+				protected void compute() {
+					shard.weld( shardStarts[ s ] , shardStarts[ s + 1 ] );
+				}
+			};
+		}
+		invokeAll( tasks , pool );
+	}
+
+	private static int chunkStart(int chunk,int chunks,int count) {
+		return (int) ( ( (long) count * chunk ) / chunks );
+	}
+
+	private static void invokeAll(final RecursiveAction[] tasks,ForkJoinPool pool)
+	{
+		pool.invoke( new RecursiveAction() {
+
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll( tasks );
+			}
+		});
+	}
+
+	/**
+	 * Welding state.
+	 *
+	 * <p>Corners are partitioned into shards by hash value. Since equal corners always have
+	 * equal hashes they end up in the same shard and shards can be processed independently.</p>
+	 */
+	private final class Shard
+	{
+		private final float[] corners;
+		private final int count;
+
+		private final int[] hashes;
+		// quantized coordinates , only used when welding with epsilon > 0
+		private final int[] cells;
+		// index of the first corner with the same coordinates
+		private final int[] representatives;
+		// corner indices sorted by shard , null when welding on a single thread
+		private int[] buckets;
+
+		public Shard(float[] corners)
+		{
+			if ( ( corners.length % 4 ) != 0 ) {
+				throw new IllegalArgumentException("Array length must be a multiple of 4");
+			}
+			this.corners = corners;
+			this.count = corners.length / 4;
+			this.hashes = new int[ count ];
+			this.cells = epsilon > 0 ? new int[ corners.length ] : null;
+			this.representatives = new int[ count ];
+		}
+
+		public void hash(int start,int end)
+		{
+			for ( int i = start , offset = start * 4 ; i < end ; i++ , offset += 4 )
+			{
+				int h;
+				if ( cells != null )
+				{
+					final int x = cells[ offset ] = quantize( corners[ offset ] );
+					final int y = cells[ offset + 1 ] = quantize( corners[ offset + 1 ] );
+					final int z = cells[ offset + 2 ] = quantize( corners[ offset + 2 ] );
+					final int w = cells[ offset + 3 ] = quantize( corners[ offset + 3 ] );
+					h = ( ( x * 31 + y ) * 31 + z ) * 31 + w;
+				}
+				else
+				{
+					// adding 0.0f turns -0.0f into +0.0f since they compare as equal
+					h = Float.floatToIntBits( corners[ offset ] + 0.0f );
+					h = h * 31 + Float.floatToIntBits( corners[ offset + 1 ] + 0.0f );
+					h = h * 31 + Float.floatToIntBits( corners[ offset + 2 ] + 0.0f );
+					h = h * 31 + Float.floatToIntBits( corners[ offset + 3 ] + 0.0f );
+				}
+				// spread bits , both the shard and the table slot are derived from the hash
+				h ^= h >>> 16;
+				h *= 0x85ebca6b;
+				h ^= h >>> 13;
+				h *= 0xc2b2ae35;
+				h ^= h >>> 16;
+				hashes[i] = h;
+			}
+		}
+
+		private int quantize(float value) {
+			return (int) Math.floor( value / epsilon );
+		}
+
+		private int shardOf(int hash,int shardCount) {
+			// use upper bits , the table slot uses the lower bits
+			return (int) ( ( ( hash & 0xffffffffL ) * shardCount ) >>> 32 );
+		}
+
+		public void countShards(int start,int end,int shardCount,int[] shardSizes,int sizesOffset)
+		{
+			for ( int i = start ; i < end ; i++ ) {
+				shardSizes[ sizesOffset + shardOf( hashes[i] , shardCount ) ]++;
+			}
+		}
+
+		/**
+		 * Sort a chunk of corners into their shards' buckets.
+		 *
+		 * @param start
+		 * @param end
+		 * @param shardCount
+		 * @param bucketOffsets next free index in each shard's bucket , updated by this method
+		 * @param offsetsOffset index of this chunk's offset for the first shard within <code>bucketOffsets</code>
+		 */
+		public void scatter(int start,int end,int shardCount,int[] bucketOffsets,int offsetsOffset)
+		{
+			for ( int i = start ; i < end ; i++ ) {
+				buckets[ bucketOffsets[ offsetsOffset + shardOf( hashes[i] , shardCount ) ]++ ] = i;
+			}
+		}
+
+		/**
+		 * Weld corners.
+		 *
+		 * @param start first corner (index into the buckets when welding on multiple threads)
+		 * @param end
+		 */
+		public void weld(int start,int end)
+		{
+			// keep load factor <= 0.5
+			int tableSize = 16;
+			while ( tableSize < ( end - start ) * 2 ) {
+				tableSize <<= 1;
+			}
+			final int mask = tableSize - 1;
+			final int[] table = new int[ tableSize ]; // corner index + 1 , 0 marks an empty slot
+
+			final int[] indices = buckets;
+			for ( int j = start ; j < end ; j++ )
+			{
+				final int i = indices != null ? indices[j] : j;
+				final int hash = hashes[i];
+
+				int slot = hash & mask;
+				int representative = i;
+				while ( table[ slot ] != 0 )
+				{
+					final int candidate = table[ slot ] - 1;
+					if ( hashes[ candidate ] == hash && isSameVertex( candidate , i ) ) {
+						representative = candidate;
+						break;
+					}
+					slot = ( slot + 1 ) & mask;
+				}
+				if ( representative == i ) {
+					table[ slot ] = i + 1;
+				}
+				representatives[i] = representative;
+			}
+		}
+
+		private boolean isSameVertex(int corner1,int corner2)
+		{
+			final int offset1 = corner1 * 4;
+			final int offset2 = corner2 * 4;
+			if ( cells != null ) {
+				return cells[ offset1 ] == cells[ offset2 ] &&
+					   cells[ offset1 + 1 ] == cells[ offset2 + 1 ] &&
+					   cells[ offset1 + 2 ] == cells[ offset2 + 2 ] &&
+					   cells[ offset1 + 3 ] == cells[ offset2 + 3 ];
+			}
+			return corners[ offset1 ] == corners[ offset2 ] &&
+				   corners[ offset1 + 1 ] == corners[ offset2 + 1 ] &&
+				   corners[ offset1 + 2 ] == corners[ offset2 + 2 ] &&
+				   corners[ offset1 + 3 ] == corners[ offset2 + 3 ];
+		}
+
+		public Result createResult()
+		{
+			final float[] vertices = new float[ corners.length ];
+			final int[] edges = new int[ count ];
+
+			int vertexOffset = 0;
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				final int representative = representatives[i];
+				if ( representative == i )
+				{
+					System.arraycopy( corners , i * 4 , vertices , vertexOffset , 4 );
+					edges[i] = vertexOffset;
+					vertexOffset += 4;
+				} else {
+					// representatives always precede the corners they replace
+					edges[i] = edges[ representative ];
+				}
+			}
+			return new Result( Arrays.copyOf( vertices , vertexOffset ) , edges );
+		}
+	}
+}
@@ -3,34 +3,37 @@ package de.codesourcery.engine.render;
 import java.util.ArrayList;
 import java.util.List;
 
-import de.codesourcery.engine.linalg.Frustum;
 import de.codesourcery.engine.linalg.LinAlgUtils;
 import de.codesourcery.engine.linalg.Matrix;
-import de.codesourcery.engine.linalg.Vector4;
 import de.codesourcery.engine.math.Constants;
 
+/**
+ * The objects , camera and projection that make up a scene.
+ * 
+ * <p>Renderers do not read the world directly but a {@link WorldSnapshot snapshot} of it. By default ,
+ * a new snapshot is taken by the renderer whenever it starts a frame , so the world must not be modified while a frame is being rendered.
+ * In {@link #setDoubleBuffered(boolean) double-buffered mode} , the thread that modifies the world
+ * {@link #publish() publishes} a snapshot whenever it has finished updating the scene and renderers
+ * always render the snapshot published last.</p>
+ * 
+ * <p>All per-frame state (world transforms , bounds , transformed vertices) is owned by the renderers , so
+ * several renderers may render the same world at the same time.</p>
+ */
 public final class World
 {
-    private static final float CLIP_X_OFFSET = 0.5f;
-    private static final float CLIP_Y_OFFSET = 0.5f;
-    
-    private Camera camera = new Camera() {
-    	public void updateViewMatrix() {
-    		super.updateViewMatrix();
-    		frustum.setEyePosition(  getEyePosition() , getEyeTarget() , getUpVector() );
-    	};
-    	
-    	protected void updateEyeTarget() {
-    		super.updateEyeTarget();
-    		frustum.setEyePosition(  getEyePosition() , getEyeTarget() , getUpVector() );
-    	};
-    };
+    private Camera camera = new Camera();
+    
+    private final List<Object3D> objects = new ArrayList<>();
     
-    private List<Object3D> objects = new ArrayList<>();
+    private volatile boolean doubleBuffered;
     
-    private final Frustum frustum = new Frustum();
+    // written by the thread that publishes snapshots , guarded by this world's lock
+    private long snapshotSequence;
+    private volatile WorldSnapshot publishedSnapshot;
     
     private Matrix projectionMatrix;    
+    // incremented whenever the projection matrix changes
+    private long projectionVersion;
     
     // view volume
     private float yTop;
@@ -50,6 +53,15 @@ public final class World
         return projectionMatrix;
     }
     
+    /**
+     * Returns a counter that is incremented whenever the projection matrix changes.
+     * 
+     * @return
+     */
+    public long getProjectionVersion() {
+        return projectionVersion;
+    }
+    
     public void setupPerspectiveProjection(float fieldOfView, float aspectRatio ,float zNear, float zFar) 
     {
     	System.out.println("setupPerspectiveProjection(): FoV: "+fieldOfView+" , aspect_ratio="+aspectRatio+", zNear="+zNear+",zFar="+zFar);
@@ -63,7 +75,6 @@ public final class World
 		float yTop = size / aspectRatio;
 
 		setupPerspectiveProjection( xLeft , xRight , yBottom , yTop , zNear , zFar );
-		frustum.setPerspective( fieldOfView, aspectRatio, zNear,zFar );
     }
     
     private void setupPerspectiveProjection(float left, float right, float bottom, float top, float near,float far) 
@@ -78,38 +89,64 @@ public final class World
     	this.zFar = far;
 
     	this.projectionMatrix = LinAlgUtils.makeFrustum(xLeft, xRight, yBottom,yTop, zNear, zFar);
+    	this.projectionVersion++;
     }
     
-    public Frustum getFrustum() {
-		return frustum;
-	}
+    public void addObject(Object3D object) {
+        this.objects.add( object );
+    }
     
-    public boolean isInClipSpace(Vector4[] points) {
-    	for ( int i = 0 ; i < points.length ; i++ ) {
-    		if ( ! isInClipSpace( points[i] ) ) {
-    			return false;
-    		}
+    /**
+     * Enables or disables double-buffering.
+     * 
+     * <p>Enabling double-buffering publishes the current state of the world , so the renderer always
+     * has a snapshot to render.</p>
+     * 
+     * @param doubleBuffered
+     * @see #publish()
+     */
+    public void setDoubleBuffered(boolean doubleBuffered) 
+    {
+    	if ( doubleBuffered ) {
+    		publish();
     	}
-    	return true;
+    	this.doubleBuffered = doubleBuffered;
     }
     
-    public boolean isInClipSpace(Vector4 p1,Vector4 p2,Vector4 p3) {
-    	return isInClipSpace( p1 ) && isInClipSpace( p2 ) && isInClipSpace( p3 );
+    public boolean isDoubleBuffered() {
+    	return doubleBuffered;
     }
     
-    public boolean isInClipSpace(Vector4 v) {
-
-    	// TODO: Clipping is currently disabled !!!!
-    	if ( 1 != 2 ) {
-    		return true;
+    /**
+     * Takes a snapshot of the objects (including their model matrices) , the camera and the projection
+     * and hands it to the renderer.
+     * 
+     * <p>Must be called by the thread that modifies the world , after it has finished updating the
+     * scene for the next frame. Only the snapshot published last is rendered , renderers
+     * swap to it when they start a new frame.</p>
+     * 
+     * <p>If nothing changed since the last call , the previously published snapshot is returned 
+     * and renderers may skip the frame.</p>
+     * 
+     * @return published snapshot
+     */
+    public synchronized WorldSnapshot publish() 
+    {
+    	final WorldSnapshot snapshot = WorldSnapshot.capture( publishedSnapshot , snapshotSequence , objects , camera , projectionMatrix , projectionVersion );
+    	if ( snapshot != publishedSnapshot ) 
+    	{
+    		snapshotSequence++;
+    		publishedSnapshot = snapshot;
     	}
-    	return v.z() > -1 && v.z() < 1 &
-    		   v.x() > ( -1 - CLIP_X_OFFSET ) && v.x() < ( 1 + CLIP_X_OFFSET ) &&
-    		   v.y() < ( 1 + CLIP_Y_OFFSET ) && v.y() > ( -1 - CLIP_Y_OFFSET );
+    	return snapshot;
     }
     
-    public void addObject(Object3D object) {
-        this.objects.add( object );
+    /*
+     * Returns the snapshot a renderer should render next , the snapshot published last if this world is 
+     * double-buffered. Otherwise a new snapshot is published.
+     */
+    WorldSnapshot getSnapshotToRender() {
+    	return doubleBuffered ? publishedSnapshot : publish();
     }
     
     public List<Object3D> getObjects()
@@ -120,4 +157,18 @@ public final class World
     public Camera getCamera() {
 		return camera;
 	}
+    
+    /**
+     * Replaces the camera.
+     * 
+     * <p>The new camera's view matrix must be {@link Camera#updateViewMatrix() up-to-date}.</p>
+     * @param camera
+     */
+    public void setCamera(Camera camera) 
+    {
+    	if (camera == null) {
+			throw new IllegalArgumentException("camera must not be NULL");
+		}
+    	this.camera = camera;
+	}
 }
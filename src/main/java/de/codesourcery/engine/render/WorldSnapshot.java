@@ -0,0 +1,508 @@
+package de.codesourcery.engine.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.codesourcery.engine.linalg.Frustum;
+import de.codesourcery.engine.linalg.Matrix;
+
+/**
+ * Frozen state of a {@link World} , as seen by the renderer.
+ *
+ * <p>A snapshot holds the object tree , the model matrix , colors and rendering flags of every object , a copy of the camera and
+ * the projection matrix at the time it was {@link World#publish() published}. It never changes after construction ,
+ * so render workers can read it without locking while the simulation already modifies the world for the next frame.
+ * Render workers must traverse the object tree of the snapshot , parent/child links of objects are only valid for the thread
+ * that modifies the world.</p>
+ *
+ * <p>Objects are stored in depth-first order (see {@link TransformHierarchy}). Parts that did not change
+ * (according to the version counters of objects , camera and projection) are shared with the previous snapshot ,
+ * so comparing arrays like {@link #getNodes()} or {@link #getLocalTransforms()} by identity tells whether they changed.
+ * If nothing changed at all , publishing returns the previous snapshot.</p>
+ *
+ * <p>Only the state listed above is frozen , the primitives of objects must not be changed after
+ * they have been added to the world.</p>
+ */
+public final class WorldSnapshot
+{
+	private static final int MATRIX_SIZE = 12;
+
+	private final long sequenceNumber;
+
+	private final List<Object3D> roots;
+	private final Object3D[] nodes;
+	// parent node id , -1 for root objects
+	private final int[] parents;
+	// number of nodes in each node's subtree , including the node itself
+	private final int[] subtreeSizes;
+	// node ids of root objects
+	private final int[] rootNodes;
+	// direct children of node n are stored in childNodes[ childOffsets[n] ] ... childNodes[ childOffsets[n+1]-1 ]
+	private final int[] childOffsets;
+	private final int[] childNodes;
+
+	// model matrices relative to the parent object , 12 floats per node
+	private final float[] localTransforms;
+	// Object3D#getTransformVersion() and Object3D#getGeometryVersion() of each node
+	private final long[] transformVersions;
+	private final long[] geometryVersions;
+
+	// Object3D#getRenderingFlags() and Object3D#getColors() of each node
+	private final byte[] renderingFlags;
+	private final int[][] colors;
+
+	private final Camera camera;
+	private final Matrix projectionMatrix;
+	private final long projectionVersion;
+	private final Matrix viewProjectionMatrix;
+	private final Frustum frustum;
+
+	private WorldSnapshot(long sequenceNumber,List<Object3D> roots,Object3D[] nodes,int[] parents,int[] subtreeSizes,
+			int[] rootNodes,int[] childOffsets,int[] childNodes,
+			float[] localTransforms,long[] transformVersions,long[] geometryVersions,byte[] renderingFlags,int[][] colors,
+			Camera camera,Matrix projectionMatrix,long projectionVersion,WorldSnapshot previous)
+	{
+		this.sequenceNumber = sequenceNumber;
+		this.roots = roots;
+		this.nodes = nodes;
+		this.parents = parents;
+		this.subtreeSizes = subtreeSizes;
+		this.rootNodes = rootNodes;
+		this.childOffsets = childOffsets;
+		this.childNodes = childNodes;
+		this.localTransforms = localTransforms;
+		this.transformVersions = transformVersions;
+		this.geometryVersions = geometryVersions;
+		this.renderingFlags = renderingFlags;
+		this.colors = colors;
+		this.projectionVersion = projectionVersion;
+
+		if ( previous != null && previous.hasSameView( camera , projectionVersion ) )
+		{
+			this.camera = previous.camera;
+			this.projectionMatrix = previous.projectionMatrix;
+			this.viewProjectionMatrix = previous.viewProjectionMatrix;
+			this.frustum = previous.frustum;
+			return;
+		}
+
+		this.camera = new Camera( camera );
+		this.projectionMatrix = projectionMatrix;
+		this.frustum = new Frustum();
+		if ( projectionMatrix != null )
+		{
+			this.viewProjectionMatrix = projectionMatrix.multiply( this.camera.getAffineViewMatrix() );
+			frustum.setViewProjectionMatrix( viewProjectionMatrix );
+		} else {
+			this.viewProjectionMatrix = null;
+		}
+	}
+
+	private boolean hasSameView(Camera camera,long projectionVersion) {
+		return this.camera.getVersion() == camera.getVersion() && this.projectionVersion == projectionVersion;
+	}
+
+	/**
+	 * Captures the current state of a world.
+	 *
+	 * <p>Must be called by the thread that modifies the objects , the camera and the projection.
+	 * Unchanged parts are shared with the previous snapshot , if nothing changed at all the previous snapshot
+	 * is returned.</p>
+	 *
+	 * @param previous previously captured snapshot , may be <code>null</code>
+	 * @param sequenceNumber sequence number to use if a new snapshot needs to be created
+	 * @param objects root objects of the world
+	 * @param camera
+	 * @param projectionMatrix
+	 * @param projectionVersion
+	 * @return
+	 */
+	static WorldSnapshot capture(WorldSnapshot previous,long sequenceNumber,List<Object3D> objects,Camera camera,Matrix projectionMatrix,long projectionVersion)
+	{
+		if ( previous != null && previous.hasStructure( objects ) )
+		{
+			final boolean sameTransforms = previous.hasSameTransforms();
+			final boolean sameGeometry = previous.hasSameGeometry();
+			if ( sameTransforms && sameGeometry && previous.hasSameView( camera , projectionVersion ) ) {
+				return previous;
+			}
+			final Object3D[] nodes = previous.nodes;
+			return new WorldSnapshot( sequenceNumber , previous.roots , nodes , previous.parents , previous.subtreeSizes ,
+					previous.rootNodes , previous.childOffsets , previous.childNodes ,
+					sameTransforms ? previous.localTransforms : localTransforms( nodes ) ,
+					sameTransforms ? previous.transformVersions : transformVersions( nodes ) ,
+					sameGeometry ? previous.geometryVersions : geometryVersions( nodes ) ,
+					sameGeometry ? previous.renderingFlags : renderingFlags( nodes ) ,
+					sameGeometry ? previous.colors : colors( nodes ) ,
+					camera , projectionMatrix , projectionVersion , previous );
+		}
+
+		final List<Object3D> nodeList = new ArrayList<>();
+		for ( int i = 0 , len = objects.size() ; i < len ; i++ ) {
+			addNodes( objects.get(i) , nodeList );
+		}
+
+		final Object3D[] nodes = nodeList.toArray( new Object3D[ nodeList.size() ] );
+		final int[] parents = new int[ nodes.length ];
+		final int[] subtreeSizes = new int[ nodes.length ];
+		int nodeId = 0;
+		for ( int i = 0 , len = objects.size() ; i < len ; i++ ) {
+			nodeId = assignNodes( nodes , nodeId , -1 , parents , subtreeSizes );
+		}
+
+		final int[] rootNodes = new int[ objects.size() ];
+		for ( int i = 0 , node = 0 ; i < rootNodes.length ; node += subtreeSizes[ node ] , i++ ) {
+			rootNodes[i] = node;
+		}
+
+		final int[] childOffsets = new int[ nodes.length + 1 ];
+		final int[] childNodes = new int[ nodes.length - rootNodes.length ];
+		int childCount = 0;
+		for ( int i = 0 ; i < nodes.length ; i++ )
+		{
+			childOffsets[i] = childCount;
+			for ( int child = i + 1 , end = i + subtreeSizes[i] ; child < end ; child += subtreeSizes[ child ] ) {
+				childNodes[ childCount++ ] = child;
+			}
+		}
+		childOffsets[ nodes.length ] = childCount;
+
+		final List<Object3D> roots = Collections.unmodifiableList( new ArrayList<>( objects ) );
+		return new WorldSnapshot( sequenceNumber , roots , nodes , parents , subtreeSizes , rootNodes , childOffsets , childNodes ,
+				localTransforms( nodes ) , transformVersions( nodes ) , geometryVersions( nodes ) , renderingFlags( nodes ) , colors( nodes ) ,
+				camera , projectionMatrix , projectionVersion , previous );
+	}
+
+	/**
+	 * Returns a snapshot of the same objects , seen from another camera.
+	 *
+	 * <p>Allows rendering a world from a camera other than its own without modifying the world. The returned snapshot
+	 * shows the same state of the objects and thus has the same sequence number.</p>
+	 *
+	 * @param camera camera to render from , its view matrix must be {@link Camera#updateViewMatrix() up-to-date}
+	 * @return new snapshot or this one if the camera did not change
+	 */
+	WorldSnapshot withCamera(Camera camera)
+	{
+		if ( hasSameView( camera , projectionVersion ) ) {
+			return this;
+		}
+		return new WorldSnapshot( sequenceNumber , roots , nodes , parents , subtreeSizes , rootNodes , childOffsets , childNodes ,
+				localTransforms , transformVersions , geometryVersions , renderingFlags , colors ,
+				camera , projectionMatrix , projectionVersion , this );
+	}
+
+	private static float[] localTransforms(Object3D[] nodes)
+	{
+		final float[] result = new float[ nodes.length * MATRIX_SIZE ];
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			System.arraycopy( nodes[i].getLocalModelMatrix().getData() , 0 , result , i * MATRIX_SIZE , MATRIX_SIZE );
+		}
+		return result;
+	}
+
+	private static long[] transformVersions(Object3D[] nodes)
+	{
+		final long[] result = new long[ nodes.length ];
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			result[i] = nodes[i].getTransformVersion();
+		}
+		return result;
+	}
+
+	private static long[] geometryVersions(Object3D[] nodes)
+	{
+		final long[] result = new long[ nodes.length ];
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			result[i] = nodes[i].getGeometryVersion();
+		}
+		return result;
+	}
+
+	private static byte[] renderingFlags(Object3D[] nodes)
+	{
+		final byte[] result = new byte[ nodes.length ];
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			result[i] = nodes[i].getRenderingFlags();
+		}
+		return result;
+	}
+
+	/*
+	 * Color arrays are never modified in-place , so sharing them is enough.
+	 */
+	private static int[][] colors(Object3D[] nodes)
+	{
+		final int[][] result = new int[ nodes.length ][];
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			result[i] = nodes[i].getColors();
+		}
+		return result;
+	}
+
+	private boolean hasSameTransforms()
+	{
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			if ( nodes[i].getTransformVersion() != transformVersions[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean hasSameGeometry()
+	{
+		for ( int i = 0 ; i < nodes.length ; i++ ) {
+			if ( nodes[i].getGeometryVersion() != geometryVersions[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Checks whether the object tree still looks like the one captured in this snapshot.
+	 */
+	private boolean hasStructure(List<Object3D> objects)
+	{
+		if ( objects.size() != roots.size() ) {
+			return false;
+		}
+		int nodeId = 0;
+		for ( int i = 0 , len = objects.size() ; i < len && nodeId != -1 ; i++ ) {
+			nodeId = matchNodes( objects.get(i) , nodeId , -1 );
+		}
+		return nodeId == nodes.length;
+	}
+
+	/*
+	 * Compares the subtree of an object with the subtree starting at nodeId , returns the ID of the node following
+	 * the subtree or -1 if the subtrees differ.
+	 */
+	private int matchNodes(Object3D obj,int nodeId,int parent)
+	{
+		if ( nodeId >= nodes.length || nodes[ nodeId ] != obj || parents[ nodeId ] != parent ) {
+			return -1;
+		}
+		int next = nodeId + 1;
+		final List<Object3D> children = obj.getChildren();
+		for ( int i = 0 , len = children.size() ; i < len && next != -1 ; i++ ) {
+			next = matchNodes( children.get( i ) , next , nodeId );
+		}
+		return next != -1 && next - nodeId == subtreeSizes[ nodeId ] ? next : -1;
+	}
+
+	private static void addNodes(Object3D obj,List<Object3D> nodes)
+	{
+		nodes.add( obj );
+		final List<Object3D> children = obj.getChildren();
+		for ( int i = 0 , len = children.size() ; i < len ; i++ ) {
+			addNodes( children.get( i ) , nodes );
+		}
+	}
+
+	/*
+	 * Assigns parents and subtree sizes to the subtree starting at nodeId , returns the ID of the node following the subtree.
+	 */
+	private static int assignNodes(Object3D[] nodes,int nodeId,int parent,int[] parents,int[] subtreeSizes)
+	{
+		parents[ nodeId ] = parent;
+		int next = nodeId + 1;
+		for ( int i = 0 , len = nodes[ nodeId ].getChildren().size() ; i < len ; i++ ) {
+			next = assignNodes( nodes , next , nodeId , parents , subtreeSizes );
+		}
+		subtreeSizes[ nodeId ] = next - nodeId;
+		return next;
+	}
+
+	/**
+	 * Returns the number of this snapshot , snapshots of the same world are numbered consecutively.
+	 * 
+	 * <p>The number only advances if the world changed , snapshots with equal numbers show the same state of the objects.
+	 * Their camera only differs if one of them was {@link #withCamera(Camera) derived} for another camera.</p>
+	 *
+	 * @return
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	/**
+	 * Returns the root objects.
+	 *
+	 * @return unmodifiable list
+	 */
+	public List<Object3D> getRoots() {
+		return roots;
+	}
+
+	/**
+	 * Returns all objects in depth-first order.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public Object3D[] getNodes() {
+		return nodes;
+	}
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	/**
+	 * Returns the parent node ID of each node , -1 for root objects.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public int[] getParents() {
+		return parents;
+	}
+
+	/**
+	 * Returns the number of nodes in each node's subtree , including the node itself.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public int[] getSubtreeSizes() {
+		return subtreeSizes;
+	}
+
+	/**
+	 * Returns the node IDs of all root objects , in the same order as {@link #getRoots()}.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public int[] getRootNodes() {
+		return rootNodes;
+	}
+
+	/**
+	 * Returns the offsets of each node's direct children in {@link #getChildNodes()}.
+	 *
+	 * <p>The children of node <code>n</code> are stored in the range <code>childOffsets[n]</code> (inclusive) to
+	 * <code>childOffsets[n+1]</code> (exclusive) , so the returned array holds one more element than there are nodes.
+	 * It must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public int[] getChildOffsets() {
+		return childOffsets;
+	}
+
+	/**
+	 * Returns the node IDs of all children , grouped by parent.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 * @see #getChildOffsets()
+	 */
+	public int[] getChildNodes() {
+		return childNodes;
+	}
+
+	/**
+	 * Returns the model matrix of each node relative to its parent.
+	 *
+	 * <p>The model matrix of node <code>n</code> is stored at offset <code>n*12</code>. The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public float[] getLocalTransforms() {
+		return localTransforms;
+	}
+
+	/**
+	 * Returns the {@link Object3D#getTransformVersion() transform version} of each node.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public long[] getTransformVersions() {
+		return transformVersions;
+	}
+
+	/**
+	 * Returns the {@link Object3D#getGeometryVersion() geometry version} of each node.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public long[] getGeometryVersions() {
+		return geometryVersions;
+	}
+
+	/**
+	 * Returns the {@link Object3D.RenderingFlag rendering flags} of each node.
+	 *
+	 * <p>The returned array must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public byte[] getRenderingFlags() {
+		return renderingFlags;
+	}
+
+	/**
+	 * Returns the {@link Object3D#getColors() colors} of each node.
+	 *
+	 * <p>Neither the returned array nor the color arrays it holds must be modified.</p>
+	 *
+	 * @return
+	 */
+	public int[][] getColors() {
+		return colors;
+	}
+
+	public long getProjectionVersion() {
+		return projectionVersion;
+	}
+
+	/**
+	 * Returns a copy of the camera.
+	 *
+	 * <p>The returned camera must not be modified.</p>
+	 *
+	 * @return
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+
+	public Matrix getViewMatrix() {
+		return camera.getViewMatrix();
+	}
+
+	public Matrix getProjectionMatrix() {
+		return projectionMatrix;
+	}
+
+	/**
+	 * Returns the projection matrix multiplied by the camera's view matrix.
+	 *
+	 * @return view-projection matrix or <code>null</code> if no projection has been set up
+	 */
+	public Matrix getViewProjectionMatrix() {
+		return viewProjectionMatrix;
+	}
+
+	/**
+	 * Returns the view frustum for the camera and projection of this snapshot.
+	 *
+	 * @return
+	 */
+	public Frustum getFrustum() {
+		return frustum;
+	}
+}
@@ -0,0 +1,149 @@
+package de.codesourcery.engine.render;
+
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.codesourcery.engine.linalg.LinAlgUtils;
+import de.codesourcery.engine.linalg.Vector4;
+import de.codesourcery.engine.render.SoftwareRenderer.DepthMode;
+
+/**
+ * Checks that rendering a frame does not allocate memory per polygon.
+ *
+ * <p>The same scene is rendered with coarse and with finely tessellated spheres , the memory
+ * allocated per frame must not grow with the number of polygons. All objects are placed completely
+ * inside the view frustum , clipped polygons are still allocated.</p>
+ */
+public class SoftwareRendererAllocationTest
+{
+	private static final int WIDTH = 400;
+	private static final int HEIGHT = 400;
+
+	private static final int WARMUP_FRAMES = 50;
+	private static final int MEASURED_FRAMES = 20;
+
+	// allows for allocations by other threads of the JVM
+	private static final long TOLERANCE_BYTES_PER_FRAME = 1024;
+
+	private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private SoftwareRenderer renderer;
+
+	@Before
+	public void setUp()
+	{
+		Assume.assumeTrue( threadBean.isThreadAllocatedMemorySupported() );
+		threadBean.setThreadAllocatedMemoryEnabled( true );
+
+		renderer = new SoftwareRenderer();
+		// geometry stage runs on the calculation threads , measuring is easier with just one of them
+		renderer.setCpuCount( 1 );
+		renderer.setWidth( WIDTH );
+		renderer.setHeight( HEIGHT );
+		renderer.setAmbientLightFactor( 0.25f );
+		renderer.setLightPosition( new Vector4( 0 , 100 , 100 ) );
+		// every frame shows the same scene
+		renderer.setSkipUnchangedFrames( false );
+	}
+
+	@After
+	public void tearDown()
+	{
+		if ( renderer != null ) {
+			renderer.dispose();
+		}
+	}
+
+	@Test
+	public void testPaintersAlgorithmDoesNotAllocatePerPolygon() {
+		assertNoAllocationsPerPolygon( DepthMode.PAINTERS_ALGORITHM );
+	}
+
+	@Test
+	public void testDepthBufferDoesNotAllocatePerPolygon() {
+		assertNoAllocationsPerPolygon( DepthMode.DEPTH_BUFFER );
+	}
+
+	private void assertNoAllocationsPerPolygon(DepthMode depthMode)
+	{
+		renderer.setDepthMode( depthMode );
+
+		final World coarse = createWorld( 8 );
+		final World fine = createWorld( 40 );
+
+		final long coarseBytes = measureBytesPerFrame( coarse );
+		final long fineBytes = measureBytesPerFrame( fine );
+
+		final int polygons = countPolygons( fine ) - countPolygons( coarse );
+		assertTrue( depthMode+": "+polygons+" more polygons allocated "+( fineBytes - coarseBytes )+" more bytes per frame ("+
+				coarseBytes+" vs. "+fineBytes+")" , fineBytes - coarseBytes < TOLERANCE_BYTES_PER_FRAME );
+	}
+
+	private long measureBytesPerFrame(World world)
+	{
+		renderer.setWorld( world );
+		for ( int i = 0 ; i < WARMUP_FRAMES ; i++ ) {
+			renderer.render();
+		}
+
+		final long start = allocatedBytes();
+		for ( int i = 0 ; i < MEASURED_FRAMES ; i++ ) {
+			renderer.render();
+		}
+		return ( allocatedBytes() - start ) / MEASURED_FRAMES;
+	}
+
+	/*
+	 * Bytes allocated by all threads , including the calculation thread.
+	 */
+	private long allocatedBytes()
+	{
+		long result = 0;
+		for ( long bytes : threadBean.getThreadAllocatedBytes( threadBean.getAllThreadIds() ) ) {
+			if ( bytes > 0 ) {
+				result += bytes;
+			}
+		}
+		return result;
+	}
+
+	private static int countPolygons(World world)
+	{
+		int result = 0;
+		for ( Object3D obj : world.getObjects() ) {
+			result += obj.getVertexCounts().length;
+		}
+		return result;
+	}
+
+	private static World createWorld(int tessellation)
+	{
+		final Object3D sphere = new Object3D();
+		sphere.setPrimitives( LinAlgUtils.createSphere( 10f , tessellation , tessellation ) );
+		sphere.setForegroundColor( Color.BLUE );
+
+		final World world = new World();
+		for ( int x = -1 ; x <= 1 ; x++ )
+		{
+			for ( int y = -1 ; y <= 1 ; y++ )
+			{
+				final Object3D copy = sphere.createCopy( "sphere_"+x+"_"+y );
+				copy.setModelMatrix( LinAlgUtils.translationMatrix( x * 15 , y * 15 , -60 ) );
+				world.addObject( copy );
+			}
+		}
+		world.setupPerspectiveProjection( 90 , WIDTH / (float) HEIGHT , 1 , 1000 );
+
+		final Camera camera = world.getCamera();
+		camera.setEyePosition( new Vector4( 0 , 0 , 0 ) , new Vector4( 0 , 0 , -1 ) );
+		camera.updateViewMatrix();
+		return world;
+	}
+}